@@ -0,0 +1,77 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.io.ByteStreams;
+import org.libdohj.params.SyscoinMainNetParams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of merge-mined blocks through {@link MessageSerializer#makeBlock(byte[])}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AltcoinBlockBenchmark {
+    private final NetworkParameters params = SyscoinMainNetParams.get();
+
+    @Param({"dogecoin_block371337.bin", "dogecoin_block894863.bin"})
+    public String fixture;
+
+    private MessageSerializer serializer;
+    private byte[] payload;
+    private byte[] headerPayload;
+
+    @Setup
+    public void setUp() throws Exception {
+        new Context(params);
+        serializer = params.getDefaultSerializer();
+        payload = ByteStreams.toByteArray(AltcoinBlockBenchmark.class.getResourceAsStream(fixture));
+        // Header plus AuxPoW, as sent in a "headers" message
+        headerPayload = serializer.makeBlock(payload).cloneAsHeader().bitcoinSerialize();
+    }
+
+    @Benchmark
+    public Block makeBlock() {
+        return serializer.makeBlock(payload);
+    }
+
+    @Benchmark
+    public Block makeBlockHeader() {
+        return serializer.makeBlock(headerPayload);
+    }
+
+    @Benchmark
+    public Sha256Hash makeBlockAndHash() {
+        return serializer.makeBlock(payload).getHash();
+    }
+}
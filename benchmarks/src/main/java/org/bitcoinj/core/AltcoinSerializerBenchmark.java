@@ -0,0 +1,74 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.io.ByteStreams;
+import org.libdohj.core.AltcoinSerializer;
+import org.libdohj.params.SyscoinMainNetParams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deserialization of a merge-mined "block" packet, with and without parsing
+ * in place and checksum verification.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AltcoinSerializerBenchmark {
+    private final NetworkParameters params = SyscoinMainNetParams.get();
+
+    @Param({"false", "true"})
+    public boolean slicePayloads;
+
+    @Param({"true", "false"})
+    public boolean verifyChecksums;
+
+    private AltcoinSerializer serializer;
+    private byte[] packet;
+
+    @Setup
+    public void setUp() throws Exception {
+        new Context(params);
+        serializer = new AltcoinSerializer(params, false, slicePayloads, verifyChecksums);
+        final byte[] payload = ByteStreams.toByteArray(AltcoinSerializerBenchmark.class.getResourceAsStream("dogecoin_block371337.bin"));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.serialize("block", payload, out);
+        packet = out.toByteArray();
+    }
+
+    @Benchmark
+    public Message deserializeBlock() throws Exception {
+        return serializer.deserialize(ByteBuffer.wrap(packet));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.io.ByteStreams;
+import org.libdohj.core.AltcoinNetworkParameters;
+import org.libdohj.params.SyscoinMainNetParams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and proof of work verification of a standalone AuxPoW header, using
+ * the header from Syscoin block #403,931 (as per AuxPoWTest).
+ *
+ * <p>The header was merge mined under chain ID 0x62, so the parameters are
+ * given that chain ID, or the check would fail at the chain merkle branch
+ * index. Its parent block is scrypt mined, so the parent's SHA-256 hash,
+ * which these parameters check, does not meet the parent's own target; the
+ * target used is that hash itself, so that verification runs through to the
+ * final comparison and passes. Set up fails if it doesn't.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuxPoWBenchmark {
+    private static final int MERGE_MINED_CHAIN_ID = 0x62;
+
+    private final NetworkParameters params = new SyscoinMainNetParams() {
+        @Override
+        public int getChainID() {
+            return MERGE_MINED_CHAIN_ID;
+        }
+    };
+    private final Sha256Hash hashAuxBlock = Sha256Hash.wrap("0c836b86991631d34a8a68054e2f62db919b39d1ee43c27ab3344d6aa82fa609");
+
+    private byte[] auxpowAsBytes;
+    private AuxPoW auxpow;
+    private BigInteger target;
+
+    @Setup
+    public void setUp() throws Exception {
+        new Context(params);
+        auxpowAsBytes = ByteStreams.toByteArray(AuxPoWBenchmark.class.getResourceAsStream("auxpow_header.bin"));
+        auxpow = new AuxPoW(params, auxpowAsBytes, (ChildMessage) null, params.getDefaultSerializer());
+        target = ((AltcoinNetworkParameters) params).getBlockDifficultyHash(auxpow.getParentBlockHeader()).toBigInteger();
+        // Throws with the reason if any check fails, so the benchmarks can't be measuring a rejection
+        if (!auxpow.checkProofOfWork(hashAuxBlock, target, true)) {
+            throw new IllegalStateException("AuxPoW header does not verify");
+        }
+    }
+
+    @Benchmark
+    public AuxPoW parse() {
+        return new AuxPoW(params, auxpowAsBytes, (ChildMessage) null, params.getDefaultSerializer());
+    }
+
+    @Benchmark
+    public boolean checkProofOfWork() {
+        return auxpow.checkProofOfWork(hashAuxBlock, target, false);
+    }
+
+    @Benchmark
+    public boolean parseAndCheckProofOfWork() {
+        final AuxPoW parsed = new AuxPoW(params, auxpowAsBytes, (ChildMessage) null, params.getDefaultSerializer());
+        return parsed.checkProofOfWork(hashAuxBlock, target, false);
+    }
+}
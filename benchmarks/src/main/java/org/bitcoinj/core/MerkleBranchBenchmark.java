@@ -0,0 +1,71 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.io.ByteStreams;
+import org.libdohj.params.SyscoinMainNetParams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merkle root calculation over the AuxPoW merkle branches, using the branch
+ * from Syscoin block #403,931 (as per MerkleBranchTest).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MerkleBranchBenchmark {
+    private final NetworkParameters params = SyscoinMainNetParams.get();
+    private final Sha256Hash txId = Sha256Hash.wrap("0c836b86991631d34a8a68054e2f62db919b39d1ee43c27ab3344d6aa82fa609");
+
+    private MerkleBranch branch;
+    private MerkleBranch chainMerkleBranch;
+
+    @Setup
+    public void setUp() throws Exception {
+        new Context(params);
+        byte[] branchAsBytes = ByteStreams.toByteArray(MerkleBranchBenchmark.class.getResourceAsStream("auxpow_merkle_branch2.bin"));
+        branch = new MerkleBranch(params, (ChildMessage) null, branchAsBytes, 0);
+
+        byte[] auxpowAsBytes = ByteStreams.toByteArray(MerkleBranchBenchmark.class.getResourceAsStream("auxpow_header.bin"));
+        AuxPoW auxpow = new AuxPoW(params, auxpowAsBytes, (ChildMessage) null, params.getDefaultSerializer());
+        chainMerkleBranch = auxpow.getChainMerkleBranch();
+    }
+
+    @Benchmark
+    public Sha256Hash calculateMerkleRoot() {
+        return branch.calculateMerkleRoot(txId);
+    }
+
+    @Benchmark
+    public Sha256Hash calculateChainMerkleRoot() {
+        return chainMerkleBranch.calculateMerkleRoot(txId);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.core;
+
+import org.bitcoinj.core.Context;
+import org.bitcoinj.net.ClientConnectionManager;
+import org.bitcoinj.net.MessageWriteTarget;
+import org.bitcoinj.net.NioClientManager;
+import org.bitcoinj.net.StreamConnection;
+import org.libdohj.params.SyscoinMainNetParams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opening many connections to a local echo server, exchanging a message on
+ * each and closing them again, on the NIO connection manager and on
+ * {@link VirtualThreadClientManager}. On JVMs without virtual threads the
+ * latter falls back to a platform thread per connection.
+ *
+ * <p>Measured on OpenJDK 21.0.1 with one CPU, where the virtual manager runs on
+ * virtual threads, in ms/op (lower is better):</p>
+ * <pre>
+ * connections  nio             virtual
+ *         100   87.8 +- 33.5    53.7 +- 24.3
+ *        1000  469.5 +- 73.4   427.3 +- 77.5
+ * </pre>
+ * <p>The error ranges overlap, so virtual threads are no slower than NIO
+ * here, but this does not show that they are faster.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ClientManagerBenchmark {
+    private static final int MESSAGE_SIZE = 64;
+    private static final int CONNECT_TIMEOUT_MILLIS = 30 * 1000;
+
+    @Param({"nio", "virtual"})
+    public String manager;
+
+    @Param({"100", "1000"})
+    public int connections;
+
+    private final Context context = new Context(SyscoinMainNetParams.get());
+    private ServerSocket server;
+    private InetSocketAddress serverAddress;
+    private ClientConnectionManager clientManager;
+
+    @Setup
+    public void setUp() throws Exception {
+        // A backlog large enough that no client waits on a SYN retry, which would swamp the difference measured
+        server = new ServerSocket(0, connections * 2, InetAddress.getLoopbackAddress());
+        serverAddress = (InetSocketAddress) server.getLocalSocketAddress();
+        final Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        echo(server.accept());
+                    }
+                } catch (IOException e) {
+                    // Server socket closed
+                }
+            }
+        }, "Echo server");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+
+        if ("nio".equals(manager)) {
+            clientManager = new NioClientManager();
+        } else {
+            final VirtualThreadClientManager virtualManager = new VirtualThreadClientManager();
+            // Connections beyond the server's accept backlog wait for a SYN retry, as they do with NIO
+            virtualManager.setConnectTimeoutMillis(CONNECT_TIMEOUT_MILLIS);
+            clientManager = virtualManager;
+        }
+        clientManager.startAsync().awaitRunning();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        clientManager.stopAsync().awaitTerminated();
+        server.close();
+    }
+
+    @Benchmark
+    public int openExchangeAndClose() throws Exception {
+        Context.propagate(context);
+        final CountDownLatch echoed = new CountDownLatch(connections);
+        final CountDownLatch closed = new CountDownLatch(connections);
+        for (int connectionIdx = 0; connectionIdx < connections; connectionIdx++) {
+            clientManager.openConnection(serverAddress, new ClientConnection(echoed, closed));
+        }
+        echoed.await();
+        clientManager.closeConnections(connections);
+        closed.await();
+        return connections;
+    }
+
+    /**
+     * Echo everything read from the socket back to it, on a thread of its own.
+     */
+    private static void echo(final Socket socket) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final byte[] buffer = new byte[MESSAGE_SIZE];
+                try {
+                    final InputStream in = socket.getInputStream();
+                    final OutputStream out = socket.getOutputStream();
+                    int read;
+                    while ((read = in.read(buffer)) >= 0) {
+                        out.write(buffer, 0, read);
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    // Client has gone
+                } finally {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        // Already closed
+                    }
+                }
+            }
+        }, "Echo connection");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static class ClientConnection implements StreamConnection {
+        private final CountDownLatch echoed;
+        private final CountDownLatch closed;
+        private MessageWriteTarget writeTarget;
+        private volatile int received = 0;
+
+        private ClientConnection(final CountDownLatch echoed, final CountDownLatch closed) {
+            this.echoed = echoed;
+            this.closed = closed;
+        }
+
+        @Override
+        public void connectionClosed() {
+            // A connection which failed still has to be counted, or the benchmark would never finish
+            if (received < MESSAGE_SIZE) {
+                echoed.countDown();
+            }
+            closed.countDown();
+        }
+
+        @Override
+        public void connectionOpened() {
+            try {
+                writeTarget.writeBytes(new byte[MESSAGE_SIZE]);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public int receiveBytes(final ByteBuffer buff) {
+            final int count = buff.remaining();
+            buff.position(buff.limit());
+            received += count;
+            if (received >= MESSAGE_SIZE && received - count < MESSAGE_SIZE) {
+                echoed.countDown();
+            }
+            return count;
+        }
+
+        @Override
+        public void setWriteTarget(final MessageWriteTarget writeTarget) {
+            this.writeTarget = writeTarget;
+        }
+
+        @Override
+        public int getMaxMessageSize() {
+            return MESSAGE_SIZE;
+        }
+    }
+}
@@ -18,11 +18,12 @@
 package org.bitcoinj.core;
 
 import org.libdohj.core.AltcoinNetworkParameters;
+import org.libdohj.core.CompactTarget;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
 
@@ -45,21 +46,49 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
     private boolean auxpowParsed = false;
     private boolean auxpowBytesValid = false;
 
-    /** AuxPoW header element, if applicable. */
+    /** AuxPoW header element, if applicable and decoded. */
     @Nullable private AuxPoW auxpow;
 
+    /**
+     * Payload holding the AuxPoW header, if there is one which has not yet been
+     * decoded. Only the position and length of the header are recorded on
+     * parse; the header is decoded when first requested.
+     */
+    @Nullable private byte[] auxpowPayload;
+    private int auxpowOffset;
+    private int auxpowLength;
+
     /**
      * Whether the chain this block belongs to support AuxPoW, used to avoid
      * repeated instanceof checks. Initialised in parseTransactions()
      */
     private boolean auxpowChain = false;
 
+    // Parts of the block version, decoded once by decodeVersion(). These have
+    // no initialisers, as they are set during parsing, which happens before
+    // initialisers run.
+    /** Version as returned by getVersion(). */
+    private long filteredVersion;
+    private long chainID;
+    /** Flag bits, taken from bits 8 to 15 of the version. */
+    private int versionFlags;
+    /** Whether the version marks this as an AuxPoW block. */
+    private boolean auxpowVersion;
+
+    /**
+     * Hash of the block when its proof of work was found valid by
+     * {@link #verifyProofOfWork()}, so later checks of the same header can be
+     * skipped.
+     */
+    @Nullable private volatile Sha256Hash proofOfWorkVerifiedHash;
+
 
     /** Special case constructor, used for the genesis node, cloneAsHeader and unit tests.
      * @param params NetworkParameters object.
      */
     public AltcoinBlock(final NetworkParameters params, final long version) {
         super(params, version);
+        decodeVersion();
     }
 
     /** Special case constructor, used for the genesis node, cloneAsHeader and unit tests.
@@ -103,15 +132,51 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
     public AltcoinBlock(NetworkParameters params, long version, Sha256Hash prevBlockHash, Sha256Hash merkleRoot, long time,
                  long difficultyTarget, long nonce, List<Transaction> transactions) {
         super(params, version, prevBlockHash, merkleRoot, time, difficultyTarget, nonce, transactions);
+        decodeVersion();
     }
 
 
+    /**
+     * Get the AuxPoW header, decoding it if this has not already been done.
+     *
+     * @throws ProtocolException if the AuxPoW header cannot be decoded.
+     */
+    @Nullable
     public AuxPoW getAuxPoW() {
+        if (null != this.auxpowPayload) {
+            final AuxPoW decoded = new AuxPoW(params, auxpowPayload, auxpowOffset, this, serializer);
+            if (decoded.getMessageSize() != auxpowLength) {
+                throw new ProtocolException("AuxPoW header length " + decoded.getMessageSize()
+                    + " does not match expected length " + auxpowLength);
+            }
+            this.auxpow = decoded;
+            this.auxpowPayload = null;
+        }
         return this.auxpow;
     }
 
     public void setAuxPoW(AuxPoW auxpow) {
         this.auxpow = auxpow;
+        this.auxpowPayload = null;
+        this.proofOfWorkVerifiedHash = null;
+    }
+
+    /**
+     * Returns true if this block has an AuxPoW header, without decoding it.
+     */
+    public boolean hasAuxPoW() {
+        return null != this.auxpow || null != this.auxpowPayload;
+    }
+
+    /**
+     * Returns the serialized length of the AuxPoW header, without decoding it,
+     * or 0 if there is no AuxPoW header.
+     */
+    private int getAuxPoWMessageSize() {
+        if (null != this.auxpowPayload) {
+            return auxpowLength;
+        }
+        return null != this.auxpow ? this.auxpow.getMessageSize() : 0;
     }
 
 
@@ -132,7 +197,7 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
      * Return chain ID from block version of an AuxPoW-enabled chain.
      */
     public long getChainID() {
-        return getChainID(this.getRawVersion());
+        return this.chainID;
     }
 
     /**
@@ -142,10 +207,9 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
      */
     public BitSet getVersionFlags() {
         final BitSet bitset = new BitSet(BYTE_BITS);
-        final int bits = (int) (this.getRawVersion() & 0xff00) >> 8;
 
         for (int bit = 0; bit < BYTE_BITS; bit++) {
-            if ((bits & (1 << bit)) > 0) {
+            if (hasVersionFlag(bit)) {
                 bitset.set(bit);
             }
         }
@@ -153,6 +217,28 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
         return bitset;
     }
 
+    /**
+     * Return whether the given flag is set in the block version of an
+     * AuxPoW-enabled chain.
+     *
+     * @param bit index of the flag, from 0 to 7.
+     */
+    public boolean hasVersionFlag(final int bit) {
+        if (bit < 0 || bit >= BYTE_BITS) {
+            throw new IllegalArgumentException("Flag index must be from 0 to 7: " + bit);
+        }
+        return (this.versionFlags & (1 << bit)) != 0;
+    }
+
+    /**
+     * Return whether the block version marks this as an AuxPoW block. This is
+     * independent of whether the AuxPoW header itself is present; see
+     * {@link #hasAuxPoW()}.
+     */
+    public boolean isAuxPoW() {
+        return this.auxpowVersion;
+    }
+
     /**
      * Return block version without applying any filtering (i.e. for AuxPoW blocks
      * which structure version differently to pack in additional data).
@@ -171,14 +257,27 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
 
     @Override
     public long getVersion() {
-        // TODO: Can we cache the individual parts on parse?
+        return this.filteredVersion;
+    }
+
+    /**
+     * Decode the parts of the block version into fields. The version cannot
+     * change once the block is constructed, so this is done once, either when
+     * parsing or in the constructor.
+     */
+    private void decodeVersion() {
+        final long rawVersion = getRawVersion();
         if (this.params instanceof AltcoinNetworkParameters) {
             // AuxPoW networks use the higher block version bits for flags and
             // chain ID.
-            return getBaseVersion(super.getVersion());
+            this.filteredVersion = getBaseVersion(rawVersion);
         } else {
-            return super.getVersion();
+            this.filteredVersion = rawVersion;
         }
+        this.chainID = getChainID(rawVersion);
+        this.versionFlags = (int) (rawVersion & 0xff00) >> 8;
+        this.auxpowVersion = this.params instanceof AuxPoWNetworkParameters
+            && ((AuxPoWNetworkParameters) this.params).isAuxPoWBlockVersion(rawVersion);
     }
 
     protected void parseAuxPoW() throws ProtocolException {
@@ -186,11 +285,22 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
             return;
 
         this.auxpow = null;
+        this.auxpowPayload = null;
         if (this.auxpowChain) {
-            final AuxPoWNetworkParameters auxpowParams = (AuxPoWNetworkParameters)this.params;
-            if (auxpowParams.isAuxPoWBlockVersion(this.getRawVersion())
-                && payload.length >= 160) { // We have at least 2 headers in an Aux block. Workaround for StoredBlocks
-                this.auxpow = new AuxPoW(params, payload, cursor, this, serializer);
+            if (this.auxpowVersion
+                && payload.length - offset >= 160) { // We have at least 2 headers in an Aux block. Workaround for StoredBlocks
+                // Where the payload is being retained anyway, just record where the
+                // AuxPoW header is, and decode it only if it's asked for.
+                final int length = serializer.isParseRetainMode()
+                    ? AuxPoW.calcLength(payload, cursor)
+                    : -1;
+                if (length >= 0) {
+                    this.auxpowPayload = payload;
+                    this.auxpowOffset = cursor;
+                    this.auxpowLength = length;
+                } else {
+                    this.auxpow = new AuxPoW(params, payload, cursor, this, serializer);
+                }
             }
         }
 
@@ -198,22 +308,36 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
         this.auxpowBytesValid = serializer.isParseRetainMode();
     }
 
+    /**
+     * Parse the AuxPoW header (if any) and then transactions. Where the length
+     * of the message is known, transactions are only read if there are bytes
+     * left for them within that length, as the payload may be a slice of a
+     * larger buffer.
+     */
     @Override
     protected void parseTransactions(final int offset) {
+        decodeVersion();
         this.auxpowChain = params instanceof AuxPoWNetworkParameters;
         parseAuxPoW();
-        if (null != this.auxpow) {
-            super.parseTransactions(offset + auxpow.getMessageSize());
-            optimalEncodingMessageSize += auxpow.getMessageSize();
+        final int transactionsOffset = offset + getAuxPoWMessageSize();
+        if (this.length != UNKNOWN_LENGTH
+            && transactionsOffset >= this.offset + this.length) {
+            // Header only
+            cursor = transactionsOffset;
+            optimalEncodingMessageSize = HEADER_SIZE;
+            transactionBytesValid = false;
         } else {
-            super.parseTransactions(offset);
+            super.parseTransactions(transactionsOffset);
         }
+        optimalEncodingMessageSize += getAuxPoWMessageSize();
     }
 
     @Override
     void writeHeader(OutputStream stream) throws IOException {
         super.writeHeader(stream);
-        if (null != this.auxpow) {
+        if (null != this.auxpowPayload) {
+            stream.write(auxpowPayload, auxpowOffset, auxpowLength);
+        } else if (null != this.auxpow) {
             this.auxpow.bitcoinSerialize(stream);
         }
     }
@@ -224,28 +348,59 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
         AltcoinBlock block = new AltcoinBlock(params, getRawVersion());
         super.copyBitcoinHeaderTo(block);
         block.auxpow = auxpow;
+        if (null != auxpowPayload) {
+            // Only the AuxPoW bytes, as headers are kept long after the message they came in, which may hold the
+            // transactions or thousands of other headers
+            block.auxpowPayload = Arrays.copyOfRange(auxpowPayload, auxpowOffset, auxpowOffset + auxpowLength);
+            block.auxpowOffset = 0;
+            block.auxpowLength = auxpowLength;
+        }
+        block.proofOfWorkVerifiedHash = proofOfWorkVerifiedHash;
         return block;
     }
 
+    /**
+     * Check the proof of work of this block, and if it is valid record that, so
+     * that checking it again (for example when the block is added to a chain)
+     * costs only a hash comparison. This depends only on the block itself, so
+     * can be run for many blocks in parallel before they are added to a chain,
+     * though each block must only be used by one thread at a time.
+     *
+     * @return true if the proof of work is valid, false if it is invalid or the
+     * block could not be checked.
+     */
+    public boolean verifyProofOfWork() {
+        try {
+            if (checkProofOfWork(false)) {
+                this.proofOfWorkVerifiedHash = getHash();
+                return true;
+            }
+        } catch (VerificationException e) {
+            // Left for the chain to report when the block is added
+        }
+        return false;
+    }
+
     /** Returns true if the hash of the block is OK (lower than difficulty target). */
     protected boolean checkProofOfWork(boolean throwException) throws VerificationException {
+        final Sha256Hash verifiedHash = this.proofOfWorkVerifiedHash;
+        if (null != verifiedHash && verifiedHash.equals(getHash())) {
+            return true;
+        }
         if (params instanceof AltcoinNetworkParameters) {
-            BigInteger target = getDifficultyTargetAsInteger();
+            final CompactTarget target = CompactTarget.decode(getDifficultyTarget());
+            target.checkRange(params.getMaxTarget());
 
-            if (params instanceof AuxPoWNetworkParameters) {
-                final AuxPoWNetworkParameters auxParams = (AuxPoWNetworkParameters)this.params;
-                if (auxParams.isAuxPoWBlockVersion(getRawVersion()) && null != auxpow) {
-                    return auxpow.checkProofOfWork(this.getHash(), target, throwException);
-                }
+            if (isAuxPoW() && hasAuxPoW()) {
+                return getAuxPoW().checkProofOfWork(this.getHash(), target, throwException);
             }
 
             final AltcoinNetworkParameters altParams = (AltcoinNetworkParameters)this.params;
-            BigInteger h = altParams.getBlockDifficultyHash(this).toBigInteger();
-            if (h.compareTo(target) > 0) {
+            if (!target.isMetBy(altParams.getBlockDifficultyHash(this))) {
                 // Proof of work check failed!
                 if (throwException)
                     throw new VerificationException("Hash is higher than target: " + getHashAsString() + " vs "
-                            + target.toString(16));
+                            + target.toString());
                 else
                     return false;
             }
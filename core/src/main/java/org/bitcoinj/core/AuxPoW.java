@@ -19,13 +19,13 @@
 package org.bitcoinj.core;
 
 import org.libdohj.core.AuxPoWNetworkParameters;
+import org.libdohj.core.CompactTarget;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.io.*;
 import java.math.BigInteger;
-import java.nio.ByteBuffer;
 import java.util.*;
 
 
@@ -41,6 +41,9 @@ public class AuxPoW extends ChildMessage {
         (byte) 0xfa, (byte) 0xbe, "m".getBytes()[0], "m".getBytes()[0]
     };
 
+    /** {@link #MERGED_MINING_HEADER} read as a big-endian integer. */
+    private static final int MERGED_MINING_HEADER_INT = 0xfabe6d6d;
+
     /**
      * Maximum index of the merkle root hash in the coinbase transaction script,
      * where no merged mining header is present.
@@ -54,7 +57,10 @@ public class AuxPoW extends ChildMessage {
     private Sha256Hash hashBlock;
     private MerkleBranch coinbaseBranch;
     private MerkleBranch chainMerkleBranch;
-    private AltcoinBlock parentBlockHeader;
+    /** View over the parent block header within the payload, if parsed. */
+    @Nullable private AuxPoWParentHeader parentHeader;
+    /** Parent block header, only built from the view when first requested. */
+    @Nullable private AltcoinBlock parentBlockHeader;
 
     // Transactions can be encoded in a way that will use more bytes than is optimal
     // (due to VarInts having multiple encodings)
@@ -69,6 +75,7 @@ public class AuxPoW extends ChildMessage {
         hashBlock = Sha256Hash.ZERO_HASH;
         coinbaseBranch = new MerkleBranch(params, this);
         chainMerkleBranch = new MerkleBranch(params, this);
+        parentHeader = null;
         parentBlockHeader = null;
     }
 
@@ -99,24 +106,64 @@ public class AuxPoW extends ChildMessage {
         super(params, payload, 0, parent, serializer, Message.UNKNOWN_LENGTH);
     }
 
-    protected static int calcLength(byte[] buf, int offset) {
-        VarInt varint;
-        // jump past transaction
-        int cursor = offset + Transaction.calcLength(buf, offset);
+    /**
+     * Calculate the length of an AuxPoW header without decoding it.
+     *
+     * @return the length in bytes, or -1 if the coinbase transaction uses the
+     * segwit serialization, in which case the header must be decoded to find it.
+     * @throws ProtocolException if the header runs past the end of the buffer.
+     */
+    protected static int calcLength(byte[] buf, int offset) throws ProtocolException {
+        try {
+            // Transaction version
+            int cursor = offset + 4;
+
+            VarInt varint = new VarInt(buf, cursor);
+            if (varint.value == 0) {
+                // Segwit marker
+                return -1;
+            }
+            cursor += varint.getOriginalSizeInBytes();
+            final long inputCount = checkCount(varint.value, buf);
+            for (long inputIdx = 0; inputIdx < inputCount; inputIdx++) {
+                // Outpoint, script, sequence
+                cursor += 36;
+                varint = new VarInt(buf, cursor);
+                cursor += varint.getOriginalSizeInBytes() + (int) checkCount(varint.value, buf) + 4;
+            }
 
-        // jump past header hash
-        cursor += 4;
+            varint = new VarInt(buf, cursor);
+            cursor += varint.getOriginalSizeInBytes();
+            final long outputCount = checkCount(varint.value, buf);
+            for (long outputIdx = 0; outputIdx < outputCount; outputIdx++) {
+                // Value, script
+                cursor += 8;
+                varint = new VarInt(buf, cursor);
+                cursor += varint.getOriginalSizeInBytes() + (int) checkCount(varint.value, buf);
+            }
 
-        // Coin base branch
-        cursor += MerkleBranch.calcLength(buf, offset);
+            // Lock time, then parent block hash
+            cursor += 4 + 32;
 
-        // Block chain branch
-        cursor += MerkleBranch.calcLength(buf, offset);
+            // Coinbase branch, then blockchain branch
+            cursor += MerkleBranch.calcLength(buf, cursor);
+            cursor += MerkleBranch.calcLength(buf, cursor);
 
-        // Block header
-		cursor += Block.HEADER_SIZE;
+            cursor += Block.HEADER_SIZE;
+            if (cursor > buf.length) {
+                throw new ProtocolException("AuxPoW header runs past end of payload");
+            }
+            return cursor - offset;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new ProtocolException(e);
+        }
+    }
 
-        return cursor - offset + 4;
+    private static long checkCount(final long count, final byte[] buf) throws ProtocolException {
+        if (count < 0 || count > buf.length) {
+            throw new ProtocolException("AuxPoW header count or length exceeds payload: " + count);
+        }
+        return count;
     }
 
     @Override
@@ -137,11 +184,11 @@ public class AuxPoW extends ChildMessage {
         cursor += chainMerkleBranch.getOptimalEncodingMessageSize();
         optimalEncodingMessageSize += chainMerkleBranch.getOptimalEncodingMessageSize();
 
-        // Make a copy of JUST the contained block header, so the block parser doesn't try reading
-        // transactions past the end
-        byte[] blockBytes = Arrays.copyOfRange(payload, cursor, cursor + Block.HEADER_SIZE);
+        // The parent block header is read in place from the payload, and only turned into
+        // a block if someone asks for it
+        parentHeader = new AuxPoWParentHeader(params, payload, cursor);
+        parentBlockHeader = null;
         cursor += Block.HEADER_SIZE;
-        parentBlockHeader = new AltcoinBlock(params, blockBytes, 0, this, serializer, Block.HEADER_SIZE);
 
         length = cursor - offset;
     }
@@ -174,7 +221,11 @@ public class AuxPoW extends ChildMessage {
         coinbaseBranch.bitcoinSerialize(stream);
         chainMerkleBranch.bitcoinSerialize(stream);
 
-        parentBlockHeader.bitcoinSerializeToStream(stream);
+        if (null == parentBlockHeader && null != parentHeader) {
+            parentHeader.bitcoinSerialize(stream);
+        } else {
+            getParentBlockHeader().bitcoinSerializeToStream(stream);
+        }
     }
 
     @Override
@@ -186,7 +237,7 @@ public class AuxPoW extends ChildMessage {
         if (!hashBlock.equals(input.hashBlock)) return false;
         if (!coinbaseBranch.equals(input.coinbaseBranch)) return false;
         if (!chainMerkleBranch.equals(input.chainMerkleBranch)) return false;
-        if (!parentBlockHeader.equals(input.parentBlockHeader)) return false;
+        if (!getParentBlockHeader().equals(input.getParentBlockHeader())) return false;
         return getHash().equals(input.getHash());
     }
 
@@ -197,7 +248,7 @@ public class AuxPoW extends ChildMessage {
         result = 31 * result + hashBlock.hashCode();
         result = 31 * result + coinbaseBranch.hashCode();
         result = 31 * result + chainMerkleBranch.hashCode();
-        result = 31 * result + parentBlockHeader.hashCode();
+        result = 31 * result + getParentBlockHeader().hashCode();
         return result;
     }
 
@@ -206,11 +257,49 @@ public class AuxPoW extends ChildMessage {
      * is the value which should match the difficulty target. Note that blocks are
      * not necessarily part of the parent blockchain, they simply must be valid
      * blocks at the difficulty of the child blockchain.
+     *
+     * The block is built from the header bytes on first call; where only
+     * individual header fields are needed, {@link #getParentHeader()} avoids
+     * this.
      */
     public AltcoinBlock getParentBlockHeader() {
+        if (null == parentBlockHeader && null != parentHeader) {
+            parentBlockHeader = parentHeader.toBlock(this, serializer);
+        }
         return parentBlockHeader;
     }
 
+    /**
+     * Get a lightweight view of the parent block header, as parsed. Returns null
+     * if this header was not parsed from a payload, or if the parent block header
+     * has been built or replaced since; in that case use
+     * {@link #getParentBlockHeader()}.
+     */
+    @Nullable
+    public AuxPoWParentHeader getParentHeader() {
+        return null == parentBlockHeader ? parentHeader : null;
+    }
+
+    /**
+     * Get the chain ID from the parent block header, without building the block
+     * if it hasn't been already.
+     */
+    private long getParentChainID() {
+        final AuxPoWParentHeader view = getParentHeader();
+        return null != view ? view.getChainID() : getParentBlockHeader().getChainID();
+    }
+
+    /**
+     * Check the merkle root of the parent block header against the given hash, in
+     * little-endian byte order, without building the block if it hasn't been already.
+     */
+    private boolean isParentMerkleRoot(final byte[] root) {
+        final AuxPoWParentHeader view = getParentHeader();
+        return null != view
+            ? view.isMerkleRoot(root, 0)
+            : Arrays.equals(getParentBlockHeader().getMerkleRoot().getReversedBytes(), root);
+    }
+
     /**
      * Get the coinbase transaction from the AuxPoW header. This should contain a
      * reference back to the block hash in its input scripts, to prove that the
@@ -243,6 +332,18 @@ public class AuxPoW extends ChildMessage {
      */
     protected boolean checkProofOfWork(Sha256Hash hashAuxBlock,
         BigInteger target, boolean throwException) throws VerificationException {
+        return checkProofOfWork(hashAuxBlock, CompactTarget.valueOf(target), throwException);
+    }
+
+    /**
+     * Check the proof of work for this AuxPoW header meets the target
+     * difficulty.
+     *
+     * @param hashAuxBlock hash of the block the AuxPoW header is attached to.
+     * @param target the difficulty target.
+     */
+    protected boolean checkProofOfWork(Sha256Hash hashAuxBlock,
+        CompactTarget target, boolean throwException) throws VerificationException {
         if (!(params instanceof AuxPoWNetworkParameters)) {
             if (throwException) {
                 // Should be impossible
@@ -261,7 +362,7 @@ public class AuxPoW extends ChildMessage {
         }
 
         if (!altcoinParams.isTestNet()
-            && parentBlockHeader.getChainID() == altcoinParams.getChainID()) {
+            && getParentChainID() == altcoinParams.getChainID()) {
             if (throwException) {
                 throw new VerificationException("Aux POW parent has our chain ID");
             }
@@ -275,12 +376,16 @@ public class AuxPoW extends ChildMessage {
             return false;
         }
 
-        Sha256Hash nRootHash = getChainMerkleBranch().calculateMerkleRoot(hashAuxBlock);
-        final byte[] vchRootHash = nRootHash.getBytes();
+        // Merkle roots are calculated in little-endian (wire) byte order
+        final byte[] chainRoot = hashAuxBlock.getReversedBytes();
+        getChainMerkleBranch().calculateMerkleRoot(chainRoot, 0, chainRoot, 0);
+        final byte[] vchRootHash = Utils.reverseBytes(chainRoot);
 
         // Check that the coinbase transaction is in the merkle tree of the
         // parent block header
-        if (!getCoinbaseBranch().calculateMerkleRoot(getCoinbase().getTxId()).equals(parentBlockHeader.getMerkleRoot())) {
+        final byte[] coinbaseRoot = getCoinbase().getTxId().getReversedBytes();
+        getCoinbaseBranch().calculateMerkleRoot(coinbaseRoot, 0, coinbaseRoot, 0);
+        if (!isParentMerkleRoot(coinbaseRoot)) {
             if (throwException) {
                 throw new VerificationException("Aux POW merkle root incorrect");
             }
@@ -299,8 +404,18 @@ public class AuxPoW extends ChildMessage {
         int pcHead = -1;
         int pc = -1;
 
+        // Scan once, keeping the last four bytes seen in a rolling window. The
+        // window is compared against the header, and against the start of the
+        // root hash before the rest of the root is checked.
+        final int rootPrefix = (int) Utils.readUint32BE(vchRootHash, 0);
+        int window = 0;
         for (int scriptIdx = 0; scriptIdx < script.length; scriptIdx++) {
-            if (arrayMatch(script, scriptIdx, MERGED_MINING_HEADER)) {
+            window = (window << 8) | (script[scriptIdx] & 0xff);
+            if (scriptIdx < 3) {
+                continue;
+            }
+            final int start = scriptIdx - 3;
+            if (window == MERGED_MINING_HEADER_INT) {
                 // Enforce only one chain merkle root by checking that a single instance of the merged
                 // mining header exists just before.
                 if (pcHead >= 0) {
@@ -309,9 +424,9 @@ public class AuxPoW extends ChildMessage {
                     }
                     return false;
                 }
-                pcHead = scriptIdx;
-            } else if (arrayMatch(script, scriptIdx, vchRootHash)) {
-                pc = scriptIdx;
+                pcHead = start;
+            } else if (window == rootPrefix && arrayMatch(script, start, vchRootHash)) {
+                pc = start;
             }
         }
 
@@ -351,8 +466,7 @@ public class AuxPoW extends ChildMessage {
             return false;
         }
 
-        byte[] sizeBytes = Utils.reverseBytes(Arrays.copyOfRange(script, pc, pc + 4));
-        int branchSize = ByteBuffer.wrap(sizeBytes).getInt();
+        int branchSize = (int) Utils.readUint32(script, pc);
         if (branchSize != (1 << getChainMerkleBranch().size())) {
             if (throwException) {
                 throw new VerificationException("Aux POW merkle branch size does not match parent coinbase");
@@ -372,13 +486,15 @@ public class AuxPoW extends ChildMessage {
             return false;
         }
 
-        Sha256Hash hash = altcoinParams.getBlockDifficultyHash(getParentBlockHeader());
-        BigInteger hashVal = hash.toBigInteger();
-        if (hashVal.compareTo(target) > 0) {
+        final AuxPoWParentHeader parentHeader = getParentHeader();
+        final Sha256Hash hash = null != parentHeader
+            ? parentHeader.getDifficultyHash(altcoinParams)
+            : altcoinParams.getBlockDifficultyHash(getParentBlockHeader());
+        if (!target.isMetBy(hash)) {
             // Proof of work check failed!
             if (throwException) {
                 throw new VerificationException("Hash is higher than target: " + hash.toString() + " vs "
-                        + target.toString(16));
+                        + target.toString());
             }
             return false;
         }
@@ -397,10 +513,8 @@ public class AuxPoW extends ChildMessage {
      */
     protected static long getNonceFromScript(final byte[] script, int pc) {
         // Note that the nonce value is packed as platform order (typically
-        // little-endian) so we have to convert to big-endian for Java
-        final byte[] nonceBytes = Utils.reverseBytes(Arrays.copyOfRange(script, pc + 4, pc + 8));
-
-        return ByteBuffer.wrap(nonceBytes).getInt() & 0xffffffffl;
+        // little-endian)
+        return Utils.readUint32(script, pc + 4);
     }
 
     /**
@@ -464,6 +578,7 @@ public class AuxPoW extends ChildMessage {
      * Set the parent chain block header.
      */
     public void setParentBlockHeader(final AltcoinBlock header) {
+        this.parentHeader = null;
         this.parentBlockHeader = header;
     }
 }
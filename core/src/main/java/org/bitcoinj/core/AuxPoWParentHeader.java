@@ -0,0 +1,166 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.libdohj.core.AltcoinNetworkParameters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * <p>A read-only view of the parent chain block header embedded in an AuxPoW
+ * header. Fields are read straight out of the payload the AuxPoW header was
+ * parsed from, rather than copying the 80 header bytes and parsing them into
+ * an {@link AltcoinBlock} for every merge-mined block seen.</p>
+ *
+ * <p>Use {@link #toBlock(Message, MessageSerializer)} where a full block object
+ * is needed.</p>
+ */
+public class AuxPoWParentHeader {
+    private static final int VERSION_OFFSET = 0;
+    private static final int PREV_BLOCK_HASH_OFFSET = 4;
+    private static final int MERKLE_ROOT_OFFSET = 36;
+    private static final int TIME_OFFSET = 68;
+    private static final int DIFFICULTY_TARGET_OFFSET = 72;
+    private static final int NONCE_OFFSET = 76;
+
+    private final NetworkParameters params;
+    private final byte[] payload;
+    private final int offset;
+
+    /**
+     * @param params NetworkParameters object.
+     * @param payload Bitcoin protocol formatted byte array containing the header.
+     * @param offset The location of the first header byte within the array.
+     * @throws ProtocolException if the payload is too short to contain a header at the offset.
+     */
+    public AuxPoWParentHeader(NetworkParameters params, byte[] payload, int offset) throws ProtocolException {
+        if (offset < 0 || payload.length - offset < Block.HEADER_SIZE) {
+            throw new ProtocolException("Not enough bytes for a parent block header at offset " + offset);
+        }
+        this.params = params;
+        this.payload = payload;
+        this.offset = offset;
+    }
+
+    /**
+     * Return block version without applying any filtering.
+     */
+    public long getRawVersion() {
+        return Utils.readUint32(payload, offset + VERSION_OFFSET);
+    }
+
+    /**
+     * Return the chain ID (upper 16 bits) from the block version.
+     */
+    public long getChainID() {
+        return AltcoinBlock.getChainID(getRawVersion());
+    }
+
+    public Sha256Hash getPrevBlockHash() {
+        return Sha256Hash.wrap(readHash(PREV_BLOCK_HASH_OFFSET));
+    }
+
+    public Sha256Hash getMerkleRoot() {
+        return Sha256Hash.wrap(readHash(MERKLE_ROOT_OFFSET));
+    }
+
+    /**
+     * Compare the merkle root against the given hash, without copying either.
+     *
+     * @param hash array containing the hash, in little-endian (wire) byte order.
+     * @param hashOffset offset of the hash within its array.
+     */
+    public boolean isMerkleRoot(byte[] hash, int hashOffset) {
+        final int start = offset + MERKLE_ROOT_OFFSET;
+        for (int byteIdx = 0; byteIdx < Sha256Hash.LENGTH; byteIdx++) {
+            if (payload[start + byteIdx] != hash[hashOffset + byteIdx]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getTimeSeconds() {
+        return Utils.readUint32(payload, offset + TIME_OFFSET);
+    }
+
+    public long getDifficultyTarget() {
+        return Utils.readUint32(payload, offset + DIFFICULTY_TARGET_OFFSET);
+    }
+
+    public long getNonce() {
+        return Utils.readUint32(payload, offset + NONCE_OFFSET);
+    }
+
+    /**
+     * Calculate the double-SHA256 hash of the header.
+     */
+    public Sha256Hash getHash() {
+        return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(payload, offset, Block.HEADER_SIZE));
+    }
+
+    /**
+     * Get the hash of the header for comparing against target difficulty,
+     * reading the header bytes in place.
+     *
+     * @see AltcoinNetworkParameters#getBlockDifficultyHash(byte[], int)
+     */
+    public Sha256Hash getDifficultyHash(AltcoinNetworkParameters params) {
+        return params.getBlockDifficultyHash(payload, offset);
+    }
+
+    /**
+     * Build a full block object from the header bytes. This copies the header,
+     * so later changes to the block are not reflected in this view.
+     *
+     * @param parent The message element which contains this header.
+     * @param serializer the serializer to use for the block.
+     */
+    public AltcoinBlock toBlock(Message parent, MessageSerializer serializer) throws ProtocolException {
+        // Make a copy of JUST the contained block header, so the block parser doesn't try reading
+        // transactions past the end
+        final byte[] blockBytes = Arrays.copyOfRange(payload, offset, offset + Block.HEADER_SIZE);
+        return new AltcoinBlock(params, blockBytes, 0, parent, serializer, Block.HEADER_SIZE);
+    }
+
+    /**
+     * Write the header bytes, unchanged, to the given stream.
+     */
+    public void bitcoinSerialize(OutputStream stream) throws IOException {
+        stream.write(payload, offset, Block.HEADER_SIZE);
+    }
+
+    /**
+     * Read a hash stored in little-endian order at the given position in the header,
+     * and return its bytes in big-endian (display) order.
+     */
+    private byte[] readHash(int position) {
+        final byte[] hash = new byte[Sha256Hash.LENGTH];
+        final int start = offset + position;
+        for (int byteIdx = 0; byteIdx < Sha256Hash.LENGTH; byteIdx++) {
+            hash[byteIdx] = payload[start + Sha256Hash.LENGTH - 1 - byteIdx];
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "AuxPoW parent header: " + getHash();
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Downloads transactions a peer asked for as dependencies of pending
+ * transactions, shared by every dependency walk on the peer.</p>
+ *
+ * <p>A hash already being fetched is not asked for again, so wallets which
+ * are all interested in the same payment share one download of its
+ * dependencies. Requests go out in batches, one getdata per batch, with the
+ * bytes expected back capped so that a long chain of unconfirmed payments
+ * cannot flood the connection. Downloaded transactions are kept for a short
+ * time, so that the next payment in the chain does not fetch them again.</p>
+ *
+ * <p>The size of a transaction is not known until it arrives, so each request
+ * is counted as {@link #ESTIMATED_TX_SIZE} bytes against the cap.</p>
+ */
+final class DependencyDownloader {
+    private static final Logger log = LoggerFactory.getLogger(DependencyDownloader.class);
+
+    /** Bytes each outstanding request is counted as. */
+    static final int ESTIMATED_TX_SIZE = 500;
+    static final long DEFAULT_MAX_BYTES_IN_FLIGHT = 500 * 1000;
+    static final long DEFAULT_CACHE_TTL_MILLIS = 60 * 1000;
+    /** Most transactions kept in the cache, however recently downloaded. */
+    static final int MAX_CACHED_TRANSACTIONS = 1000;
+
+    private final Peer peer;
+    private final NetworkParameters params;
+    private final PendingDataRequests requests;
+
+    /** Futures for every hash queued or in flight. */
+    @GuardedBy("this") private final Map<Sha256Hash, SettableFuture<Transaction>> pending =
+        new HashMap<Sha256Hash, SettableFuture<Transaction>>();
+    /** Hashes waiting for room under the cap, in the order they were asked for. */
+    @GuardedBy("this") private final ArrayDeque<Sha256Hash> queue = new ArrayDeque<Sha256Hash>();
+    @GuardedBy("this") private long bytesInFlight = 0;
+    /** Downloaded transactions, oldest first, as they all live for the same time. */
+    @GuardedBy("this") private final LinkedHashMap<Sha256Hash, Cached> cache =
+        new LinkedHashMap<Sha256Hash, Cached>();
+    @GuardedBy("this") private long maxBytesInFlight = DEFAULT_MAX_BYTES_IN_FLIGHT;
+    @GuardedBy("this") private long cacheTtlMillis = DEFAULT_CACHE_TTL_MILLIS;
+
+    DependencyDownloader(final Peer peer, final NetworkParameters params, final PendingDataRequests requests) {
+        this.peer = peer;
+        this.params = params;
+        this.requests = requests;
+    }
+
+    /**
+     * Fetch the given transactions from the peer, from the cache, or by
+     * joining a download already in progress.
+     *
+     * @return a future for the transactions, in the order given, with null
+     * for any the peer did not supply.
+     */
+    ListenableFuture<List<Transaction>> fetch(final Collection<Sha256Hash> hashes) {
+        final List<ListenableFuture<Transaction>> futures = new ArrayList<ListenableFuture<Transaction>>(hashes.size());
+        synchronized (this) {
+            expireLocked(Utils.currentTimeMillis());
+            for (Sha256Hash hash : hashes) {
+                final Cached cached = cache.get(hash);
+                if (null != cached) {
+                    futures.add(Futures.immediateFuture(cached.tx));
+                    continue;
+                }
+                SettableFuture<Transaction> future = pending.get(hash);
+                if (null == future) {
+                    future = SettableFuture.create();
+                    pending.put(hash, future);
+                    queue.add(hash);
+                }
+                // The download is shared, so one caller giving up must not cancel it for the others
+                futures.add(Futures.nonCancellationPropagating(future));
+            }
+        }
+        flush();
+        return Futures.successfulAsList(futures);
+    }
+
+    /**
+     * Send as many queued requests as fit under the cap, as a single getdata.
+     * At least one request is always allowed in flight, whatever the cap.
+     */
+    private void flush() {
+        final List<Sha256Hash> batch = new ArrayList<Sha256Hash>();
+        synchronized (this) {
+            while (!queue.isEmpty()
+                    && (bytesInFlight == 0 || bytesInFlight + ESTIMATED_TX_SIZE <= maxBytesInFlight)) {
+                batch.add(queue.poll());
+                bytesInFlight += ESTIMATED_TX_SIZE;
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        final GetDataMessage getdata = new GetDataMessage(params);
+        final boolean witness = peer.getPeerVersionMessage().isWitnessSupported();
+        final long timeoutMillis = peer.getGetDataTimeoutMillis();
+        final List<SettableFuture<Transaction>> sent = new ArrayList<SettableFuture<Transaction>>(batch.size());
+        for (final Sha256Hash hash : batch) {
+            getdata.addTransaction(hash, witness);
+            final SettableFuture<Transaction> request = requests.add(hash, timeoutMillis);
+            Futures.addCallback(request, new FutureCallback<Transaction>() {
+                @Override
+                public void onSuccess(final Transaction tx) {
+                    finished(hash, tx, null);
+                }
+
+                @Override
+                public void onFailure(final Throwable throwable) {
+                    finished(hash, null, throwable);
+                }
+            }, MoreExecutors.directExecutor());
+            sent.add(request);
+        }
+        log.debug("{}: Requesting {} dependency transactions", peer.getAddress(), batch.size());
+        try {
+            peer.sendMessage(getdata);
+        } catch (Exception e) {
+            log.error("{}: Couldn't send getdata for {} dependency transactions", peer, batch.size(), e);
+            for (SettableFuture<Transaction> request : sent) {
+                request.setException(e);
+            }
+        }
+    }
+
+    /**
+     * Complete the callers waiting on a request once the peer has answered or
+     * it has failed, then send whatever the freed room allows.
+     */
+    private void finished(final Sha256Hash hash, @Nullable final Transaction tx, @Nullable final Throwable throwable) {
+        final SettableFuture<Transaction> future;
+        synchronized (this) {
+            future = pending.remove(hash);
+            bytesInFlight -= ESTIMATED_TX_SIZE;
+            if (null != tx && cacheTtlMillis > 0) {
+                final long now = Utils.currentTimeMillis();
+                cache.put(hash, new Cached(tx, now + cacheTtlMillis));
+                expireLocked(now);
+            }
+        }
+        if (null != future) {
+            if (null != tx) {
+                future.set(tx);
+            } else {
+                future.setException(throwable);
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Drop cached transactions which have expired, or which are beyond the
+     * size limit.
+     */
+    @GuardedBy("this")
+    private void expireLocked(final long now) {
+        final Iterator<Cached> iterator = cache.values().iterator();
+        while (iterator.hasNext()) {
+            final Cached cached = iterator.next();
+            if (cached.expiresAt > now && cache.size() <= MAX_CACHED_TRANSACTIONS) {
+                break;
+            }
+            iterator.remove();
+        }
+    }
+
+    synchronized void setMaxBytesInFlight(final long maxBytesInFlight) {
+        Preconditions.checkArgument(maxBytesInFlight > 0, "Limit must be positive");
+        this.maxBytesInFlight = maxBytesInFlight;
+    }
+
+    synchronized long getMaxBytesInFlight() {
+        return maxBytesInFlight;
+    }
+
+    /**
+     * Set how long downloaded transactions are kept, or zero to not keep them.
+     * Transactions already cached keep their original expiry time.
+     */
+    synchronized void setCacheTtlMillis(final long cacheTtlMillis) {
+        Preconditions.checkArgument(cacheTtlMillis >= 0, "Time to live must not be negative");
+        this.cacheTtlMillis = cacheTtlMillis;
+    }
+
+    synchronized long getCacheTtlMillis() {
+        return cacheTtlMillis;
+    }
+
+    /** @return the number of transactions queued or in flight. */
+    synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    private static final class Cached {
+        private final Transaction tx;
+        private final long expiresAt;
+
+        private Cached(final Transaction tx, final long expiresAt) {
+            this.tx = tx;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -20,8 +20,10 @@ package org.bitcoinj.core;
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -44,7 +46,23 @@ public class MerkleBranch extends ChildMessage {
     // can properly keep track of optimal encoded size
     private transient int optimalEncodingMessageSize;
 
-    private List<Sha256Hash> hashes;
+    /**
+     * Per-thread digest and buffer for calculating the root, so that doing so
+     * allocates nothing.
+     */
+    private static final ThreadLocal<RootCalculator> rootCalculator = new ThreadLocal<RootCalculator>() {
+        @Override
+        protected RootCalculator initialValue() {
+            return new RootCalculator();
+        }
+    };
+
+    // The hashes are held either as a list, or as a flat array of hashes in
+    // little-endian (wire) order, or both. Parsing fills in the array, and
+    // the other form is built from it when first needed. Neither field has
+    // an initialiser, as parsing happens before initialisers run.
+    @Nullable private List<Sha256Hash> hashes;
+    @Nullable private byte[] hashBytes;
     private long index;
 
     public MerkleBranch(NetworkParameters params, @Nullable ChildMessage parent) {
@@ -52,6 +70,7 @@ public class MerkleBranch extends ChildMessage {
         setParent(parent);
 
         this.hashes = new ArrayList<Sha256Hash>();
+        this.hashBytes = null;
         this.index = 0;
     }
 
@@ -82,27 +101,33 @@ public class MerkleBranch extends ChildMessage {
         super(params);
         setParent(parent);
 
-        this.hashes = hashes;
+        // Copied, as the flat array built from the list is kept once built
+        this.hashes = new ArrayList<Sha256Hash>(hashes);
+        this.hashBytes = null;
         this.index = branchSideMask;
     }
 
-    public static int calcLength(byte[] buf, int offset) {
+    public static int calcLength(byte[] buf, int offset) throws ProtocolException {
         VarInt varint = new VarInt(buf, offset);
+        if (varint.value < 0 || varint.value > buf.length / 32) {
+            throw new ProtocolException("Merkle branch hash count exceeds payload: " + varint.value);
+        }
 
-        return ((int) varint.value) * 4 + 4;
+        return varint.getOriginalSizeInBytes() + ((int) varint.value) * 32 + 4;
     }
 
     @Override
     protected void parse() throws ProtocolException {
         cursor = offset;
 
-        final int hashCount = (int) readVarInt();
-        optimalEncodingMessageSize += VarInt.sizeOf(hashCount);
-        hashes = new ArrayList<Sha256Hash>(hashCount);
-        for (int hashIdx = 0; hashIdx < hashCount; hashIdx++) {
-            hashes.add(readHash());
+        final long hashCount = readVarInt();
+        if (hashCount < 0 || hashCount > (payload.length - cursor) / 32) {
+            throw new ProtocolException("Merkle branch hash count exceeds payload: " + hashCount);
         }
-        optimalEncodingMessageSize += 32 * hashCount;
+        optimalEncodingMessageSize += VarInt.sizeOf(hashCount);
+        hashes = null;
+        hashBytes = readBytes(32 * (int) hashCount);
+        optimalEncodingMessageSize += 32 * (int) hashCount;
         setIndex(readUint32());
         optimalEncodingMessageSize += 4;
         length = cursor - offset;
@@ -110,10 +135,8 @@ public class MerkleBranch extends ChildMessage {
 
     @Override
     protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
-        stream.write(new VarInt(hashes.size()).encode());
-        for (Sha256Hash hash: hashes) {
-                stream.write(Utils.reverseBytes(hash.getBytes()));
-        }
+        stream.write(new VarInt(size()).encode());
+        stream.write(getHashBytes());
         Utils.uint32ToByteStreamLE(index, stream);
     }
 
@@ -122,35 +145,85 @@ public class MerkleBranch extends ChildMessage {
      * Used to verify that the given leaf and root are part of the same tree.
      */
     public Sha256Hash calculateMerkleRoot(final Sha256Hash leaf) {
-        byte[] target = leaf.getReversedBytes();
+        final byte[] root = leaf.getReversedBytes();
+        calculateMerkleRoot(root, 0, root, 0);
+        return Sha256Hash.wrapReversed(root);
+    }
+
+    /**
+     * Calculate the merkle branch root based on the supplied hashes and the given leaf hash,
+     * without allocating. Hashes are in little-endian (wire) byte order.
+     *
+     * @param leaf array containing the leaf hash.
+     * @param leafOffset offset of the leaf hash within its array.
+     * @param root array to write the root into. May be the same as the leaf array.
+     * @param rootOffset offset to write the root at.
+     */
+    public void calculateMerkleRoot(final byte[] leaf, final int leafOffset, final byte[] root, final int rootOffset) {
+        final RootCalculator calculator = rootCalculator.get();
+        final MessageDigest digest = calculator.digest;
+        final byte[] target = calculator.target;
+        final byte[] siblings = getHashBytes();
         long mask = index;
-        MessageDigest digest = Sha256Hash.newDigest();
-
-        for (Sha256Hash hash: hashes) {
-            digest.reset();
-            if ((mask & 1) == 0) { // 0 means it goes on the right
-                digest.update(target);
-                digest.update(hash.getReversedBytes());
-            } else {
-                digest.update(hash.getReversedBytes());
-                digest.update(target);
+
+        System.arraycopy(leaf, leafOffset, target, 0, Sha256Hash.LENGTH);
+        try {
+            for (int siblingOffset = 0; siblingOffset < siblings.length; siblingOffset += Sha256Hash.LENGTH) {
+                digest.reset();
+                if ((mask & 1) == 0) { // 0 means it goes on the right
+                    digest.update(target, 0, Sha256Hash.LENGTH);
+                    digest.update(siblings, siblingOffset, Sha256Hash.LENGTH);
+                } else {
+                    digest.update(siblings, siblingOffset, Sha256Hash.LENGTH);
+                    digest.update(target, 0, Sha256Hash.LENGTH);
+                }
+                // Double-digest the values
+                digest.digest(target, 0, Sha256Hash.LENGTH);
+                digest.update(target, 0, Sha256Hash.LENGTH);
+                digest.digest(target, 0, Sha256Hash.LENGTH);
+                mask >>= 1;
             }
-            // Double-digest the values
-            target = digest.digest();
-            digest.reset();
-            target = digest.digest(target);
-            mask >>= 1;
+        } catch (DigestException e) {
+            throw new RuntimeException(e);  // Cannot happen.
         }
-        return Sha256Hash.wrapReversed(target);
+        System.arraycopy(target, 0, root, rootOffset, Sha256Hash.LENGTH);
     }
 
     /**
      * Get the hashes which make up this branch.
      */
     public List<Sha256Hash> getHashes() {
+        if (null == this.hashes) {
+            final byte[] bytes = this.hashBytes;
+            final List<Sha256Hash> list = new ArrayList<Sha256Hash>(bytes.length / Sha256Hash.LENGTH);
+            for (int hashOffset = 0; hashOffset < bytes.length; hashOffset += Sha256Hash.LENGTH) {
+                list.add(Sha256Hash.wrapReversed(Arrays.copyOfRange(bytes, hashOffset, hashOffset + Sha256Hash.LENGTH)));
+            }
+            this.hashes = list;
+        }
         return Collections.unmodifiableList(this.hashes);
     }
 
+    /**
+     * Get the hashes as a flat array, in little-endian (wire) byte order.
+     * Built from the list of hashes the first time it is needed.
+     */
+    private byte[] getHashBytes() {
+        if (null == this.hashBytes) {
+            final List<Sha256Hash> list = this.hashes;
+            final byte[] bytes = new byte[list.size() * Sha256Hash.LENGTH];
+            for (int hashIdx = 0; hashIdx < list.size(); hashIdx++) {
+                final byte[] hash = list.get(hashIdx).getBytes();
+                final int hashOffset = hashIdx * Sha256Hash.LENGTH;
+                for (int byteIdx = 0; byteIdx < Sha256Hash.LENGTH; byteIdx++) {
+                    bytes[hashOffset + byteIdx] = hash[Sha256Hash.LENGTH - 1 - byteIdx];
+                }
+            }
+            this.hashBytes = bytes;
+        }
+        return this.hashBytes;
+    }
+
     /**
      * Return the mask used to determine which side the hashes are applied on.
      * Each bit represents a hash. Zero means it goes on the right, one means
@@ -164,7 +237,8 @@ public class MerkleBranch extends ChildMessage {
      * @param hashes the hashes to set
      */
     public void setHashes(List<Sha256Hash> hashes) {
-        this.hashes = hashes;
+        this.hashes = new ArrayList<Sha256Hash>(hashes);
+        this.hashBytes = null;
     }
 
     /**
@@ -179,7 +253,9 @@ public class MerkleBranch extends ChildMessage {
      * Get the number of hashes in this branch.
      */
     public int size() {
-        return hashes.size();
+        return null != this.hashes
+            ? this.hashes.size()
+            : this.hashBytes.length / Sha256Hash.LENGTH;
     }
 
     public int getOptimalEncodingMessageSize() {
@@ -199,6 +275,11 @@ public class MerkleBranch extends ChildMessage {
         return "Merkle branch";
     }
 
+    private static class RootCalculator {
+        private final MessageDigest digest = Sha256Hash.newDigest();
+        private final byte[] target = new byte[Sha256Hash.LENGTH];
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -206,7 +287,7 @@ public class MerkleBranch extends ChildMessage {
 
         MerkleBranch input = (MerkleBranch) o;
 
-        if (!hashes.equals(input.hashes)) return false;
+        if (!getHashes().equals(input.getHashes())) return false;
         if (index != input.index) return false;
 
         return true;
@@ -215,7 +296,7 @@ public class MerkleBranch extends ChildMessage {
     @Override
     public int hashCode() {
         int result = 1;
-        result = 31 * result + hashes.hashCode();
+        result = 31 * result + getHashes().hashCode();
         result = 31 * result + (int) index;
         return result;
     }
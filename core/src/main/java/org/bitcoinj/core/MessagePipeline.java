@@ -0,0 +1,268 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>Moves the handling of messages from a peer off the thread which read
+ * them, in two stages run on a pool of workers.</p>
+ *
+ * <p>First each message is prepared: the hashes left to be calculated
+ * lazily after parsing are calculated, and the proof of work of blocks is
+ * checked, which the chain then finds already done. Messages are prepared in
+ * parallel. Then they are applied, in the order they arrived, one at a time,
+ * so that the peer sees exactly the sequence it would have seen had it
+ * handled each message as it was read. The connection closing is handled
+ * the same way, after every message read before it, by {@link #close(Runnable)};
+ * anything submitted after that is dropped.</p>
+ *
+ * <p>At most a fixed number of messages may be waiting at once; once that
+ * many are, {@link #submit(Message)} blocks the reading thread until one has
+ * been applied, so that a slow chain or wallet stops reads from the peer
+ * rather than messages piling up in memory. A reading thread shared with
+ * other connections must not block, so uses {@link #offer(Message)}
+ * instead, which refuses the message.</p>
+ */
+final class MessagePipeline {
+    private static final Logger log = LoggerFactory.getLogger(MessagePipeline.class);
+
+    static final int DEFAULT_MAX_QUEUED_MESSAGES = 100;
+
+    @Nullable private static ExecutorService defaultWorkers;
+
+    /**
+     * Where messages are applied once prepared.
+     */
+    interface Sink {
+        void apply(Message message) throws Exception;
+
+        /** Called when applying a message throws. */
+        void failed(Message message, Exception e);
+    }
+
+    private final Executor workers;
+    private final Sink sink;
+    /** Permits for messages which may be queued before reads block. */
+    private final Semaphore permits;
+
+    /** Messages submitted but not yet applied, in arrival order. */
+    @GuardedBy("this") private final ArrayDeque<Entry> queue = new ArrayDeque<Entry>();
+    /** Whether a worker is applying messages, so that only one does at a time. */
+    @GuardedBy("this") private boolean applying = false;
+    @GuardedBy("this") private boolean closed = false;
+
+    /**
+     * @param workers the executor to prepare and apply messages on.
+     * @param maxQueuedMessages how many messages may wait to be applied
+     * before {@link #submit(Message)} blocks.
+     * @param sink what to apply messages to.
+     */
+    MessagePipeline(final Executor workers, final int maxQueuedMessages, final Sink sink) {
+        Preconditions.checkArgument(maxQueuedMessages > 0, "At least one message must be allowed to queue");
+        this.workers = workers;
+        this.sink = sink;
+        this.permits = new Semaphore(maxQueuedMessages);
+    }
+
+    /**
+     * Get the workers shared across peers. The pool grows with the number of
+     * peers applying messages at once, as applying may block on the chain or
+     * wallets, and is created on first use.
+     */
+    static synchronized ExecutorService getDefaultWorkers() {
+        if (null == defaultWorkers) {
+            defaultWorkers = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "Peer message worker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return defaultWorkers;
+    }
+
+    /**
+     * Queue a message to be prepared and applied, blocking while the queue is
+     * full.
+     */
+    void submit(final Message message) throws InterruptedException {
+        permits.acquire();
+        enqueue(message);
+    }
+
+    /**
+     * Queue a message to be prepared and applied, unless the queue is full.
+     *
+     * @return false if the queue was full, and the message was not queued.
+     */
+    boolean offer(final Message message) {
+        if (!permits.tryAcquire()) {
+            return false;
+        }
+        enqueue(message);
+        return true;
+    }
+
+    // Called with a permit held for the message
+    private void enqueue(final Message message) {
+        final Entry entry = new Entry(message, null);
+        synchronized (this) {
+            if (closed) {
+                log.debug("Dropping {} received after the connection closed", message.getClass().getSimpleName());
+                permits.release();
+                return;
+            }
+            queue.add(entry);
+        }
+        try {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    prepare(message);
+                    prepared(entry);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Still has to be applied in turn, so skip straight to that
+            log.warn("Message workers rejected {}, applying it unprepared", message.getClass().getSimpleName());
+            prepared(entry);
+        }
+    }
+
+    /**
+     * Run the given action once every message already submitted has been
+     * applied, and drop any submitted afterwards. Never blocks, as the action
+     * does not count against the messages allowed to wait.
+     */
+    void close(final Runnable onClosed) {
+        final Entry entry = new Entry(null, onClosed);
+        synchronized (this) {
+            closed = true;
+            entry.prepared = true;
+            queue.add(entry);
+        }
+        applyPrepared();
+    }
+
+    /** @return the number of messages submitted but not yet applied. */
+    synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Do the work for a message which does not depend on the messages before
+     * it. Failures are left for the apply stage to find again and report.
+     */
+    static void prepare(final Message message) {
+        try {
+            if (message instanceof Block) {
+                final Block block = (Block) message;
+                if (block instanceof AltcoinBlock) {
+                    ((AltcoinBlock) block).verifyProofOfWork();
+                } else {
+                    block.getHash();
+                }
+                final List<Transaction> transactions = block.getTransactions();
+                if (null != transactions) {
+                    for (Transaction tx : transactions) {
+                        tx.getTxId();
+                    }
+                }
+            } else if (message instanceof Transaction) {
+                ((Transaction) message).getTxId();
+            } else if (message instanceof FilteredBlock) {
+                ((FilteredBlock) message).getHash();
+            }
+        } catch (RuntimeException e) {
+            log.debug("Failed to prepare {}", message.getClass().getSimpleName(), e);
+        }
+    }
+
+    /**
+     * Mark a message as prepared, and apply every prepared message at the
+     * head of the queue, unless another worker already is.
+     */
+    private void prepared(final Entry entry) {
+        synchronized (this) {
+            entry.prepared = true;
+        }
+        applyPrepared();
+    }
+
+    private void applyPrepared() {
+        while (true) {
+            final Entry next;
+            synchronized (this) {
+                final Entry head = queue.peek();
+                if (applying || null == head || !head.prepared) {
+                    return;
+                }
+                applying = true;
+                next = queue.poll();
+            }
+            if (null != next.onClosed) {
+                try {
+                    next.onClosed.run();
+                } finally {
+                    synchronized (this) {
+                        applying = false;
+                    }
+                }
+                continue;
+            }
+            try {
+                sink.apply(next.message);
+            } catch (Exception e) {
+                sink.failed(next.message, e);
+            } finally {
+                synchronized (this) {
+                    applying = false;
+                }
+                permits.release();
+            }
+        }
+    }
+
+    /** A message, or the action to run once the connection has closed. */
+    private static final class Entry {
+        @Nullable private final Message message;
+        @Nullable private final Runnable onClosed;
+        // Guarded by the pipeline
+        private boolean prepared = false;
+
+        private Entry(@Nullable final Message message, @Nullable final Runnable onClosed) {
+            this.message = message;
+            this.onClosed = onClosed;
+        }
+    }
+}
@@ -18,6 +18,8 @@ package org.bitcoinj.core;
 
 import org.bitcoinj.core.listeners.*;
 import org.bitcoinj.net.AbstractTimeoutHandler;
+import org.bitcoinj.net.BlockingClient;
+import org.bitcoinj.net.MessageWriteTarget;
 import org.bitcoinj.net.NioClient;
 import org.bitcoinj.net.NioClientManager;
 import org.bitcoinj.net.StreamConnection;
@@ -26,6 +28,11 @@ import org.bitcoinj.store.BlockStoreException;
 import org.bitcoinj.utils.ListenerRegistration;
 import org.bitcoinj.utils.Threading;
 import org.bitcoinj.wallet.Wallet;
+import org.libdohj.core.HeaderVerifier;
+import org.libdohj.core.MessageHandler;
+import org.libdohj.core.MessageHandlerRegistry;
+import org.libdohj.core.TimeoutExecutor;
+import org.libdohj.core.VirtualThreadClientManager;
 
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
@@ -33,6 +40,7 @@ import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -47,8 +55,9 @@ import javax.annotation.concurrent.GuardedBy;
 import java.net.SocketAddress;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -95,6 +104,9 @@ public class Peer extends PeerSocketHandler {
     private final VersionMessage versionMessage;
     // Maximum depth up to which pending transaction dependencies are downloaded, or 0 for disabled.
     private volatile int vDownloadTxDependencyDepth;
+    // Checks proof of work of received headers in parallel before they are added to the chain, or null to leave
+    // all checks to the chain.
+    @Nullable private volatile HeaderVerifier vHeaderVerifier;
     // How many block messages the peer has announced to us. Peers only announce blocks that attach to their best chain
     // so we can use this to calculate the height of the peers chain, by adding it to the initial height in the version
     // message. This method can go wrong if the peer re-orgs onto a shorter (but harder) chain, however, this is rare.
@@ -132,27 +144,35 @@ public class Peer extends PeerSocketHandler {
     @SuppressWarnings("MismatchedQueryAndUpdateOfCollection")
     private final HashSet<TransactionConfidence> pendingTxDownloads = new HashSet<TransactionConfidence>();
     private static final int PENDING_TX_DOWNLOADS_LIMIT = 100;
+    // Scratch space for processInv(). Messages are handled one at a time, whether on the network thread or by staged
+    // processing, so only one inv touches these at once.
+    Sha256Hash[] invTransactionHashes = new Sha256Hash[0];
+    Sha256Hash[] invBlockHashes = new Sha256Hash[0];
+    // Largest inv the scratch space grows to fit. Larger ones, which are rare, get arrays of their own.
+    static final int MAX_RETAINED_INV_SCRATCH = 2000;
+    // Where to route announcements of inventory types the peer does not handle itself, see setInventoryQueue().
+    private volatile EnumMap<InventoryItem.Type, Queue<InventoryItem>> inventoryQueues =
+            new EnumMap<InventoryItem.Type, Queue<InventoryItem>>(InventoryItem.Type.class);
     // The lowest version number we're willing to accept. Lower than this will result in an immediate disconnect.
     private volatile int vMinProtocolVersion;
-    // When an API user explicitly requests a block or transaction from a peer, the InventoryItem is put here
-    // whilst waiting for the response. Is not used for downloads Peer generates itself.
-    private static class GetDataRequest {
-        public GetDataRequest(Sha256Hash hash, SettableFuture future) {
-            this.hash = hash;
-            this.future = future;
-        }
-        final Sha256Hash hash;
-        final SettableFuture future;
-    }
-    // TODO: The types/locking should be rationalised a bit.
-    private final CopyOnWriteArrayList<GetDataRequest> getDataFutures;
+    // When an API user explicitly requests a block or transaction from a peer, the future for it is put here, keyed
+    // by hash, whilst waiting for the response. Is not used for downloads Peer generates itself.
+    private final PendingDataRequests getDataFutures = new PendingDataRequests();
+    // How long to wait for an answer to those requests before failing them, or zero to wait forever.
+    private volatile long vGetDataTimeoutMillis = 0;
+    // Fetches the dependencies of pending transactions, shared across wallets and dependency walks.
+    private final DependencyDownloader dependencyDownloader;
     @GuardedBy("getAddrFutures") private final LinkedList<SettableFuture<AddressMessage>> getAddrFutures;
     @Nullable @GuardedBy("lock") private LinkedList<SettableFuture<UTXOsMessage>> getutxoFutures;
+    @Nullable @GuardedBy("lock") private LinkedList<SettableFuture<List<Block>>> getHeadersFutures;
+    private final MessageHandlerRegistry messageHandlers = new MessageHandlerRegistry(DEFAULT_MESSAGE_HANDLERS);
+    // If set, messages are prepared and applied on worker threads rather than the thread which read them.
+    @Nullable private volatile MessagePipeline vMessagePipeline;
+    // Whether the connection reads on a thread of its own, which staged processing may block when its queue is full.
+    private volatile boolean vReadsOnOwnThread = false;
 
     // Outstanding pings against this peer and how long the last one took to complete.
-    private final ReentrantLock lastPingTimesLock = new ReentrantLock();
-    @GuardedBy("lastPingTimesLock") private long[] lastPingTimes = null;
-    private final CopyOnWriteArrayList<PendingPing> pendingPings;
+    private final PingTracker<PendingPing> pings;
     // Disconnect from a peer that is not responding to Pings
     private static final int PENDING_PINGS_LIMIT = 50;
     private static final int PING_MOVING_AVERAGE_WINDOW = 20;
@@ -231,12 +251,13 @@ public class Peer extends PeerSocketHandler {
         this.params = Preconditions.checkNotNull(params);
         this.versionMessage = Preconditions.checkNotNull(ver);
         this.vDownloadTxDependencyDepth = chain != null ? downloadTxDependencyDepth : 0;
+        this.vHeaderVerifier = chain != null ? HeaderVerifier.getDefault() : null;
         this.blockChain = chain;  // Allowed to be null.
         this.vDownloadData = chain != null;
-        this.getDataFutures = new CopyOnWriteArrayList<GetDataRequest>();
         this.getAddrFutures = new LinkedList<SettableFuture<AddressMessage>>();
         this.fastCatchupTimeSecs = params.getGenesisBlock().getTimeSeconds();
-        this.pendingPings = new CopyOnWriteArrayList<PendingPing>();
+        this.pings = new PingTracker<PendingPing>(PING_MOVING_AVERAGE_WINDOW, PENDING_PINGS_LIMIT + 1);
+        this.dependencyDownloader = new DependencyDownloader(this, params, getDataFutures);
         this.vMinProtocolVersion = params.getProtocolVersionNum(NetworkParameters.ProtocolVersion.PONG);
         this.wallets = new CopyOnWriteArrayList<Wallet>();
         this.context = Context.get();
@@ -418,6 +439,37 @@ public class Peer extends PeerSocketHandler {
 
     @Override
     public void connectionClosed() {
+        final MessagePipeline pipeline = vMessagePipeline;
+        if (pipeline != null) {
+            // Messages read before the connection closed are still waiting to be handled, so tell everyone about
+            // the close only after them.
+            pipeline.close(new Runnable() {
+                @Override
+                public void run() {
+                    Context.propagate(context);
+                    closed();
+                }
+            });
+        } else {
+            closed();
+        }
+    }
+
+    private void closed() {
+        // Headers requested by getBlockHeaders() will never arrive now, so let whoever asked try elsewhere.
+        LinkedList<SettableFuture<List<Block>>> headersFutures;
+        lock.lock();
+        try {
+            headersFutures = getHeadersFutures;
+            getHeadersFutures = null;
+            resetBlockPipelineLocked();
+        } finally {
+            lock.unlock();
+        }
+        if (headersFutures != null) {
+            for (SettableFuture<List<Block>> future : headersFutures)
+                future.setException(new PeerException("Connection closed before headers were received"));
+        }
         for (final ListenerRegistration<PeerDisconnectedEventListener> registration : disconnectedEventListeners) {
             registration.executor.execute(new Runnable() {
                 @Override
@@ -428,6 +480,12 @@ public class Peer extends PeerSocketHandler {
         }
     }
 
+    @Override
+    public void setWriteTarget(MessageWriteTarget writeTarget) {
+        vReadsOnOwnThread = writeTarget instanceof BlockingClient || VirtualThreadClientManager.isClient(writeTarget);
+        super.setWriteTarget(writeTarget);
+    }
+
     @Override
     public void connectionOpened() {
         // Announce ourselves. This has to come first to connect to clients beyond v0.3.20.2 which wait to hear
@@ -452,8 +510,139 @@ public class Peer extends PeerSocketHandler {
         return versionHandshakeFuture;
     }
 
+    // Handlers for each class of message, looked up by class rather than tested in turn. Subclasses overriding the
+    // process methods still see them called, as the handlers call them on the peer.
+    private static final MessageHandler<Message> IGNORE_MESSAGE = new MessageHandler<Message>() {
+        @Override
+        public void handleMessage(Peer peer, Message m) {
+        }
+    };
+    private static final MessageHandlerRegistry DEFAULT_MESSAGE_HANDLERS = new MessageHandlerRegistry();
+    static {
+        DEFAULT_MESSAGE_HANDLERS.register(Ping.class, new MessageHandler<Ping>() {
+            @Override
+            public void handleMessage(Peer peer, Ping m) {
+                peer.processPing(m);
+            }
+        });
+        DEFAULT_MESSAGE_HANDLERS.register(Pong.class, new MessageHandler<Pong>() {
+            @Override
+            public void handleMessage(Peer peer, Pong m) {
+                peer.processPong(m);
+            }
+        });
+        // This is sent to us when we did a getdata on some transactions that aren't in the peers memory pool.
+        DEFAULT_MESSAGE_HANDLERS.register(NotFoundMessage.class, new MessageHandler<NotFoundMessage>() {
+            @Override
+            public void handleMessage(Peer peer, NotFoundMessage m) {
+                peer.processNotFoundMessage(m);
+            }
+        });
+        DEFAULT_MESSAGE_HANDLERS.register(InventoryMessage.class, new MessageHandler<InventoryMessage>() {
+            @Override
+            public void handleMessage(Peer peer, InventoryMessage m) {
+                peer.processInv(m);
+            }
+        });
+        DEFAULT_MESSAGE_HANDLERS.register(Block.class, new MessageHandler<Block>() {
+            @Override
+            public void handleMessage(Peer peer, Block m) {
+                peer.processBlock(m);
+            }
+        });
+        DEFAULT_MESSAGE_HANDLERS.register(FilteredBlock.class, new MessageHandler<FilteredBlock>() {
+            @Override
+            public void handleMessage(Peer peer, FilteredBlock m) {
+                peer.startFilteredBlock(m);
+            }
+        });
+        DEFAULT_MESSAGE_HANDLERS.register(Transaction.class, new MessageHandler<Transaction>() {
+            @Override
+            public void handleMessage(Peer peer, Transaction m) throws VerificationException {
+                peer.processTransaction(m);
+            }
+        });
+        DEFAULT_MESSAGE_HANDLERS.register(GetDataMessage.class, new MessageHandler<GetDataMessage>() {
+            @Override
+            public void handleMessage(Peer peer, GetDataMessage m) {
+                peer.processGetData(m);
+            }
+        });
+        // We don't care about addresses of the network right now. But in future,
+        // we should save them in the wallet so we don't put too much load on the seed nodes and can
+        // properly explore the network.
+        DEFAULT_MESSAGE_HANDLERS.register(AddressMessage.class, new MessageHandler<AddressMessage>() {
+            @Override
+            public void handleMessage(Peer peer, AddressMessage m) {
+                peer.processAddressMessage(m);
+            }
+        });
+        DEFAULT_MESSAGE_HANDLERS.register(HeadersMessage.class, new MessageHandler<HeadersMessage>() {
+            @Override
+            public void handleMessage(Peer peer, HeadersMessage m) throws ProtocolException {
+                peer.processHeaders(m);
+            }
+        });
+        DEFAULT_MESSAGE_HANDLERS.register(AlertMessage.class, new MessageHandler<AlertMessage>() {
+            @Override
+            public void handleMessage(Peer peer, AlertMessage m) {
+                peer.processAlert(m);
+            }
+        });
+        DEFAULT_MESSAGE_HANDLERS.register(VersionMessage.class, new MessageHandler<VersionMessage>() {
+            @Override
+            public void handleMessage(Peer peer, VersionMessage m) throws ProtocolException {
+                peer.processVersionMessage(m);
+            }
+        });
+        DEFAULT_MESSAGE_HANDLERS.register(VersionAck.class, new MessageHandler<VersionAck>() {
+            @Override
+            public void handleMessage(Peer peer, VersionAck m) throws ProtocolException {
+                peer.processVersionAck(m);
+            }
+        });
+        DEFAULT_MESSAGE_HANDLERS.register(UTXOsMessage.class, new MessageHandler<UTXOsMessage>() {
+            @Override
+            public void handleMessage(Peer peer, UTXOsMessage m) {
+                peer.processUTXOMessage(m);
+            }
+        });
+        DEFAULT_MESSAGE_HANDLERS.register(RejectMessage.class, new MessageHandler<RejectMessage>() {
+            @Override
+            public void handleMessage(Peer peer, RejectMessage m) {
+                log.error("{} {}: Received {}", peer, peer.getPeerVersionMessage().subVer, m);
+            }
+        });
+        // We ignore this message, because we don't announce new blocks.
+        DEFAULT_MESSAGE_HANDLERS.register(SendHeadersMessage.class, IGNORE_MESSAGE);
+        // Syscoin masternode, spork and governance messages are ignored unless a handler is registered for them.
+        DEFAULT_MESSAGE_HANDLERS.register(MasternodeBroadcast.class, IGNORE_MESSAGE);
+        DEFAULT_MESSAGE_HANDLERS.register(MasternodePing.class, IGNORE_MESSAGE);
+        DEFAULT_MESSAGE_HANDLERS.register(MasternodePaymentVote.class, IGNORE_MESSAGE);
+        DEFAULT_MESSAGE_HANDLERS.register(MasternodeVerification.class, IGNORE_MESSAGE);
+        DEFAULT_MESSAGE_HANDLERS.register(GetSporksMessage.class, IGNORE_MESSAGE);
+        DEFAULT_MESSAGE_HANDLERS.register(SporkMessage.class, IGNORE_MESSAGE);
+        DEFAULT_MESSAGE_HANDLERS.register(SyncStatusCount.class, IGNORE_MESSAGE);
+        DEFAULT_MESSAGE_HANDLERS.register(GovernanceSyncMessage.class, IGNORE_MESSAGE);
+        DEFAULT_MESSAGE_HANDLERS.register(GovernanceObject.class, IGNORE_MESSAGE);
+        DEFAULT_MESSAGE_HANDLERS.register(GovernanceVote.class, IGNORE_MESSAGE);
+    }
+
     @Override
     protected void processMessage(Message m) throws Exception {
+        final MessagePipeline pipeline = vMessagePipeline;
+        if (pipeline == null) {
+            applyMessage(m);
+        } else if (vReadsOnOwnThread) {
+            pipeline.submit(m);
+        } else if (!pipeline.offer(m)) {
+            // Blocking here would stall every other connection sharing this thread.
+            log.warn("{}: Too many messages waiting to be processed, closing connection", this);
+            close();
+        }
+    }
+
+    private void applyMessage(Message m) throws Exception {
         // Allow event listeners to filter the message stream. Listeners are allowed to drop messages by
         // returning null.
         for (ListenerRegistration<PreMessageReceivedEventListener> registration : preMessageReceivedEventListeners) {
@@ -479,66 +668,94 @@ public class Peer extends PeerSocketHandler {
             throw new ProtocolException(
                     "Received " + m.getClass().getSimpleName() + " before version handshake is complete.");
 
-        if (m instanceof Ping) {
-            processPing((Ping) m);
-        } else if (m instanceof Pong) {
-            processPong((Pong) m);
-        } else if (m instanceof NotFoundMessage) {
-            // This is sent to us when we did a getdata on some transactions that aren't in the peers memory pool.
-            // Because NotFoundMessage is a subclass of InventoryMessage, the test for it must come before the next.
-            processNotFoundMessage((NotFoundMessage) m);
-        } else if (m instanceof InventoryMessage) {
-            processInv((InventoryMessage) m);
-        } else if (m instanceof Block) {
-            processBlock((Block) m);
-        } else if (m instanceof FilteredBlock) {
-            startFilteredBlock((FilteredBlock) m);
-        } else if (m instanceof Transaction) {
-            processTransaction((Transaction) m);
-        } else if (m instanceof GetDataMessage) {
-            processGetData((GetDataMessage) m);
-        } else if (m instanceof AddressMessage) {
-            // We don't care about addresses of the network right now. But in future,
-            // we should save them in the wallet so we don't put too much load on the seed nodes and can
-            // properly explore the network.
-            processAddressMessage((AddressMessage) m);
-        } else if (m instanceof HeadersMessage) {
-            processHeaders((HeadersMessage) m);
-        } else if (m instanceof AlertMessage) {
-            processAlert((AlertMessage) m);
-        } else if (m instanceof VersionMessage) {
-            processVersionMessage((VersionMessage) m);
-        } else if (m instanceof VersionAck) {
-            processVersionAck((VersionAck) m);
-        } else if (m instanceof UTXOsMessage) {
-            processUTXOMessage((UTXOsMessage) m);
-        } else if (m instanceof RejectMessage) {
-            log.error("{} {}: Received {}", this, getPeerVersionMessage().subVer, m);
-        } else if (m instanceof SendHeadersMessage) {
-            // We ignore this message, because we don't announce new blocks.
-        }
-        else if(m instanceof org.bitcoinj.core.MasternodeBroadcast) {
-        }
-        else if(m instanceof org.bitcoinj.core.MasternodePing) {
-        }
-        else if(m instanceof org.bitcoinj.core.MasternodePaymentVote) {
-        }
-        else if(m instanceof org.bitcoinj.core.MasternodeVerification) {
-        }
-        else if(m instanceof org.bitcoinj.core.GetSporksMessage) {
-        }
-        else if(m instanceof org.bitcoinj.core.SporkMessage) {
-        }
-        else if(m instanceof org.bitcoinj.core.SyncStatusCount) {
-        }
-        else if(m instanceof org.bitcoinj.core.GovernanceSyncMessage) {
-        }
-        else if(m instanceof org.bitcoinj.core.GovernanceObject) {
-        }
-        else if(m instanceof org.bitcoinj.core.GovernanceVote) {
-        }
-        else {
+        final MessageHandler<Message> handler = messageHandlers.get(m.getClass());
+        if (handler != null)
+            handler.handleMessage(this, m);
+        else
             log.warn("{}: Received unhandled message: {}", this, m);
+    }
+
+    /**
+     * Registers a handler for the given class of message received from this peer, and subclasses which have no handler
+     * of their own. This replaces any existing handler for that class, including those built in, so can be used to
+     * act on the Syscoin masternode, spork and governance messages, which are otherwise ignored. Handlers run on the
+     * network thread, or a message worker if staged processing is enabled, after any
+     * {@link PreMessageReceivedEventListener}s.
+     */
+    public <M extends Message> void registerMessageHandler(Class<M> type, MessageHandler<? super M> handler) {
+        messageHandlers.register(type, handler);
+    }
+
+    /**
+     * <p>Enables or disables staged processing of messages from this peer, on a pool of workers shared across peers,
+     * with up to 100 messages queued. See {@link #setStagedMessageProcessing(Executor, int)}.</p>
+     */
+    public void setStagedMessageProcessing(boolean enabled) {
+        setStagedMessageProcessing(enabled ? MessagePipeline.getDefaultWorkers() : null,
+                MessagePipeline.DEFAULT_MAX_QUEUED_MESSAGES);
+    }
+
+    /**
+     * <p>Moves the handling of messages from this peer off the network thread. Messages are prepared in parallel on
+     * the given workers, calculating hashes and checking the proof of work of blocks, then applied to the chain,
+     * wallets and listeners in the order they arrived, one at a time. A slow chain or wallet then only holds up
+     * this peer, not every peer sharing the network thread.</p>
+     *
+     * <p>Once the given number of messages are waiting to be applied, reads from the peer stop rather than messages
+     * being buffered without limit. Where the connection reads on a thread of its own, as with a
+     * {@link org.bitcoinj.net.BlockingClientManager} or {@link VirtualThreadClientManager}, that thread blocks until
+     * a message has been applied. A {@link NioClientManager}, the default for {@link PeerGroup}, shares its thread
+     * with every other connection, so there the peer is disconnected instead.</p>
+     *
+     * <p>Must be set before the connection is opened.</p>
+     *
+     * @param workers the executor to prepare and apply messages on, or null to handle them on the network thread.
+     * @param maxQueuedMessages how many messages may wait to be applied before reads are paused.
+     */
+    public void setStagedMessageProcessing(@Nullable Executor workers, int maxQueuedMessages) {
+        checkState(writeTarget == null, "Must be set before the connection is opened");
+        if (workers == null) {
+            vMessagePipeline = null;
+            return;
+        }
+        vMessagePipeline = new MessagePipeline(workers, maxQueuedMessages, new MessagePipeline.Sink() {
+            @Override
+            public void apply(Message message) throws Exception {
+                Context.propagate(context);
+                applyMessage(message);
+            }
+
+            @Override
+            public void failed(Message message, Exception e) {
+                log.warn("{}: Failed to process {}, closing connection", Peer.this, message.getClass().getSimpleName(),
+                        e);
+                close();
+            }
+        });
+    }
+
+    /**
+     * Routes announcements of the given inventory type, such as the Syscoin masternode, spork and governance types, to
+     * the given queue, for the application to fetch whatever it wants of them. Without a queue these announcements are
+     * ignored. Items are offered to the queue on the network thread and dropped if it is full, so a bounded queue
+     * keeps a flood of announcements from using unbounded memory.
+     *
+     * @param queue the queue, or null to ignore announcements of the type again.
+     */
+    public void setInventoryQueue(InventoryItem.Type type, @Nullable Queue<InventoryItem> queue) {
+        Preconditions.checkArgument(type != InventoryItem.Type.TRANSACTION && type != InventoryItem.Type.BLOCK,
+                "Transactions and blocks are requested by the peer itself");
+        lock.lock();
+        try {
+            EnumMap<InventoryItem.Type, Queue<InventoryItem>> queues =
+                    new EnumMap<InventoryItem.Type, Queue<InventoryItem>>(inventoryQueues);
+            if (queue != null)
+                queues.put(type, queue);
+            else
+                queues.remove(type);
+            inventoryQueues = queues;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -649,16 +866,27 @@ public class Peer extends PeerSocketHandler {
         // in the chain).
         //
         // We go through and cancel the pending getdata futures for the items we were told weren't found.
-        for (GetDataRequest req : getDataFutures) {
+        for (InventoryItem item : m.getItems()) {
+            if (getDataFutures.cancel(item.hash) > 0)
+                log.info("{}: Bottomed out dep tree at {}", this, item.hash);
+        }
+        // A pipelined batch only leaves the download window when its last block arrives, so if the peer can't find
+        // that block the window would never drain. Give up on the pipelined batches and ask again from our chain head.
+        Message restart = null;
+        lock.lock();
+        try {
             for (InventoryItem item : m.getItems()) {
-                if (item.hash.equals(req.hash)) {
-                    log.info("{}: Bottomed out dep tree at {}", this, req.hash);
-                    req.future.cancel(true);
-                    getDataFutures.remove(req);
+                if (blockBatchesInFlight.contains(item.hash)) {
+                    log.info("{}: Peer could not find block {} ending a pipelined batch", this, item.hash);
+                    restart = restartBlockChainDownloadLocked();
                     break;
                 }
             }
+        } finally {
+            lock.unlock();
         }
+        if (restart != null)
+            sendMessage(restart);
     }
 
     protected void processAlert(AlertMessage m) {
@@ -677,6 +905,20 @@ public class Peer extends PeerSocketHandler {
         }
     }
 
+    /**
+     * Check the proof of work of the headers which will be added to the chain (those before the fast catchup time)
+     * in parallel, if a header verifier is set. The chain then only has to do the checks which depend on it.
+     */
+    private void verifyHeadersBeforeTime(List<Block> headers, long fastCatchupTimeSecs) {
+        final HeaderVerifier verifier = vHeaderVerifier;
+        if (verifier == null)
+            return;
+        int end = 0;
+        while (end < headers.size() && headers.get(end).getTimeSeconds() < fastCatchupTimeSecs)
+            end++;
+        verifier.verify(headers.subList(0, end));
+    }
+
     protected void processHeaders(HeadersMessage m) throws ProtocolException {
         // Runs in network loop thread for this peer.
         //
@@ -687,6 +929,20 @@ public class Peer extends PeerSocketHandler {
         boolean downloadBlockBodies;
         long fastCatchupTimeSecs;
 
+        // Headers asked for by getBlockHeaders() go to the caller, not the chain. Peers answer getheaders in order.
+        SettableFuture<List<Block>> future = null;
+        lock.lock();
+        try {
+            if (getHeadersFutures != null)
+                future = getHeadersFutures.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+        if (future != null && future.set(m.getBlockHeaders()))
+            return;
+        // If the caller gave up waiting, these may be the answer to the chain's own getheaders instead.
+        final boolean requestCancelled = future != null;
+
         lock.lock();
         try {
             if (blockChain == null) {
@@ -699,9 +955,14 @@ public class Peer extends PeerSocketHandler {
         } finally {
             lock.unlock();
         }
+        if (requestCancelled && downloadBlockBodies) {
+            log.info("{}: Dropping headers for a cancelled request", this);
+            return;
+        }
 
         try {
             checkState(!downloadBlockBodies, toString());
+            verifyHeadersBeforeTime(m.getBlockHeaders(), fastCatchupTimeSecs);
             for (int i = 0; i < m.getBlockHeaders().size(); i++) {
                 Block header = m.getBlockHeaders().get(i);
                 // Process headers until we pass the fast catchup time, or are about to catch up with the head
@@ -913,82 +1174,63 @@ public class Peer extends PeerSocketHandler {
     // The marker object in the future returned is the same as the parameter. It is arbitrary and can be anything.
     protected ListenableFuture<Object> downloadDependenciesInternal(final int maxDepth, final int depth,
             final Transaction tx, final Object marker, final List<Transaction> results) {
-
         final SettableFuture<Object> resultFuture = SettableFuture.create();
-        final Sha256Hash rootTxHash = tx.getTxId();
         // We want to recursively grab its dependencies. This is so listeners can learn important information like
         // whether a transaction is dependent on a timelocked transaction or has an unexpectedly deep dependency tree
         // or depends on a no-fee transaction.
+        downloadDependencyLevel(maxDepth, depth, tx.getTxId(), Collections.singletonList(tx),
+                new HashSet<Sha256Hash>(), marker, results, resultFuture);
+        return resultFuture;
+    }
 
+    // Requests the dependencies of a whole level of the tree at once, then moves down to the next level.
+    private void downloadDependencyLevel(final int maxDepth, final int depth, final Sha256Hash rootTxHash,
+            final List<Transaction> txs, final Set<Sha256Hash> requested, final Object marker,
+            final List<Transaction> results, final SettableFuture<Object> resultFuture) {
         // We may end up requesting transactions that we've already downloaded and thrown away here.
-        Set<Sha256Hash> needToRequest = new CopyOnWriteArraySet<Sha256Hash>();
-        for (TransactionInput input : tx.getInputs()) {
-            // There may be multiple inputs that connect to the same transaction.
-            needToRequest.add(input.getOutpoint().getHash());
-        }
-        lock.lock();
-        try {
-            // Build the request for the missing dependencies.
-            List<ListenableFuture<Transaction>> futures = new ArrayList<ListenableFuture<Transaction>>();
-            GetDataMessage getdata = new GetDataMessage(params);
-            if (needToRequest.size() > 1)
-                log.info("{}: Requesting {} transactions for depth {} dep resolution", getAddress(), needToRequest.size(), depth + 1);
-            for (Sha256Hash hash : needToRequest) {
-                getdata.addTransaction(hash, vPeerVersionMessage.isWitnessSupported());
-                GetDataRequest req = new GetDataRequest(hash, SettableFuture.create());
-                futures.add(req.future);
-                getDataFutures.add(req);
+        final List<Sha256Hash> needToRequest = new ArrayList<Sha256Hash>();
+        for (Transaction tx : txs) {
+            for (TransactionInput input : tx.getInputs()) {
+                // There may be multiple inputs that connect to the same transaction, and several transactions in the
+                // tree may share a dependency.
+                final Sha256Hash hash = input.getOutpoint().getHash();
+                if (requested.add(hash))
+                    needToRequest.add(hash);
             }
-            ListenableFuture<List<Transaction>> successful = Futures.successfulAsList(futures);
-            Futures.addCallback(successful, new FutureCallback<List<Transaction>>() {
-                @Override
-                public void onSuccess(List<Transaction> transactions) {
-                    // Once all transactions either were received, or we know there are no more to come ...
-                    // Note that transactions will contain "null" for any positions that weren't successful.
-                    List<ListenableFuture<Object>> childFutures = new LinkedList<ListenableFuture<Object>>();
-                    for (Transaction tx : transactions) {
-                        if (tx == null) continue;
-                        log.info("{}: Downloaded dependency of {}: {}", getAddress(), rootTxHash, tx.getTxId());
-                        results.add(tx);
-                        // Now recurse into the dependencies of this transaction too.
-                        if (depth + 1 < maxDepth)
-                            childFutures.add(downloadDependenciesInternal(maxDepth, depth + 1, tx, marker, results));
-                    }
-                    if (childFutures.size() == 0) {
-                        // Short-circuit: we're at the bottom of this part of the tree.
-                        resultFuture.set(marker);
-                    } else {
-                        // There are some children to download. Wait until it's done (and their children and their
-                        // children...) to inform the caller that we're finished.
-                        Futures.addCallback(Futures.successfulAsList(childFutures), new FutureCallback<List<Object>>() {
-                            @Override
-                            public void onSuccess(List<Object> objects) {
-                                resultFuture.set(marker);
-                            }
-
-                            @Override
-                            public void onFailure(Throwable throwable) {
-                                resultFuture.setException(throwable);
-                            }
-                        }, MoreExecutors.directExecutor());
-                    }
+        }
+        if (needToRequest.isEmpty()) {
+            resultFuture.set(marker);
+            return;
+        }
+        if (needToRequest.size() > 1)
+            log.info("{}: Requesting {} transactions for depth {} dep resolution", getAddress(), needToRequest.size(), depth + 1);
+        Futures.addCallback(dependencyDownloader.fetch(needToRequest), new FutureCallback<List<Transaction>>() {
+            @Override
+            public void onSuccess(List<Transaction> transactions) {
+                // Once all transactions either were received, or we know there are no more to come ...
+                // Note that transactions will contain "null" for any positions that weren't successful.
+                final List<Transaction> downloaded = new ArrayList<Transaction>(transactions.size());
+                for (Transaction tx : transactions) {
+                    if (tx == null) continue;
+                    log.info("{}: Downloaded dependency of {}: {}", getAddress(), rootTxHash, tx.getTxId());
+                    results.add(tx);
+                    downloaded.add(tx);
                 }
-
-                @Override
-                public void onFailure(Throwable throwable) {
-                    resultFuture.setException(throwable);
+                if (downloaded.isEmpty() || depth + 1 >= maxDepth) {
+                    // Short-circuit: we're at the bottom of the tree.
+                    resultFuture.set(marker);
+                } else {
+                    // Now move on to the dependencies of these transactions too.
+                    downloadDependencyLevel(maxDepth, depth + 1, rootTxHash, downloaded, requested, marker, results,
+                            resultFuture);
                 }
-            }, MoreExecutors.directExecutor());
-            // Start the operation.
-            sendMessage(getdata);
-        } catch (Exception e) {
-            log.error("{}: Couldn't send getdata in downloadDependencies({})", this, tx.getTxId(), e);
-            resultFuture.setException(e);
-            return resultFuture;
-        } finally {
-            lock.unlock();
-        }
-        return resultFuture;
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                resultFuture.setException(throwable);
+            }
+        }, MoreExecutors.directExecutor());
     }
 
     protected void processBlock(Block m) {
@@ -1005,9 +1247,11 @@ public class Peer extends PeerSocketHandler {
         if (!vDownloadData) {
             if (log.isDebugEnabled())
                 log.debug("{}: Received block we did not ask for: {}", getAddress(), m.getHashAsString());
+            resetBlockPipeline();
             return;
         }
         pendingBlockDownloads.remove(m.getHash());
+        blockBatchProgress(m.getHash());
         try {
             // Otherwise it's a block sent to us because the peer thought we needed it, so add it to the block chain.
             if (blockChain.add(m)) {
@@ -1034,7 +1278,9 @@ public class Peer extends PeerSocketHandler {
                 // off a request for lots more headers in parallel.
                 lock.lock();
                 try {
-                    if (downloadBlockBodies) {
+                    if (downloadBlockBodies && isPipeliningBlocksLocked()) {
+                        log.debug("Did not start chain download on orphan block due to in-flight block batches.");
+                    } else if (downloadBlockBodies) {
                         final Block orphanRoot = checkNotNull(blockChain.getOrphanRoot(m.getHash()));
                         blockChainDownloadLocked(orphanRoot.getHash());
                     } else {
@@ -1060,6 +1306,7 @@ public class Peer extends PeerSocketHandler {
         if (!vDownloadData) {
             if (log.isDebugEnabled())
                 log.debug("{}: Received block we did not ask for: {}", getAddress(), m.getHash().toString());
+            resetBlockPipeline();
             return;
         }
         if (blockChain == null) {
@@ -1071,6 +1318,7 @@ public class Peer extends PeerSocketHandler {
         // actually match our filter or which simply do not send us all the transactions we need: it can be fixed
         // by cross-checking peers against each other.
         pendingBlockDownloads.remove(m.getBlockHeader().getHash());
+        blockBatchProgress(m.getBlockHeader().getHash());
         try {
             // It's a block sent to us because the peer thought we needed it, so maybe add it to the block chain.
             // The FilteredBlock m here contains a list of hashes, and may contain Transaction objects for a subset
@@ -1163,17 +1411,8 @@ public class Peer extends PeerSocketHandler {
     }
 
     private boolean maybeHandleRequestedData(Message m) {
-        boolean found = false;
-        Sha256Hash hash = m.getHash();
-        for (GetDataRequest req : getDataFutures) {
-            if (hash.equals(req.hash)) {
-                req.future.set(m);
-                getDataFutures.remove(req);
-                found = true;
-                // Keep going in case there are more.
-            }
-        }
-        return found;
+        // Completes every request for the hash, in case there are more than one.
+        return getDataFutures.complete(m);
     }
 
     private void invokeOnBlocksDownloaded(final Block block, @Nullable final FilteredBlock fb) {
@@ -1192,43 +1431,76 @@ public class Peer extends PeerSocketHandler {
     }
 
     protected void processInv(InventoryMessage inv) {
-        List<InventoryItem> items = inv.getItems();
-
-        // Separate out the blocks and transactions, we'll handle them differently
-        List<InventoryItem> transactions = new LinkedList<InventoryItem>();
-        List<InventoryItem> blocks = new LinkedList<InventoryItem>();
-
-        for (InventoryItem item : items) {
+        final List<InventoryItem> items = inv.getItems();
+        final int itemCount = items.size();
+        final EnumMap<InventoryItem.Type, Queue<InventoryItem>> queues = inventoryQueues;
+
+        // Separate out the blocks and transactions in one pass, we'll handle them differently. The arrays are kept
+        // from one inv to the next, unless the inv is too big to be worth keeping them for.
+        final Sha256Hash[] transactions;
+        final Sha256Hash[] blocks;
+        if (itemCount > MAX_RETAINED_INV_SCRATCH) {
+            transactions = new Sha256Hash[itemCount];
+            blocks = new Sha256Hash[itemCount];
+        } else {
+            if (invTransactionHashes.length < itemCount) {
+                invTransactionHashes = new Sha256Hash[itemCount];
+                invBlockHashes = new Sha256Hash[itemCount];
+            }
+            transactions = invTransactionHashes;
+            blocks = invBlockHashes;
+        }
+        int txCount = 0;
+        int blockCount = 0;
+        for (int itemIdx = 0; itemIdx < itemCount; itemIdx++) {
+            final InventoryItem item = items.get(itemIdx);
             switch (item.type) {
                 case TRANSACTION:
-                    transactions.add(item);
+                    transactions[txCount++] = item.hash;
                     break;
                 case BLOCK:
-                    blocks.add(item);
+                    blocks[blockCount++] = item.hash;
+                    break;
+                case CMPCT_BLOCK:
+                case SPORK:
+                case MASTERNODE_PAYMENT_VOTE:
+                case MASTERNODE_PAYMENT_BLOCK:
+                case MASTERNODE_ANNOUNCE:
+                case MASTERNODE_PING:
+                case GOVERNANCE_OBJECT:
+                case GOVERNANCE_OBJECT_VOTE:
+                case MASTERNODE_VERIFY:
+                    // Ignored unless the application asked for them with setInventoryQueue().
+                    final Queue<InventoryItem> queue = queues.get(item.type);
+                    if (queue != null && !queue.offer(item) && log.isDebugEnabled())
+                        log.debug("{}: Inventory queue full, dropping {}", this, item);
                     break;
-                case CMPCT_BLOCK: break;
-                case SPORK: break;
-                case MASTERNODE_PAYMENT_VOTE: break;
-                case MASTERNODE_PAYMENT_BLOCK: break;
-                case MASTERNODE_ANNOUNCE: break;
-                case MASTERNODE_PING: break;
-                case GOVERNANCE_OBJECT: break;
-                case GOVERNANCE_OBJECT_VOTE: break;
-                case MASTERNODE_VERIFY: break;
                 default:
                     throw new IllegalStateException("Not implemented: " + item.type);
             }
         }
 
+        try {
+            requestAnnounced(transactions, txCount, blocks, blockCount);
+        } finally {
+            // Don't keep the hashes alive until the next inv.
+            Arrays.fill(transactions, 0, txCount, null);
+            Arrays.fill(blocks, 0, blockCount, null);
+        }
+    }
+
+    // Requests the announced transactions and blocks, which processInv() has left at the start of the given arrays.
+    @SuppressWarnings("unchecked")
+    private void requestAnnounced(Sha256Hash[] transactions, int txCount, Sha256Hash[] blocks, int blockCount) {
         final boolean downloadData = this.vDownloadData;
 
-        if (transactions.size() == 0 && blocks.size() == 1) {
+        if (txCount == 0 && blockCount == 1) {
             // Single block announcement. If we're downloading the chain this is just a tickle to make us continue
             // (the block chain download protocol is very implicit and not well thought out). If we're not downloading
             // the chain then this probably means a new block was solved and the peer believes it connects to the best
             // chain, so count it. This way getBestChainHeight() can be accurate.
             if (downloadData && blockChain != null) {
-                if (!blockChain.isOrphan(blocks.get(0).hash)) {
+                if (!blockChain.isOrphan(blocks[0])) {
                     blocksAnnounced.incrementAndGet();
                 }
             } else {
@@ -1237,10 +1509,18 @@ public class Peer extends PeerSocketHandler {
         }
 
         GetDataMessage getdata = new GetDataMessage(params);
-
-        Iterator<InventoryItem> it = transactions.iterator();
-        while (it.hasNext()) {
-            InventoryItem item = it.next();
+        // Size the list for everything announced up front, rather than growing it item by item.
+        if (getdata.items instanceof ArrayList)
+            ((ArrayList<InventoryItem>) getdata.items).ensureCapacity(txCount + blockCount);
+
+        // Everything needed to look up the transactions is fetched once for the whole batch. We don't hold the
+        // confidence table's lock across the batch, because seen() runs confidence listeners on this thread and those
+        // may take the wallet lock, whilst a wallet thread may hold that and want the confidence table.
+        final TxConfidenceTable confidenceTable = context.getConfidenceTable();
+        final PeerAddress address = getAddress();
+        final boolean witnessSupported = vPeerVersionMessage.isWitnessSupported();
+        for (int txIdx = 0; txIdx < txCount; txIdx++) {
+            final Sha256Hash hash = transactions[txIdx];
             // Only download the transaction if we are the first peer that saw it be advertised. Other peers will also
             // see it be advertised in inv packets asynchronously, they co-ordinate via the memory pool. We could
             // potentially download transactions faster by always asking every peer for a tx when advertised, as remote
@@ -1249,17 +1529,15 @@ public class Peer extends PeerSocketHandler {
             // sending us the transaction: currently we'll never try to re-fetch after a timeout.
             //
             // The line below can trigger confidence listeners.
-            TransactionConfidence conf = context.getConfidenceTable().seen(item.hash, this.getAddress());
+            TransactionConfidence conf = confidenceTable.seen(hash, address);
             if (conf.numBroadcastPeers() > 1) {
                 // Some other peer already announced this so don't download.
-                it.remove();
             } else if (conf.getSource().equals(TransactionConfidence.Source.SELF)) {
                 // We created this transaction ourselves, so don't download.
-                it.remove();
             } else {
                 if (log.isDebugEnabled())
-                    log.debug("{}: getdata on tx {}", getAddress(), item.hash);
-                getdata.addTransaction(item.hash, vPeerVersionMessage.isWitnessSupported());
+                    log.debug("{}: getdata on tx {}", address, hash);
+                getdata.addTransaction(hash, witnessSupported);
                 if (pendingTxDownloads.size() > PENDING_TX_DOWNLOADS_LIMIT) {
                     log.info("{}: Too many pending transactions, disconnecting", this);
                     close();
@@ -1273,19 +1551,25 @@ public class Peer extends PeerSocketHandler {
         // If we are requesting filteredblocks we have to send a ping after the getdata so that we have a clear
         // end to the final FilteredBlock's transactions (in the form of a pong) sent to us
         boolean pingAfterGetData = false;
+        // A getblocks for the batch after this one, if pipelining.
+        GetBlocksMessage nextBatch = null;
 
         lock.lock();
         try {
-            if (blocks.size() > 0 && downloadData && blockChain != null) {
+            if (blockCount > 0 && downloadData && blockChain != null) {
                 // Ideally, we'd only ask for the data here if we actually needed it. However that can imply a lot of
                 // disk IO to figure out what we've got. Normally peers will not send us inv for things we already have
                 // so we just re-request it here, and if we get duplicates the block chain / wallet will filter them out.
-                for (InventoryItem item : blocks) {
-                    if (blockChain.isOrphan(item.hash) && downloadBlockBodies) {
+                for (int blockIdx = 0; blockIdx < blockCount; blockIdx++) {
+                    final Sha256Hash hash = blocks[blockIdx];
+                    if (blockChain.isOrphan(hash) && downloadBlockBodies) {
                         // If an orphan was re-advertised, ask for more blocks unless we are not currently downloading
-                        // full block data because we have a getheaders outstanding.
-                        final Block orphanRoot = checkNotNull(blockChain.getOrphanRoot(item.hash));
-                        blockChainDownloadLocked(orphanRoot.getHash());
+                        // full block data because we have a getheaders outstanding, or the blocks are already coming
+                        // in pipelined batches.
+                        if (!isPipeliningBlocksLocked()) {
+                            final Block orphanRoot = checkNotNull(blockChain.getOrphanRoot(hash));
+                            blockChainDownloadLocked(orphanRoot.getHash());
+                        }
                     } else {
                         // Don't re-request blocks we already requested. Normally this should not happen. However there is
                         // an edge case: if a block is solved and we complete the inv<->getdata<->block<->getblocks cycle
@@ -1299,14 +1583,14 @@ public class Peer extends PeerSocketHandler {
                         // part of chain download with newly announced blocks, so it should always be taken care of by
                         // the duplicate check in blockChainDownloadLocked(). But Bitcoin Core may change in future so
                         // it's better to be safe here.
-                        if (!pendingBlockDownloads.contains(item.hash)) {
+                        if (!pendingBlockDownloads.contains(hash)) {
                             if (vPeerVersionMessage.isBloomFilteringSupported() && useFilteredBlocks) {
-                                getdata.addFilteredBlock(item.hash);
+                                getdata.addFilteredBlock(hash);
                                 pingAfterGetData = true;
                             } else {
-                                getdata.addBlock(item.hash, vPeerVersionMessage.isWitnessSupported());
+                                getdata.addBlock(hash, vPeerVersionMessage.isWitnessSupported());
                             }
-                            pendingBlockDownloads.add(item.hash);
+                            pendingBlockDownloads.add(hash);
                         }
                     }
                 }
@@ -1315,6 +1599,14 @@ public class Peer extends PeerSocketHandler {
                 // orphan block, meaning we'll re-enter blockChainDownloadLocked() to trigger another getblocks between the
                 // current best block we have and the orphan block. If more blocks arrive in the meantime they'll also
                 // become orphan.
+                //
+                // That costs a round trip per batch. With a download window of more than one batch we instead ask for
+                // the next batch as soon as a full one is announced, continuing from its last block.
+                if (downloadBlockBodies && blockDownloadWindow > 1 && blockCount >= MAX_GETBLOCKS_INV) {
+                    final Sha256Hash batchEnd = blocks[blockCount - 1];
+                    if (pendingBlockDownloads.contains(batchEnd))
+                        nextBatch = blockBatchAnnouncedLocked(batchEnd);
+                }
             }
         } finally {
             lock.unlock();
@@ -1325,6 +1617,9 @@ public class Peer extends PeerSocketHandler {
             sendMessage(getdata);
         }
 
+        if (nextBatch != null)
+            sendMessage(nextBatch);
+
         if (pingAfterGetData)
             sendMessage(new Ping((long) (Math.random() * Long.MAX_VALUE)));
     }
@@ -1368,10 +1663,46 @@ public class Peer extends PeerSocketHandler {
     private ListenableFuture sendSingleGetData(GetDataMessage getdata) {
         // This does not need to be locked.
         Preconditions.checkArgument(getdata.getItems().size() == 1);
-        GetDataRequest req = new GetDataRequest(getdata.getItems().get(0).hash, SettableFuture.create());
-        getDataFutures.add(req);
+        SettableFuture<Message> future = getDataFutures.add(getdata.getItems().get(0).hash, vGetDataTimeoutMillis);
         sendMessage(getdata);
-        return req.future;
+        return future;
+    }
+
+    /**
+     * Sets how long to wait for the peer to send a block or transaction asked for by {@link #getBlock(Sha256Hash)},
+     * {@link #getPeerMempoolTransaction(Sha256Hash)} or dependency download, after which the future for it fails with
+     * a {@link java.util.concurrent.TimeoutException}. Zero, the default, waits until the data arrives, the peer says
+     * it doesn't have it, or the future is cancelled. Requests already sent keep the timeout they were sent with.
+     */
+    public void setGetDataTimeout(long timeout, TimeUnit unit) {
+        Preconditions.checkArgument(timeout >= 0, "Timeout must not be negative");
+        vGetDataTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    /** Returns how long to wait for data asked for with getdata, in milliseconds, or zero to wait forever. */
+    public long getGetDataTimeoutMillis() {
+        return vGetDataTimeoutMillis;
+    }
+
+    /**
+     * Sets roughly how many bytes of transactions may be requested at once while downloading the dependencies of
+     * pending transactions. Requests beyond this wait until earlier ones have been answered. Defaults to 500kB.
+     */
+    public void setMaxDependencyBytesInFlight(long maxBytes) {
+        dependencyDownloader.setMaxBytesInFlight(maxBytes);
+    }
+
+    /** Returns roughly how many bytes of dependency transactions may be requested at once. */
+    public long getMaxDependencyBytesInFlight() {
+        return dependencyDownloader.getMaxBytesInFlight();
+    }
+
+    /**
+     * Sets how long downloaded dependencies of pending transactions are kept, so that later transactions depending on
+     * them do not download them again. Zero disables the cache. Defaults to one minute.
+     */
+    public void setDependencyCacheTime(long time, TimeUnit unit) {
+        dependencyDownloader.setCacheTtlMillis(unit.toMillis(time));
     }
 
     /** Sends a getaddr request to the peer and returns a future that completes with the answer once the peer has replied. */
@@ -1431,8 +1762,36 @@ public class Peer extends PeerSocketHandler {
     @GuardedBy("lock")
     private Sha256Hash lastGetBlocksBegin, lastGetBlocksEnd;
 
+    // The most block hashes a peer will announce in answer to a single getblocks.
+    private static final int MAX_GETBLOCKS_INV = 500;
+    // How many batches of blocks may be downloaded at once, see setBlockDownloadWindow().
+    @GuardedBy("lock")
+    private int blockDownloadWindow = 1;
+    // The last block of each full batch we are downloading ahead of the peer's continuation inv, oldest first.
+    @GuardedBy("lock")
+    private final LinkedList<Sha256Hash> blockBatchesInFlight = new LinkedList<Sha256Hash>();
+    // The last block of a batch whose following getblocks is waiting for room in the download window.
+    @GuardedBy("lock") @Nullable
+    private Sha256Hash deferredGetBlocksFrom;
+    // How long the download window may go without any block arriving before we give up on the batches in it.
+    static final long BLOCK_BATCH_STALL_MILLIS = 60 * 1000;
+    // When a block last arrived, or a batch entered the empty window.
+    @GuardedBy("lock")
+    private long lastBlockBatchProgressMillis;
+    @GuardedBy("lock") @Nullable
+    private ScheduledFuture<?> blockBatchStallCheck;
+
     @GuardedBy("lock")
     private void blockChainDownloadLocked(Sha256Hash toHash) {
+        Message message = buildBlockChainDownloadLocked(toHash);
+        if (message != null)
+            sendMessage(message);
+    }
+
+    // Builds the getblocks or getheaders blockChainDownloadLocked() sends, or returns null if it is a duplicate of the
+    // last one, so that callers may send it once they have released the lock.
+    @GuardedBy("lock") @Nullable
+    private Message buildBlockChainDownloadLocked(Sha256Hash toHash) {
         checkState(lock.isHeldByCurrentThread());
         // The block chain download process is a bit complicated. Basically, we start with one or more blocks in a
         // chain that we have from a previous session. We want to catch up to the head of the chain BUT we don't know
@@ -1467,16 +1826,7 @@ public class Peer extends PeerSocketHandler {
         // headers and then request the blocks from that point onwards. "getheaders" does not send us an inv, it just
         // sends us the data we requested in a "headers" message.
 
-        BlockLocator blockLocator = new BlockLocator();
-        // For now we don't do the exponential thinning as suggested here:
-        //
-        //   https://en.bitcoin.it/wiki/Protocol_specification#getblocks
-        //
-        // This is because it requires scanning all the block chain headers, which is very slow. Instead we add the top
-        // 100 block headers. If there is a re-org deeper than that, we'll end up downloading the entire chain. We
-        // must always put the genesis block as the first entry.
-        BlockStore store = checkNotNull(blockChain).getBlockStore();
-        StoredBlock chainHead = blockChain.getChainHead();
+        StoredBlock chainHead = checkNotNull(blockChain).getChainHead();
         Sha256Hash chainHeadHash = chainHead.getHeader().getHash();
         // Did we already make this request? If so, don't do it again.
         if (Objects.equals(lastGetBlocksBegin, chainHeadHash) && Objects.equals(lastGetBlocksEnd, toHash)) {
@@ -1484,11 +1834,37 @@ public class Peer extends PeerSocketHandler {
             for (Sha256Hash hash : pendingBlockDownloads)
                 log.info("Pending block download: {}", hash);
             log.info(Throwables.getStackTraceAsString(new Throwable()));
-            return;
+            return null;
         }
         if (log.isDebugEnabled())
             log.debug("{}: blockChainDownloadLocked({}) current head = {}",
                     this, toHash, chainHead.getHeader().getHashAsString());
+        BlockLocator blockLocator = buildBlockLocatorLocked(chainHead);
+
+        // Record that we requested this range of blocks so we can filter out duplicate requests in the event of a
+        // block being solved during chain download.
+        lastGetBlocksBegin = chainHeadHash;
+        lastGetBlocksEnd = toHash;
+
+        if (downloadBlockBodies) {
+            return new GetBlocksMessage(params, blockLocator, toHash);
+        } else {
+            // Downloading headers for a while instead of full blocks.
+            return new GetHeadersMessage(params, blockLocator, toHash);
+        }
+    }
+
+    @GuardedBy("lock")
+    private BlockLocator buildBlockLocatorLocked(StoredBlock chainHead) {
+        BlockLocator blockLocator = new BlockLocator();
+        // For now we don't do the exponential thinning as suggested here:
+        //
+        //   https://en.bitcoin.it/wiki/Protocol_specification#getblocks
+        //
+        // This is because it requires scanning all the block chain headers, which is very slow. Instead we add the top
+        // 100 block headers. If there is a re-org deeper than that, we'll end up downloading the entire chain. We
+        // must always put the genesis block as the first entry.
+        BlockStore store = checkNotNull(blockChain).getBlockStore();
         StoredBlock cursor = chainHead;
         for (int i = 100; cursor != null && i > 0; i--) {
             blockLocator = blockLocator.add(cursor.getHeader().getHash());
@@ -1502,22 +1878,159 @@ public class Peer extends PeerSocketHandler {
         // Only add the locator if we didn't already do so. If the chain is < 50 blocks we already reached it.
         if (cursor != null)
             blockLocator = blockLocator.add(params.getGenesisBlock().getHash());
+        return blockLocator;
+    }
 
-        // Record that we requested this range of blocks so we can filter out duplicate requests in the event of a
-        // block being solved during chain download.
-        lastGetBlocksBegin = chainHeadHash;
-        lastGetBlocksEnd = toHash;
+    // Builds a getblocks for the batch after the one ending in the given block, which we have been told about but
+    // which may not have arrived yet. The block goes at the front of the locator so the peer continues from it; the
+    // locator of our chain head follows in case the peer does not know it.
+    @GuardedBy("lock")
+    GetBlocksMessage buildGetBlocksAfterLocked(Sha256Hash batchEnd) {
+        BlockLocator chainLocator = buildBlockLocatorLocked(checkNotNull(blockChain).getChainHead());
+        BlockLocator blockLocator = new BlockLocator(ImmutableList.<Sha256Hash>builder()
+                .add(batchEnd).addAll(chainLocator.getHashes()).build());
+        if (log.isDebugEnabled())
+            log.debug("{}: Pipelining getblocks after {}", this, batchEnd);
+        lastGetBlocksBegin = batchEnd;
+        lastGetBlocksEnd = Sha256Hash.ZERO_HASH;
+        return new GetBlocksMessage(params, blockLocator, Sha256Hash.ZERO_HASH);
+    }
 
-        if (downloadBlockBodies) {
-            GetBlocksMessage message = new GetBlocksMessage(params, blockLocator, toHash);
-            sendMessage(message);
-        } else {
-            // Downloading headers for a while instead of full blocks.
-            GetHeadersMessage message = new GetHeadersMessage(params, blockLocator, toHash);
-            sendMessage(message);
+    // Called when a full batch ending in the given block has been announced and its blocks requested. Adds the batch
+    // to the download window, and returns the getblocks for the batch after it if there is room for one, otherwise
+    // defers it until a batch leaves the window.
+    @GuardedBy("lock") @Nullable
+    GetBlocksMessage blockBatchAnnouncedLocked(Sha256Hash batchEnd) {
+        checkState(lock.isHeldByCurrentThread());
+        if (blockBatchesInFlight.contains(batchEnd))
+            return null;
+        if (!isPipeliningBlocksLocked()) {
+            lastBlockBatchProgressMillis = Utils.currentTimeMillis();
+            scheduleBlockBatchStallCheckLocked(BLOCK_BATCH_STALL_MILLIS);
+        }
+        blockBatchesInFlight.add(batchEnd);
+        if (blockBatchesInFlight.size() < blockDownloadWindow)
+            return buildGetBlocksAfterLocked(batchEnd);
+        deferredGetBlocksFrom = batchEnd;
+        return null;
+    }
+
+    // Whether the blocks a received orphan is missing will be brought in by batches already being pipelined, in which
+    // case the usual getblocks from the orphan root would only ask for them again. Once no block has arrived for a
+    // while the batches are given up on, so that the getblocks from the orphan root goes out after all.
+    @GuardedBy("lock")
+    boolean isPipeliningBlocksLocked() {
+        if (blockBatchesInFlight.isEmpty() && deferredGetBlocksFrom == null)
+            return false;
+        if (Utils.currentTimeMillis() - lastBlockBatchProgressMillis < BLOCK_BATCH_STALL_MILLIS)
+            return true;
+        log.info("{}: No block has arrived from pipelined batches in {}ms, giving up on them", this,
+                BLOCK_BATCH_STALL_MILLIS);
+        resetBlockPipelineLocked();
+        return false;
+    }
+
+    // Forget the pipelined batches, going back to following the peer's continuation inv.
+    @GuardedBy("lock")
+    private void resetBlockPipelineLocked() {
+        blockBatchesInFlight.clear();
+        deferredGetBlocksFrom = null;
+        if (blockBatchStallCheck != null) {
+            blockBatchStallCheck.cancel(false);
+            blockBatchStallCheck = null;
+        }
+    }
+
+    private void resetBlockPipeline() {
+        lock.lock();
+        try {
+            resetBlockPipelineLocked();
+        } finally {
+            lock.unlock();
         }
     }
 
+    // Give up on the pipelined batches and build the request for blocks from our chain head again, as
+    // startBlockChainDownload does. Returns null if there is nothing to send.
+    @GuardedBy("lock") @Nullable
+    private Message restartBlockChainDownloadLocked() {
+        resetBlockPipelineLocked();
+        if (vDownloadData && downloadBlockBodies && blockChain != null)
+            return buildBlockChainDownloadLocked(Sha256Hash.ZERO_HASH);
+        return null;
+    }
+
+    // The timer only runs on the executor shared by every peer's request timeouts, so the check itself, which walks
+    // the block store and may block writing to the socket, is handed to the thread pool.
+    @GuardedBy("lock")
+    private void scheduleBlockBatchStallCheckLocked(long delayMillis) {
+        if (blockBatchStallCheck != null)
+            blockBatchStallCheck.cancel(false);
+        blockBatchStallCheck = TimeoutExecutor.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                Threading.THREAD_POOL.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        checkBlockBatchStall();
+                    }
+                });
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Run some time after a batch entered the empty download window. If the peer has gone quiet since the last block
+    // arrived, nothing else would notice that the batches in the window are not coming, so ask again from our chain
+    // head. Otherwise check again once the window could next have stalled.
+    void checkBlockBatchStall() {
+        Message restart;
+        lock.lock();
+        try {
+            blockBatchStallCheck = null;
+            if (blockBatchesInFlight.isEmpty() && deferredGetBlocksFrom == null)
+                return;
+            final long idleMillis = Utils.currentTimeMillis() - lastBlockBatchProgressMillis;
+            if (idleMillis < BLOCK_BATCH_STALL_MILLIS) {
+                scheduleBlockBatchStallCheckLocked(BLOCK_BATCH_STALL_MILLIS - idleMillis);
+                return;
+            }
+            log.info("{}: No block has arrived from pipelined batches in {}ms, asking again", this, idleMillis);
+            restart = restartBlockChainDownloadLocked();
+        } finally {
+            lock.unlock();
+        }
+        if (restart != null)
+            sendMessage(restart);
+    }
+
+    // Called as each block we asked for arrives. When the last block of a pipelined batch arrives that batch leaves
+    // the download window, making room for any getblocks that was waiting.
+    void blockBatchProgress(Sha256Hash hash) {
+        GetBlocksMessage message = null;
+        lock.lock();
+        try {
+            if (blockBatchesInFlight.isEmpty() && deferredGetBlocksFrom == null)
+                return;
+            lastBlockBatchProgressMillis = Utils.currentTimeMillis();
+            if (!blockBatchesInFlight.remove(hash))
+                return;
+            if (awaitingFreshFilter != null) {
+                // Everything from here on is being discarded and will be asked for again once the filter has been
+                // refreshed, so go back to following the peer's continuation inv.
+                resetBlockPipelineLocked();
+            } else if (deferredGetBlocksFrom != null && blockBatchesInFlight.size() < blockDownloadWindow) {
+                message = buildGetBlocksAfterLocked(deferredGetBlocksFrom);
+                deferredGetBlocksFrom = null;
+            }
+            if (blockBatchesInFlight.isEmpty() && deferredGetBlocksFrom == null)
+                resetBlockPipelineLocked();
+        } finally {
+            lock.unlock();
+        }
+        if (message != null)
+            sendMessage(message);
+    }
+
     /**
      * Starts an asynchronous download of the block chain. The chain download is deemed to be complete once we've
      * downloaded the same number of blocks that the peer advertised having in its version handshake message.
@@ -1539,6 +2052,7 @@ public class Peer extends PeerSocketHandler {
             // When we just want as many blocks as possible, we can set the target hash to zero.
             lock.lock();
             try {
+                resetBlockPipelineLocked();
                 blockChainDownloadLocked(Sha256Hash.ZERO_HASH);
             } finally {
                 lock.unlock();
@@ -1571,23 +2085,9 @@ public class Peer extends PeerSocketHandler {
         }
     }
 
-    /** Adds a ping time sample to the averaging window. */
+    /** Adds a ping time sample to the moving average. */
     private void addPingTimeData(long sample) {
-        lastPingTimesLock.lock();
-        try {
-            if (lastPingTimes == null) {
-                lastPingTimes = new long[PING_MOVING_AVERAGE_WINDOW];
-                // Initialize the averaging window to the first sample.
-                Arrays.fill(lastPingTimes, sample);
-            } else {
-                // Shift all elements backwards by one.
-                System.arraycopy(lastPingTimes, 1, lastPingTimes, 0, lastPingTimes.length - 1);
-                // And append the new sample to the end.
-                lastPingTimes[lastPingTimes.length - 1] = sample;
-            }
-        } finally {
-            lastPingTimesLock.unlock();
-        }
+        pings.addSample(sample);
     }
 
     /**
@@ -1605,12 +2105,15 @@ public class Peer extends PeerSocketHandler {
         final VersionMessage ver = vPeerVersionMessage;
         if (!ver.isPingPongSupported())
             throw new ProtocolException("Peer version is too low for measurable pings: " + ver);
-        if (pendingPings.size() > PENDING_PINGS_LIMIT) {
+        if (pings.getPendingCount() > PENDING_PINGS_LIMIT) {
             log.info("{}: Too many pending pings, disconnecting", this);
             close();
         }
         PendingPing pendingPing = new PendingPing(nonce);
-        pendingPings.add(pendingPing);
+        if (!pings.addPending(nonce, pendingPing)) {
+            pendingPing.future.setException(new ProtocolException("Too many pending pings"));
+            return pendingPing.future;
+        }
         sendMessage(new Ping(pendingPing.nonce));
         return pendingPing.future;
     }
@@ -1620,32 +2123,31 @@ public class Peer extends PeerSocketHandler {
      * been called or we did not hear back the "pong" message yet, returns {@link Long#MAX_VALUE}.
      */
     public long getLastPingTime() {
-        lastPingTimesLock.lock();
-        try {
-            if (lastPingTimes == null)
-                return Long.MAX_VALUE;
-            return lastPingTimes[lastPingTimes.length - 1];
-        } finally {
-            lastPingTimesLock.unlock();
-        }
+        return pings.getLast();
     }
 
     /**
-     * Returns a moving average of the last N ping/pong cycles. If {@link Peer#ping()} has never
-     * been called or we did not hear back the "pong" message yet, returns {@link Long#MAX_VALUE}. The moving average
-     * window is 5 buckets.
+     * Returns a moving average of the ping/pong cycles. If {@link Peer#ping()} has never
+     * been called or we did not hear back the "pong" message yet, returns {@link Long#MAX_VALUE}. The average is
+     * exponentially weighted, with each new cycle given the weight it would have in a simple average over the last
+     * 20. This never blocks, so can be polled across many peers.
      */
     public long getPingTime() {
-        lastPingTimesLock.lock();
-        try {
-            if (lastPingTimes == null)
-                return Long.MAX_VALUE;
-            long sum = 0;
-            for (long i : lastPingTimes) sum += i;
-            return (long)((double) sum / lastPingTimes.length);
-        } finally {
-            lastPingTimesLock.unlock();
-        }
+        return pings.getAverage();
+    }
+
+    /**
+     * Returns the shortest ping/pong cycle seen, or {@link Long#MAX_VALUE} if none has completed.
+     */
+    public long getMinPingTime() {
+        return pings.getMin();
+    }
+
+    /**
+     * Returns the longest ping/pong cycle seen, or {@link Long#MAX_VALUE} if none has completed.
+     */
+    public long getMaxPingTime() {
+        return pings.getMax();
     }
 
     private void processPing(Ping m) {
@@ -1654,14 +2156,10 @@ public class Peer extends PeerSocketHandler {
     }
 
     protected void processPong(Pong m) {
-        // Iterates over a snapshot of the list, so we can run unlocked here.
-        for (PendingPing ping : pendingPings) {
-            if (m.getNonce() == ping.nonce) {
-                pendingPings.remove(ping);
-                // This line may trigger an event listener that re-runs ping().
-                ping.complete();
-                return;
-            }
+        PendingPing ping = pings.removePending(m.getNonce());
+        if (ping != null) {
+            // This line may trigger an event listener that re-runs ping().
+            ping.complete();
         }
     }
 
@@ -1701,6 +2199,33 @@ public class Peer extends PeerSocketHandler {
         this.vDownloadData = downloadData;
     }
 
+    /**
+     * Sets how many batches of blocks may be downloaded at once during the chain download. With a window of one, the
+     * default, the next getblocks is only sent once the peer has announced its head block after the last block of the
+     * current batch was requested, which costs a round trip per batch of 500 blocks. With a larger window, as soon as
+     * a full batch is announced the next batch is asked for, continuing from the last block announced, so that up to
+     * this many batches are being downloaded at once.
+     */
+    public void setBlockDownloadWindow(int batches) {
+        Preconditions.checkArgument(batches > 0, "Block download window must be at least one batch");
+        lock.lock();
+        try {
+            blockDownloadWindow = batches;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns how many batches of blocks may be downloaded at once, see {@link #setBlockDownloadWindow(int)}. */
+    public int getBlockDownloadWindow() {
+        lock.lock();
+        try {
+            return blockDownloadWindow;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /** Returns version data announced by the remote peer. */
     public VersionMessage getPeerVersionMessage() {
         return vPeerVersionMessage;
@@ -1867,6 +2392,31 @@ public class Peer extends PeerSocketHandler {
         }
     }
 
+    /**
+     * Asks the connected peer for the headers following the first block in the locator that it knows about, up to and
+     * including the given stop block or {@link HeadersMessage#MAX_HEADERS} headers, whichever comes first. The headers
+     * are handed to the returned future rather than added to the block chain, so this should not be used on a peer
+     * that is itself downloading headers for the chain. If the connection closes first, the future fails with a
+     * {@link PeerException}. Cancelling the future does not withdraw the request, so a caller which gives up waiting
+     * should disconnect the peer, as its late answer would otherwise be taken for the answer to a later request.
+     *
+     * @param stopHash the last block wanted, or {@link Sha256Hash#ZERO_HASH} for as many as the peer will send.
+     */
+    public ListenableFuture<List<Block>> getBlockHeaders(BlockLocator locator, Sha256Hash stopHash) {
+        lock.lock();
+        try {
+            SettableFuture<List<Block>> future = SettableFuture.create();
+            // Add to the list of in flight requests.
+            if (getHeadersFutures == null)
+                getHeadersFutures = new LinkedList<SettableFuture<List<Block>>>();
+            getHeadersFutures.add(future);
+            sendMessage(new GetHeadersMessage(params, locator, stopHash));
+            return future;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * Returns true if this peer will use getdata/notfound messages to walk backwards through transaction dependencies
      * before handing the transaction off to the wallet. The wallet can do risk analysis on pending/recent transactions
@@ -1893,4 +2443,13 @@ public class Peer extends PeerSocketHandler {
     public void setDownloadTxDependencies(int depth) {
         vDownloadTxDependencyDepth = depth;
     }
+
+    /**
+     * Sets the verifier used to check the proof of work of downloaded headers in parallel, before they are added to
+     * the chain. Defaults to {@link HeaderVerifier#getDefault()} if this peer has a chain. Set to null to check
+     * headers only as the chain adds them, on the network thread.
+     */
+    public void setHeaderVerifier(@Nullable HeaderVerifier verifier) {
+        vHeaderVerifier = verifier;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.bitcoinj.utils.Threading;
+import org.libdohj.core.TimeoutExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>Futures for blocks and transactions asked for with getdata, keyed by
+ * hash, so that each arriving message finds the requests it answers with a
+ * single lookup, however many are outstanding.</p>
+ *
+ * <p>A request may be given a timeout, after which its future fails with a
+ * {@link TimeoutException}. A request whose future is cancelled or times out
+ * is dropped from the table, so a later arrival of the data is treated as
+ * unrequested.</p>
+ */
+final class PendingDataRequests {
+    /** Futures waiting on each hash; lists are replaced, never modified. */
+    private final ConcurrentHashMap<Sha256Hash, List<SettableFuture<?>>> requests =
+        new ConcurrentHashMap<Sha256Hash, List<SettableFuture<?>>>();
+
+    /**
+     * Register a request for the given hash.
+     *
+     * @param timeoutMillis how long to wait for the data, or zero to wait
+     * until it arrives or the request is cancelled.
+     * @return the future to complete when the data arrives.
+     */
+    <T extends Message> SettableFuture<T> add(final Sha256Hash hash, final long timeoutMillis) {
+        final SettableFuture<T> future = SettableFuture.create();
+        List<SettableFuture<?>> existing;
+        do {
+            existing = requests.get(hash);
+            if (null == existing) {
+                if (null == requests.putIfAbsent(hash, Collections.<SettableFuture<?>>singletonList(future))) {
+                    break;
+                }
+                continue;
+            }
+            final List<SettableFuture<?>> updated = new ArrayList<SettableFuture<?>>(existing.size() + 1);
+            updated.addAll(existing);
+            updated.add(future);
+            if (requests.replace(hash, existing, updated)) {
+                break;
+            }
+        } while (true);
+
+        final ScheduledFuture<?> timeout = timeoutMillis > 0
+            ? TimeoutExecutor.get().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    // Listeners on the future may send messages, which can block, so they don't run on the shared
+                    // timeout thread
+                    Threading.THREAD_POOL.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (remove(hash, future)) {
+                                future.setException(new TimeoutException("No reply to getdata for " + hash));
+                            }
+                        }
+                    });
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS)
+            : null;
+        // However the request ends, it is no longer outstanding
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                remove(hash, future);
+                if (null != timeout) {
+                    timeout.cancel(false);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
+
+    /**
+     * Complete the requests for the given message.
+     *
+     * @return true if there were any.
+     */
+    @SuppressWarnings("unchecked")
+    boolean complete(final Message message) {
+        final List<SettableFuture<?>> futures = requests.remove(message.getHash());
+        if (null == futures) {
+            return false;
+        }
+        for (SettableFuture<?> future : futures) {
+            ((SettableFuture<Message>) future).set(message);
+        }
+        return true;
+    }
+
+    /**
+     * Cancel the requests for the given hash, as the peer does not have it.
+     *
+     * @return the number of requests cancelled.
+     */
+    int cancel(final Sha256Hash hash) {
+        final List<SettableFuture<?>> futures = requests.remove(hash);
+        if (null == futures) {
+            return 0;
+        }
+        for (SettableFuture<?> future : futures) {
+            future.cancel(true);
+        }
+        return futures.size();
+    }
+
+    /**
+     * @return the number of hashes with requests outstanding.
+     */
+    int size() {
+        return requests.size();
+    }
+
+    /**
+     * Drop a single request from the table.
+     *
+     * @return true if it was still outstanding.
+     */
+    private boolean remove(final Sha256Hash hash, final SettableFuture<?> future) {
+        List<SettableFuture<?>> existing;
+        do {
+            existing = requests.get(hash);
+            if (null == existing || !existing.contains(future)) {
+                return false;
+            }
+            if (existing.size() == 1) {
+                if (requests.remove(hash, existing)) {
+                    return true;
+                }
+                continue;
+            }
+            final List<SettableFuture<?>> updated = new ArrayList<SettableFuture<?>>(existing);
+            updated.remove(future);
+            if (requests.replace(hash, existing, updated)) {
+                return true;
+            }
+        } while (true);
+    }
+}
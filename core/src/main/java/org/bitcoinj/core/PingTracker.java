@@ -0,0 +1,164 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>Ping times of a peer, and the pings still waiting for a pong, without
+ * locks, so that the times can be read for many peers at once without ever
+ * waiting on the network threads recording them.</p>
+ *
+ * <p>Times are kept as the last sample, an exponentially weighted moving
+ * average, and the minimum and maximum, each updated atomically on its own.
+ * Pending pings are held in a fixed size table of slots, keyed by nonce and
+ * claimed by compare and swap.</p>
+ *
+ * @param <P> the pending ping type.
+ */
+final class PingTracker<P> {
+    /** Time returned before any sample has been recorded. */
+    static final long NO_SAMPLE = Long.MAX_VALUE;
+
+    /** Weight of each new sample in the average. */
+    private final double alpha;
+    private volatile long last = NO_SAMPLE;
+    /** Bits of the average as a double, or of NaN before the first sample. */
+    private final AtomicLong averageBits = new AtomicLong(Double.doubleToLongBits(Double.NaN));
+    private final AtomicLong min = new AtomicLong(NO_SAMPLE);
+    private final AtomicLong max = new AtomicLong(NO_SAMPLE);
+
+    private final AtomicReferenceArray<Pending<P>> pendingPings;
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final int mask;
+
+    /**
+     * @param window number of samples the average roughly spans; each sample
+     * has a weight of 2 / (window + 1).
+     * @param capacity the most pings which can be pending at once, rounded up
+     * to a power of two.
+     */
+    PingTracker(final int window, final int capacity) {
+        this.alpha = 2.0 / (window + 1);
+        final int slots = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1);
+        this.pendingPings = new AtomicReferenceArray<Pending<P>>(slots);
+        this.mask = slots - 1;
+    }
+
+    /**
+     * Record the time a ping took.
+     */
+    void addSample(final long sample) {
+        last = sample;
+        long current;
+        double average;
+        do {
+            current = averageBits.get();
+            final double previous = Double.longBitsToDouble(current);
+            // The first sample starts the average
+            average = Double.isNaN(previous) ? sample : previous + alpha * (sample - previous);
+        } while (!averageBits.compareAndSet(current, Double.doubleToLongBits(average)));
+
+        long bound;
+        while (sample < (bound = min.get()) && !min.compareAndSet(bound, sample)) {
+            // Lost a race with another sample, try again
+        }
+        while ((sample > (bound = max.get()) || bound == NO_SAMPLE) && !max.compareAndSet(bound, sample)) {
+            // Lost a race with another sample, try again
+        }
+    }
+
+    /** @return the last time recorded, or {@link #NO_SAMPLE}. */
+    long getLast() {
+        return last;
+    }
+
+    /** @return the moving average of the times recorded, or {@link #NO_SAMPLE}. */
+    long getAverage() {
+        final double average = Double.longBitsToDouble(averageBits.get());
+        return Double.isNaN(average) ? NO_SAMPLE : (long) average;
+    }
+
+    /** @return the shortest time recorded, or {@link #NO_SAMPLE}. */
+    long getMin() {
+        return min.get();
+    }
+
+    /** @return the longest time recorded, or {@link #NO_SAMPLE}. */
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Hold a ping until its pong arrives.
+     *
+     * @return false if every slot is already taken.
+     */
+    boolean addPending(final long nonce, final P ping) {
+        final Pending<P> pending = new Pending<P>(nonce, ping);
+        final int home = slot(nonce);
+        for (int probe = 0; probe <= mask; probe++) {
+            if (pendingPings.compareAndSet((home + probe) & mask, null, pending)) {
+                pendingCount.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Take the ping with the given nonce out of the table.
+     *
+     * @return the ping, or null if none is pending with that nonce.
+     */
+    @Nullable
+    P removePending(final long nonce) {
+        final int home = slot(nonce);
+        for (int probe = 0; probe <= mask; probe++) {
+            final int slot = (home + probe) & mask;
+            final Pending<P> pending = pendingPings.get(slot);
+            if (pending != null && pending.nonce == nonce && pendingPings.compareAndSet(slot, pending, null)) {
+                pendingCount.decrementAndGet();
+                return pending.ping;
+            }
+        }
+        return null;
+    }
+
+    /** @return the number of pings waiting for a pong. */
+    int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    private int slot(final long nonce) {
+        final long h = nonce * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private static final class Pending<P> {
+        private final long nonce;
+        private final P ping;
+
+        private Pending(final long nonce, final P ping) {
+            this.nonce = nonce;
+            this.ping = ping;
+        }
+    }
+}
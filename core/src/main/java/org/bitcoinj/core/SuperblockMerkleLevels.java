@@ -0,0 +1,236 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import javax.annotation.Nullable;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>Every node hash of a merkle tree, calculated bottom-up once and held level
+ * by level in a single flat array. Level zero is the leaves and the last level
+ * is the root. Hashes are in little-endian (wire) byte order, so the two
+ * children of a node are adjacent and can be hashed straight from the
+ * array.</p>
+ *
+ * <p>As with {@link SuperblockPartialMerkleTree}, where a level has an odd
+ * number of nodes the last node is hashed with itself.</p>
+ */
+final class SuperblockMerkleLevels {
+    /** Number of nodes below which a task hashes them itself rather than splitting. */
+    private static final int SPLIT_THRESHOLD = 1024;
+
+    private final int leafCount;
+    private final int height;
+    /** Index of the first node of each level within the flat array. */
+    private final int[] levelStarts;
+    private final byte[] hashes;
+
+    private SuperblockMerkleLevels(final int leafCount) {
+        this.leafCount = leafCount;
+        this.height = getTreeHeight(leafCount);
+        this.levelStarts = new int[height + 1];
+        int nodeCount = 0;
+        for (int level = 0; level <= height; level++) {
+            levelStarts[level] = nodeCount;
+            nodeCount += getTreeWidth(leafCount, level);
+        }
+        this.hashes = new byte[nodeCount * Sha256Hash.LENGTH];
+    }
+
+    /**
+     * Calculate all node hashes of the tree with the given leaves.
+     */
+    static SuperblockMerkleLevels build(final List<Sha256Hash> leaves) {
+        return build(leaves, null);
+    }
+
+    /**
+     * Calculate all node hashes of the tree with the given leaves. If a pool is
+     * given, levels wide enough to be worth it are split across the pool. Each
+     * node still depends only on its children, so the hashes are the same as
+     * when calculated sequentially.
+     *
+     * @param pool the pool to hash on, or null to hash on the calling thread.
+     */
+    static SuperblockMerkleLevels build(final List<Sha256Hash> leaves, @Nullable final ForkJoinPool pool) {
+        if (leaves.isEmpty()) {
+            throw new IllegalArgumentException("Cannot build a merkle tree with no leaves");
+        }
+        final SuperblockMerkleLevels levels = new SuperblockMerkleLevels(leaves.size());
+        final byte[] hashes = levels.hashes;
+        for (int leafIdx = 0; leafIdx < leaves.size(); leafIdx++) {
+            final byte[] leaf = leaves.get(leafIdx).getBytes();
+            final int leafOffset = leafIdx * Sha256Hash.LENGTH;
+            for (int byteIdx = 0; byteIdx < Sha256Hash.LENGTH; byteIdx++) {
+                hashes[leafOffset + byteIdx] = leaf[Sha256Hash.LENGTH - 1 - byteIdx];
+            }
+        }
+
+        final MessageDigest digest = Sha256Hash.newDigest();
+        for (int level = 1; level <= levels.height; level++) {
+            final int width = levels.getWidth(level);
+            if (null == pool || width <= SPLIT_THRESHOLD) {
+                levels.hashLevel(digest, level, 0, width);
+            } else {
+                // Each level must be finished before the next can start
+                pool.invoke(new LevelTask(levels, level, 0, width));
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * Calculate the hashes of a range of nodes of one level from the level
+     * below.
+     */
+    private void hashLevel(final MessageDigest digest, final int level, final int from, final int to) {
+        final int childWidth = getWidth(level - 1);
+        for (int pos = from; pos < to; pos++) {
+            final int left = offsetOf(level - 1, pos * 2);
+            final int right = pos * 2 + 1 < childWidth ? left + Sha256Hash.LENGTH : left;
+            hashPair(digest, hashes, left, right, hashes, offsetOf(level, pos));
+        }
+    }
+
+    /**
+     * Double-SHA256 two hashes together, without allocating.
+     *
+     * @param src array holding both hashes, little-endian.
+     * @param leftOffset offset of the left hash within the source array.
+     * @param rightOffset offset of the right hash, which may be the same as
+     * the left.
+     * @param dst array to write the result into, little-endian. May be the
+     * same as the source array.
+     * @param dstOffset offset to write the result at.
+     */
+    static void hashPair(final MessageDigest digest, final byte[] src, final int leftOffset,
+                         final int rightOffset, final byte[] dst, final int dstOffset) {
+        try {
+            digest.reset();
+            digest.update(src, leftOffset, Sha256Hash.LENGTH);
+            digest.update(src, rightOffset, Sha256Hash.LENGTH);
+            digest.digest(dst, dstOffset, Sha256Hash.LENGTH);
+            digest.update(dst, dstOffset, Sha256Hash.LENGTH);
+            digest.digest(dst, dstOffset, Sha256Hash.LENGTH);
+        } catch (DigestException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+    }
+
+    /**
+     * Number of nodes at the given level of a tree with the given number of
+     * leaves.
+     */
+    static int getTreeWidth(final int leafCount, final int level) {
+        return (leafCount + (1 << level) - 1) >> level;
+    }
+
+    /**
+     * Number of levels above the leaves in a tree with the given number of
+     * leaves.
+     */
+    static int getTreeHeight(final int leafCount) {
+        int height = 0;
+        while (getTreeWidth(leafCount, height) > 1)
+            height++;
+        return height;
+    }
+
+    int getLeafCount() {
+        return leafCount;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    int getWidth(final int level) {
+        return getTreeWidth(leafCount, level);
+    }
+
+    /**
+     * Total number of nodes in the tree, across all levels.
+     */
+    int getNodeCount() {
+        return hashes.length / Sha256Hash.LENGTH;
+    }
+
+    /**
+     * Index of the given node, counting levels from the leaves up.
+     */
+    int indexOf(final int level, final int pos) {
+        return levelStarts[level] + pos;
+    }
+
+    /**
+     * Offset within {@link #getHashBytes()} of the hash of the given node.
+     */
+    int offsetOf(final int level, final int pos) {
+        return indexOf(level, pos) * Sha256Hash.LENGTH;
+    }
+
+    /**
+     * Get the hash of the given node.
+     */
+    Sha256Hash getHash(final int level, final int pos) {
+        final int offset = offsetOf(level, pos);
+        final byte[] hash = new byte[Sha256Hash.LENGTH];
+        for (int byteIdx = 0; byteIdx < Sha256Hash.LENGTH; byteIdx++) {
+            hash[byteIdx] = hashes[offset + Sha256Hash.LENGTH - 1 - byteIdx];
+        }
+        return Sha256Hash.wrap(hash);
+    }
+
+    Sha256Hash getRoot() {
+        return getHash(height, 0);
+    }
+
+    /**
+     * Get the flat array of node hashes, little-endian. This is not a copy.
+     */
+    byte[] getHashBytes() {
+        return hashes;
+    }
+
+    private static class LevelTask extends RecursiveAction {
+        private final SuperblockMerkleLevels levels;
+        private final int level;
+        private final int from;
+        private final int to;
+
+        private LevelTask(final SuperblockMerkleLevels levels, final int level, final int from, final int to) {
+            this.levels = levels;
+            this.level = level;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SPLIT_THRESHOLD) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new LevelTask(levels, level, from, middle), new LevelTask(levels, level, middle, to));
+            } else {
+                levels.hashLevel(Sha256Hash.newDigest(), level, from, to);
+            }
+        }
+    }
+}
@@ -20,14 +20,21 @@ package org.bitcoinj.core;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.math.BigInteger;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.bitcoinj.core.Utils.*;
 import com.google.common.base.Objects;
 
+import javax.annotation.Nullable;
+
 /**
  * <p>A data structure that contains proofs of block inclusion for one or more transactions, in an efficient manner.</p>
  *
@@ -68,6 +75,10 @@ public class SuperblockPartialMerkleTree extends Message {
     // txids and internal hashes
     private List<Sha256Hash> hashes;
 
+    // Built when a transaction index or path is first asked for. No initialiser, as parsing happens before
+    // initialisers run.
+    @Nullable private transient volatile NodeIndex nodeIndex;
+
     public SuperblockPartialMerkleTree(NetworkParameters params, byte[] payloadBytes, int offset) throws ProtocolException {
         super(params, payloadBytes, offset);
     }
@@ -88,18 +99,136 @@ public class SuperblockPartialMerkleTree extends Message {
      * are calculated and a new PMT returned.
      */
     public static SuperblockPartialMerkleTree buildFromLeaves(NetworkParameters params, byte[] includeBits, List<Sha256Hash> allLeafHashes) {
-        // Calculate height of the tree.
-        int height = 0;
-        while (getTreeWidth(allLeafHashes.size(), height) > 1)
-            height++;
-        List<Boolean> bitList = new ArrayList<Boolean>();
-        List<Sha256Hash> hashes = new ArrayList<Sha256Hash>();
-        traverseAndBuild(height, 0, allLeafHashes, includeBits, bitList, hashes);
-        byte[] bits = new byte[(int)Math.ceil(bitList.size() / 8.0)];
-        for (int i = 0; i < bitList.size(); i++)
-            if (bitList.get(i))
-                Utils.setBitLE(bits, i);
-        return new SuperblockPartialMerkleTree(params, bits, hashes, allLeafHashes.size());
+        return buildFromLevels(params, includeBits, SuperblockMerkleLevels.build(allLeafHashes));
+    }
+
+    /**
+     * As {@link #buildFromLeaves(NetworkParameters, byte[], List)}, but hashes each level of a large tree in parallel
+     * on the given pool. The result is identical to building sequentially.
+     */
+    public static SuperblockPartialMerkleTree buildFromLeaves(NetworkParameters params, byte[] includeBits,
+                                                              List<Sha256Hash> allLeafHashes, ForkJoinPool pool) {
+        return buildFromLevels(params, includeBits, SuperblockMerkleLevels.build(allLeafHashes, pool));
+    }
+
+    /**
+     * Calculates the merkle root of the given leaf hashes.
+     */
+    public static Sha256Hash calculateMerkleRoot(List<Sha256Hash> allLeafHashes) {
+        return SuperblockMerkleLevels.build(allLeafHashes).getRoot();
+    }
+
+    /**
+     * Calculates the merkle root of the given leaf hashes, hashing each level of a large tree in parallel on the given
+     * pool. The root is identical to calculating it sequentially.
+     */
+    public static Sha256Hash calculateMerkleRoot(List<Sha256Hash> allLeafHashes, ForkJoinPool pool) {
+        return SuperblockMerkleLevels.build(allLeafHashes, pool).getRoot();
+    }
+
+    // Based on CPartialMerkleTree::TraverseAndBuild in Bitcoin Core, but walks the tree with an explicit stack, and
+    // reads interior hashes from the levels calculated up front rather than recalculating each subtree.
+    static SuperblockPartialMerkleTree buildFromLevels(NetworkParameters params, byte[] includeBits,
+                                                      SuperblockMerkleLevels levels) {
+        final int height = levels.getHeight();
+
+        // Mark every node which is the parent of at least one matched leaf (or is a matched leaf itself).
+        final BitSet parentOfMatch = new BitSet(levels.getNodeCount());
+        for (int p = 0; p < levels.getLeafCount(); p++) {
+            if (Utils.checkBitLE(includeBits, p))
+                parentOfMatch.set(levels.indexOf(0, p));
+        }
+        for (int level = 1; level <= height; level++) {
+            final int childWidth = levels.getWidth(level - 1);
+            for (int p = 0; p < levels.getWidth(level); p++) {
+                if (parentOfMatch.get(levels.indexOf(level - 1, p * 2))
+                        || (p * 2 + 1 < childWidth && parentOfMatch.get(levels.indexOf(level - 1, p * 2 + 1))))
+                    parentOfMatch.set(levels.indexOf(level, p));
+            }
+        }
+
+        // Depth-first traversal, storing a bit for each node visited, and a hash for each node not descended into.
+        final byte[] bits = new byte[(levels.getNodeCount() + 7) / 8];
+        int bitsUsed = 0;
+        final List<Sha256Hash> hashes = new ArrayList<Sha256Hash>();
+        final int[] stackLevels = new int[height + 2];
+        final int[] stackPositions = new int[height + 2];
+        int stackSize = 0;
+        stackLevels[stackSize] = height;
+        stackPositions[stackSize++] = 0;
+        while (stackSize > 0) {
+            final int level = stackLevels[--stackSize];
+            final int pos = stackPositions[stackSize];
+            final boolean match = parentOfMatch.get(levels.indexOf(level, pos));
+            if (match)
+                Utils.setBitLE(bits, bitsUsed);
+            bitsUsed++;
+            if (level == 0 || !match) {
+                // If at height 0, or nothing interesting below, store hash and stop.
+                hashes.add(levels.getHash(level, pos));
+            } else {
+                // Otherwise descend into the subtrees, pushing the right first so the left is visited first.
+                if (pos * 2 + 1 < levels.getWidth(level - 1)) {
+                    stackLevels[stackSize] = level - 1;
+                    stackPositions[stackSize++] = pos * 2 + 1;
+                }
+                stackLevels[stackSize] = level - 1;
+                stackPositions[stackSize++] = pos * 2;
+            }
+        }
+        return new SuperblockPartialMerkleTree(params, Arrays.copyOf(bits, (bitsUsed + 7) / 8), hashes,
+                levels.getLeafCount());
+    }
+
+    /**
+     * Builds inclusion proofs for many transactions in the same tree. The tree is calculated once, and inner nodes
+     * shared between proofs are only hashed once. Each proof holds the same index and path as
+     * {@link #getTransactionIndex(Sha256Hash)} and {@link #getTransactionPath(Sha256Hash)} return for a tree including
+     * that transaction.
+     *
+     * @param allLeafHashes all transaction hashes in the tree, in order.
+     * @param txHashes the transactions to prove.
+     * @return a proof for each requested transaction, in the order requested.
+     * @throws VerificationException if a requested transaction is not in the tree.
+     */
+    public static List<TransactionProof> buildTransactionProofs(List<Sha256Hash> allLeafHashes,
+                                                                List<Sha256Hash> txHashes) throws VerificationException {
+        final SuperblockMerkleLevels levels = SuperblockMerkleLevels.build(allLeafHashes);
+        // Where a hash appears more than once, the first occurrence is the one proved, as with getTransactionIndex
+        final Map<Sha256Hash, Integer> leafIndices = new HashMap<Sha256Hash, Integer>(txHashes.size() * 2);
+        for (Sha256Hash txHash : txHashes) {
+            leafIndices.put(txHash, -1);
+        }
+        for (int leafIdx = 0; leafIdx < allLeafHashes.size(); leafIdx++) {
+            final Integer existing = leafIndices.get(allLeafHashes.get(leafIdx));
+            if (existing != null && existing < 0) {
+                leafIndices.put(allLeafHashes.get(leafIdx), leafIdx);
+            }
+        }
+
+        // Nodes near the root appear in many paths, so share the hash objects between proofs
+        final Sha256Hash[] nodeHashes = new Sha256Hash[levels.getNodeCount()];
+        final List<TransactionProof> proofs = new ArrayList<TransactionProof>(txHashes.size());
+        for (Sha256Hash txHash : txHashes) {
+            final int leafIdx = leafIndices.get(txHash);
+            if (leafIdx < 0) {
+                throw new VerificationException("Supplied tx hash is not in this tree: " + txHash);
+            }
+            final Sha256Hash[] path = new Sha256Hash[levels.getHeight()];
+            int pos = leafIdx;
+            for (int level = 0; level < levels.getHeight(); level++) {
+                // Where there is no right sibling, the node is paired with itself
+                final int sibling = (pos ^ 1) < levels.getWidth(level) ? pos ^ 1 : pos;
+                final int nodeIdx = levels.indexOf(level, sibling);
+                if (nodeHashes[nodeIdx] == null) {
+                    nodeHashes[nodeIdx] = levels.getHash(level, sibling);
+                }
+                path[level] = nodeHashes[nodeIdx];
+                pos >>= 1;
+            }
+            proofs.add(new TransactionProof(txHash, leafIdx, Arrays.asList(path)));
+        }
+        return proofs;
     }
 
     @Override
@@ -129,94 +258,19 @@ public class SuperblockPartialMerkleTree extends Message {
         length = cursor - offset;
     }
 
-    // Based on CPartialMerkleTree::TraverseAndBuild in Bitcoin Core.
-    private static void traverseAndBuild(int height, int pos, List<Sha256Hash> allLeafHashes, byte[] includeBits,
-                                         List<Boolean> matchedChildBits, List<Sha256Hash> resultHashes) {
-        boolean parentOfMatch = false;
-        // Is this node a parent of at least one matched hash?
-        for (int p = pos << height; p < (pos+1) << height && p < allLeafHashes.size(); p++) {
-            if (Utils.checkBitLE(includeBits, p)) {
-                parentOfMatch = true;
-                break;
-            }
-        }
-        // Store as a flag bit.
-        matchedChildBits.add(parentOfMatch);
-        if (height == 0 || !parentOfMatch) {
-            // If at height 0, or nothing interesting below, store hash and stop.
-            resultHashes.add(calcHash(height, pos, allLeafHashes));
-        } else {
-            // Otherwise descend into the subtrees.
-            int h = height - 1;
-            int p = pos * 2;
-            traverseAndBuild(h, p, allLeafHashes, includeBits, matchedChildBits, resultHashes);
-            if (p + 1 < getTreeWidth(allLeafHashes.size(), h))
-                traverseAndBuild(h, p + 1, allLeafHashes, includeBits, matchedChildBits, resultHashes);
-        }
-    }
-
-    private static Sha256Hash calcHash(int height, int pos, List<Sha256Hash> hashes) {
-        if (height == 0) {
-            // Hash at height 0 is just the regular tx hash itself.
-            return hashes.get(pos);
-        }
-        int h = height - 1;
-        int p = pos * 2;
-        Sha256Hash left = calcHash(h, p, hashes);
-        // Calculate right hash if not beyond the end of the array - copy left hash otherwise.
-        Sha256Hash right;
-        if (p + 1 < getTreeWidth(hashes.size(), h)) {
-            right = calcHash(h, p + 1, hashes);
-        } else {
-            right = left;
-        }
-        return combineLeftRight(left.getBytes(), right.getBytes());
-    }
-
     // helper function to efficiently calculate the number of nodes at given height in the merkle tree
     private static int getTreeWidth(int transactionCount, int height) {
-        return (transactionCount + (1 << height) - 1) >> height;
-    }
-
-    private static class ValuesUsed {
-        public int bitsUsed = 0, hashesUsed = 0;
-    }
-
-    // recursive function that traverses tree nodes, consuming the bits and hashes produced by TraverseAndBuild.
-    // it returns the hash of the respective node.
-    private Sha256Hash recursiveExtractHashes(int height, int pos, ValuesUsed used, List<Sha256Hash> matchedHashes) throws VerificationException {
-        if (used.bitsUsed >= matchedChildBits.length*8) {
-            // overflowed the bits array - failure
-            throw new VerificationException("PartialMerkleTree overflowed its bits array");
-        }
-        boolean parentOfMatch = checkBitLE(matchedChildBits, used.bitsUsed++);
-        if (height == 0 || !parentOfMatch) {
-            // if at height 0, or nothing interesting below, use stored hash and do not descend
-            if (used.hashesUsed >= hashes.size()) {
-                // overflowed the hash array - failure
-                throw new VerificationException("PartialMerkleTree overflowed its hash array");
-            }
-            Sha256Hash hash = hashes.get(used.hashesUsed++);
-            if (height == 0 && parentOfMatch) // in case of height 0, we have a matched txid
-                matchedHashes.add(hash);
-            return hash;
-        } else {
-            // otherwise, descend into the subtrees to extract matched txids and hashes
-            byte[] left = recursiveExtractHashes(height - 1, pos * 2, used, matchedHashes).getBytes(), right;
-            if (pos * 2 + 1 < getTreeWidth(transactionCount, height-1)) {
-                right = recursiveExtractHashes(height - 1, pos * 2 + 1, used, matchedHashes).getBytes();
-                if (Arrays.equals(right, left))
-                    throw new VerificationException("Invalid merkle tree with duplicated left/right branches");
-            } else {
-                right = left;
-            }
-            // and combine them before returning
-            return combineLeftRight(left, right);
-        }
+        return SuperblockMerkleLevels.getTreeWidth(transactionCount, height);
     }
 
     public static Sha256Hash combineLeftRight(byte[] left, byte[] right) {
-        return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(reverseBytes(left), reverseBytes(right)));
+        // Hashes are combined in little-endian order, so reverse both into a single buffer
+        final byte[] pair = new byte[Sha256Hash.LENGTH * 2];
+        for (int byteIdx = 0; byteIdx < Sha256Hash.LENGTH; byteIdx++) {
+            pair[byteIdx] = left[Sha256Hash.LENGTH - 1 - byteIdx];
+            pair[Sha256Hash.LENGTH + byteIdx] = right[Sha256Hash.LENGTH - 1 - byteIdx];
+        }
+        return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(pair));
     }
 
     /**
@@ -246,19 +300,92 @@ public class SuperblockPartialMerkleTree extends Message {
         if (matchedChildBits.length*8 < hashes.size())
             throw new VerificationException("Got a CPartialMerkleTree with fewer matched bits than hashes");
         // calculate height of tree
-        int height = 0;
-        while (getTreeWidth(transactionCount, height) > 1)
-            height++;
-        // traverse the partial tree
-        ValuesUsed used = new ValuesUsed();
-        Sha256Hash merkleRoot = recursiveExtractHashes(height, 0, used, matchedHashesOut);
+        final int height = SuperblockMerkleLevels.getTreeHeight(transactionCount);
+
+        // Traverse the partial tree depth-first, consuming the bits and hashes produced by buildFromLevels. Each
+        // node on the stack records how many of its children have been hashed so far, and the hashes of finished
+        // children wait on a value stack (little-endian) until their parent combines them.
+        final MessageDigest digest = Sha256Hash.newDigest();
+        final int[] stackLevels = new int[height + 1];
+        final int[] stackPositions = new int[height + 1];
+        final int[] stackChildrenDone = new int[height + 1];
+        final byte[] values = new byte[(height + 2) * Sha256Hash.LENGTH];
+        int stackSize = 0;
+        int valuesSize = 0;
+        int bitsUsed = 0;
+        int hashesUsed = 0;
+        stackLevels[stackSize] = height;
+        stackPositions[stackSize] = 0;
+        stackChildrenDone[stackSize++] = -1;
+        while (stackSize > 0) {
+            final int top = stackSize - 1;
+            final int level = stackLevels[top];
+            final int pos = stackPositions[top];
+            if (stackChildrenDone[top] < 0) {
+                if (bitsUsed >= matchedChildBits.length*8) {
+                    // overflowed the bits array - failure
+                    throw new VerificationException("PartialMerkleTree overflowed its bits array");
+                }
+                boolean parentOfMatch = checkBitLE(matchedChildBits, bitsUsed++);
+                if (level == 0 || !parentOfMatch) {
+                    // if at height 0, or nothing interesting below, use stored hash and do not descend
+                    if (hashesUsed >= hashes.size()) {
+                        // overflowed the hash array - failure
+                        throw new VerificationException("PartialMerkleTree overflowed its hash array");
+                    }
+                    final Sha256Hash hash = hashes.get(hashesUsed++);
+                    if (level == 0 && parentOfMatch) // in case of height 0, we have a matched txid
+                        matchedHashesOut.add(hash);
+                    final byte[] hashBytes = hash.getBytes();
+                    for (int byteIdx = 0; byteIdx < Sha256Hash.LENGTH; byteIdx++) {
+                        values[valuesSize * Sha256Hash.LENGTH + byteIdx] = hashBytes[Sha256Hash.LENGTH - 1 - byteIdx];
+                    }
+                    valuesSize++;
+                    stackSize--;
+                } else {
+                    // otherwise, descend into the left subtree
+                    stackChildrenDone[top] = 0;
+                    stackLevels[stackSize] = level - 1;
+                    stackPositions[stackSize] = pos * 2;
+                    stackChildrenDone[stackSize++] = -1;
+                }
+            } else if (stackChildrenDone[top] == 0 && pos * 2 + 1 < getTreeWidth(transactionCount, level - 1)) {
+                // left subtree is done, and the right subtree has real content
+                stackChildrenDone[top] = 1;
+                stackLevels[stackSize] = level - 1;
+                stackPositions[stackSize] = pos * 2 + 1;
+                stackChildrenDone[stackSize++] = -1;
+            } else {
+                // and combine them before returning
+                final int right = (valuesSize - 1) * Sha256Hash.LENGTH;
+                final int left;
+                if (stackChildrenDone[top] == 1) {
+                    left = right - Sha256Hash.LENGTH;
+                    if (rangeEquals(values, left, right))
+                        throw new VerificationException("Invalid merkle tree with duplicated left/right branches");
+                    valuesSize--;
+                } else {
+                    left = right;
+                }
+                SuperblockMerkleLevels.hashPair(digest, values, left, right, values, left);
+                stackSize--;
+            }
+        }
         // verify that all bits were consumed (except for the padding caused by serializing it as a byte sequence)
-        if ((used.bitsUsed+7)/8 != matchedChildBits.length ||
+        if ((bitsUsed+7)/8 != matchedChildBits.length ||
                 // verify that all hashes were consumed
-                used.hashesUsed != hashes.size())
+                hashesUsed != hashes.size())
             throw new VerificationException("Got a CPartialMerkleTree that didn't need all the data it provided");
 
-        return merkleRoot;
+        return Sha256Hash.wrapReversed(Arrays.copyOf(values, Sha256Hash.LENGTH));
+    }
+
+    private static boolean rangeEquals(byte[] bytes, int firstOffset, int secondOffset) {
+        for (int byteIdx = 0; byteIdx < Sha256Hash.LENGTH; byteIdx++) {
+            if (bytes[firstOffset + byteIdx] != bytes[secondOffset + byteIdx])
+                return false;
+        }
+        return true;
     }
 
     public int getTransactionCount() {
@@ -289,163 +416,230 @@ public class SuperblockPartialMerkleTree extends Message {
     }
     /**
      * Returns the position of a tx within a block
+     *
+     * @throws VerificationException if the tx is not a matched leaf of the tree, or the tree is malformed anywhere,
+     * even after the tx.
      */
     public int getTransactionIndex(Sha256Hash txHash) {
-        if (!hashes.contains(txHash)) {
-            throw new VerificationException("Supplied tx hash is not in this tree: " + txHash);
-        }
-        // calculate height of tree
-        int height = 0;
-        while (getTreeWidth(transactionCount, height) > 1)
-            height++;
-        // traverse the partial tree
-        ValuesUsed used = new ValuesUsed();
-        GetTransactionIndexResult result = new GetTransactionIndexResult();
-        recursiveGetTransactionIndex(height, 0, used, txHash, result);
-        if (!result.found) {
-            throw new VerificationException("Could not find tx");
-        }
-        return result.counter;
+        final NodeIndex index = getNodeIndex();
+        return index.positions[index.findMatchedLeaf(txHash)];
     }
 
-    private void recursiveGetTransactionIndex(int height, int pos, ValuesUsed used, Sha256Hash txHash, GetTransactionIndexResult result) throws VerificationException {
-        if (result.found) return;
-        if (used.bitsUsed >= matchedChildBits.length*8) {
-            // overflowed the bits array - failure
-            throw new VerificationException("PartialMerkleTree overflowed its bits array");
-        }
-        boolean parentOfMatch = checkBitLE(matchedChildBits, used.bitsUsed++);
-        if (height == 0 || !parentOfMatch) {
-            // if at height 0, or nothing interesting below, use stored hash and do not descend
-            if (used.hashesUsed >= hashes.size()) {
-                // overflowed the hash array - failure
-                throw new VerificationException("PartialMerkleTree overflowed its hash array");
-            }
-            Sha256Hash hash = hashes.get(used.hashesUsed++);
-            if (hash.equals(txHash))
-                // We found the tx we were looking for
-                if (parentOfMatch)
-                    // no need to increase counter
-                    result.found = true;
-                else
-                    // We found the tx hash but it is included in the tree just to be able to calculate the proof of another tx.
-                    throw new VerificationException("Could not find tx");
-            else if (height == 0)
-                // in case of height 0, we have a txid (matched or not)
-                // This is another tx that is before the tx we are looking for
-                result.counter++;
-            else
-                // !parentOfMatch is true
-                // We found an incomplete branch, calculate how many leaves the full tree has bellow this node.
-                result.counter += BigInteger.valueOf(2).pow(height).intValue();
-        } else {
-            // otherwise, descend into the subtrees to extract matched txids and hashes
-            recursiveGetTransactionIndex(height - 1, pos * 2, used, txHash, result);
-            if (pos * 2 + 1 < getTreeWidth(transactionCount, height-1)) {
-                // right tree has real content
-                recursiveGetTransactionIndex(height - 1, pos * 2 + 1, used, txHash, result);
+    /**
+     * Get the path of sibling nodes from the supplied tx to the root (tree root not included)
+     *
+     * @throws VerificationException if the tx is not a matched leaf of the tree, or the tree is malformed.
+     */
+    public List<Sha256Hash> getTransactionPath(Sha256Hash txHash) {
+        final NodeIndex index = getNodeIndex();
+        int node = index.findMatchedLeaf(txHash);
+        final List<Sha256Hash> path = new ArrayList<Sha256Hash>();
+        while (index.parents[node] >= 0) {
+            final int parent = index.parents[node];
+            final int sibling;
+            if (node == parent + 1) {
+                // Left child; where there is no right child the node is paired with itself
+                sibling = index.rightChildren[parent] >= 0 ? index.rightChildren[parent] : node;
+            } else {
+                sibling = parent + 1;
             }
+            path.add(index.getHash(sibling));
+            node = parent;
         }
+        return path;
     }
 
-    private static class GetTransactionIndexResult {
-        public int counter = 0;
-        public boolean found = false;
-    }
-
-
     /**
-     * Get the path of sibling nodes from the supplied tx to the root (tree root not included)
+     * Get the index of this tree's nodes, building it the first time it is needed.
      */
-    public List<Sha256Hash> getTransactionPath(Sha256Hash txHash) {
-        if (!hashes.contains(txHash)) {
-            throw new VerificationException("Supplied tx hash is not in this tree: " + txHash);
-        }
-        // calculate height of tree
-        int height = 0;
-        while (getTreeWidth(transactionCount, height) > 1)
-            height++;
-        ValuesUsed used = new ValuesUsed();
-        List<Sha256Hash> matchedHashes = new ArrayList<Sha256Hash>();
-        GetTransactionPathResult result = recursiveGetTransactionPath(height, 0, used, txHash, matchedHashes);
-        if (!result.found) {
-            throw new VerificationException("Could not find tx");
+    private NodeIndex getNodeIndex() throws VerificationException {
+        NodeIndex index = this.nodeIndex;
+        if (index == null) {
+            index = new NodeIndex(matchedChildBits, hashes, transactionCount);
+            this.nodeIndex = index;
         }
-        return matchedHashes;
-
+        return index;
     }
 
-    /*
-     * Traverse the tree recursively and add hashes to matchedHashes as we find hashes that are part of the path.
-     * GetTransactionPathResult.found is true when the node being evaluated is txHash or txHash is bellow this node. False otherwise.
-     * GetTransactionPathResult.hash is the hash of the node being evaluated.
+    /**
+     * <p>The nodes of a partial tree, found by a single depth-first traversal consuming the bits and hashes, so that
+     * transaction index and path queries each only need to walk from a leaf to the root.</p>
+     *
+     * <p>Nodes are numbered in the order visited, so the left child of a node is always the next node. Node hashes are
+     * held in a flat array, little-endian.</p>
      */
-    private GetTransactionPathResult recursiveGetTransactionPath(int height, int pos, ValuesUsed used, Sha256Hash txHash, List<Sha256Hash> matchedHashes) throws VerificationException {
-        GetTransactionPathResult result = new GetTransactionPathResult();
-        if (used.bitsUsed >= matchedChildBits.length*8) {
-            // overflowed the bits array - failure
-            throw new VerificationException("PartialMerkleTree overflowed its bits array");
-        }
-        boolean parentOfMatch = checkBitLE(matchedChildBits, used.bitsUsed++);
-        if (height == 0 || !parentOfMatch) {
-            // if at height 0, or nothing interesting below, use stored hash and do not descend
-            if (used.hashesUsed >= hashes.size()) {
-                // overflowed the hash array - failure
-                throw new VerificationException("PartialMerkleTree overflowed its hash array");
-            }
-            Sha256Hash hash = hashes.get(used.hashesUsed++);
-            if (hash.equals(txHash)) {
-                // We found txHash
-                if (parentOfMatch) {
-                    result.found = true;
-                    result.hash = hash;
-                    return result;
+    private static final class NodeIndex {
+        private final int[] positions;
+        private final int[] parents;
+        /** Right child of each node, or -1 if it has none. */
+        private final int[] rightChildren;
+        private final byte[] nodeHashes;
+        /** Set for each matched leaf. */
+        private final BitSet matchedLeaves;
+        /** The first node each stored hash was found at. */
+        private final Map<Sha256Hash, Integer> firstNodes;
+
+        private NodeIndex(byte[] matchedChildBits, List<Sha256Hash> hashes, int transactionCount)
+                throws VerificationException {
+            final int height = SuperblockMerkleLevels.getTreeHeight(transactionCount);
+            // Every node uses a bit, so there can't be more nodes than bits. Allow one more, for the node which
+            // finds the bits have run out.
+            final int maxNodes = matchedChildBits.length * 8 + 1;
+            final int[] levels = new int[maxNodes];
+            positions = new int[maxNodes];
+            parents = new int[maxNodes];
+            rightChildren = new int[maxNodes];
+            nodeHashes = new byte[maxNodes * Sha256Hash.LENGTH];
+            matchedLeaves = new BitSet(maxNodes);
+            firstNodes = new HashMap<Sha256Hash, Integer>(hashes.size() * 2);
+
+            final MessageDigest digest = Sha256Hash.newDigest();
+            final int[] stack = new int[height + 1];
+            final int[] stackChildrenDone = new int[height + 1];
+            int stackSize = 0;
+            int nodeCount = 0;
+            int bitsUsed = 0;
+            int hashesUsed = 0;
+            levels[nodeCount] = height;
+            parents[nodeCount] = -1;
+            stack[stackSize] = nodeCount++;
+            stackChildrenDone[stackSize++] = -1;
+            while (stackSize > 0) {
+                final int top = stackSize - 1;
+                final int node = stack[top];
+                final int level = levels[node];
+                if (stackChildrenDone[top] < 0) {
+                    rightChildren[node] = -1;
+                    if (bitsUsed >= matchedChildBits.length*8) {
+                        // overflowed the bits array - failure
+                        throw new VerificationException("PartialMerkleTree overflowed its bits array");
+                    }
+                    boolean parentOfMatch = checkBitLE(matchedChildBits, bitsUsed++);
+                    if (level == 0 || !parentOfMatch) {
+                        // if at height 0, or nothing interesting below, use stored hash and do not descend
+                        if (hashesUsed >= hashes.size()) {
+                            // overflowed the hash array - failure
+                            throw new VerificationException("PartialMerkleTree overflowed its hash array");
+                        }
+                        final Sha256Hash hash = hashes.get(hashesUsed++);
+                        if (!firstNodes.containsKey(hash))
+                            firstNodes.put(hash, node);
+                        if (level == 0 && parentOfMatch)
+                            matchedLeaves.set(node);
+                        final byte[] hashBytes = hash.getBytes();
+                        for (int byteIdx = 0; byteIdx < Sha256Hash.LENGTH; byteIdx++) {
+                            nodeHashes[node * Sha256Hash.LENGTH + byteIdx] = hashBytes[Sha256Hash.LENGTH - 1 - byteIdx];
+                        }
+                        stackSize--;
+                    } else {
+                        // otherwise, descend into the left subtree
+                        stackChildrenDone[top] = 0;
+                        stack[stackSize] = addChild(levels, node, nodeCount++, positions[node] * 2);
+                        stackChildrenDone[stackSize++] = -1;
+                    }
+                } else if (stackChildrenDone[top] == 0
+                        && positions[node] * 2 + 1 < getTreeWidth(transactionCount, level - 1)) {
+                    // left subtree is done, and the right subtree has real content
+                    stackChildrenDone[top] = 1;
+                    rightChildren[node] = addChild(levels, node, nodeCount++, positions[node] * 2 + 1);
+                    stack[stackSize] = rightChildren[node];
+                    stackChildrenDone[stackSize++] = -1;
                 } else {
-                    // We found the tx hash but it is included in the tree just to be able to calculate the proof of another tx.
-                    throw new VerificationException("Could not find tx");
+                    final int left = node + 1;
+                    final int right = rightChildren[node] >= 0 ? rightChildren[node] : left;
+                    SuperblockMerkleLevels.hashPair(digest, nodeHashes, left * Sha256Hash.LENGTH,
+                            right * Sha256Hash.LENGTH, nodeHashes, node * Sha256Hash.LENGTH);
+                    stackSize--;
                 }
-            } else if (height == 0) {
-                // This is a tx, but is not txHash
-                result.hash = hash;
-                return result;
-            } else {
-                // !parentOfMatch is true
-                // We found an incomplete branch
-                result.hash = hash;
-                return result;
             }
-        } else {
-            // otherwise, descend into the subtrees to extract matched txids and hashes
-            GetTransactionPathResult left = recursiveGetTransactionPath(height - 1, pos * 2, used, txHash, matchedHashes);
-            GetTransactionPathResult right;
-            if (pos * 2 + 1 < getTreeWidth(transactionCount, height-1)) {
-                // right tree has real content
-                right = recursiveGetTransactionPath(height - 1, pos * 2 + 1, used, txHash, matchedHashes);
-            } else {
-                right = new GetTransactionPathResult();
-                // don't copy left.found
-                right.hash = left.hash;
+        }
+
+        private int addChild(int[] levels, int parent, int child, int pos) {
+            levels[child] = levels[parent] - 1;
+            positions[child] = pos;
+            parents[child] = parent;
+            return child;
+        }
+
+        /**
+         * Find the leaf node for the given transaction.
+         *
+         * @throws VerificationException if the transaction is not a matched leaf of the tree.
+         */
+        private int findMatchedLeaf(Sha256Hash txHash) throws VerificationException {
+            final Integer node = firstNodes.get(txHash);
+            if (node == null) {
+                throw new VerificationException("Supplied tx hash is not in this tree: " + txHash);
             }
-            Sha256Hash thisNode = combineLeftRight(left.hash.getBytes(), right.hash.getBytes());
-            result.hash = thisNode;
-            if (left.found || right.found) {
-                // txHash is bellow this node, add to matchedHashes the "opposite" hash.
-                result.found = true;
-                if (left.found) {
-                    matchedHashes.add(right.hash);
-                } else {
-                    matchedHashes.add(left.hash);
-                }
-                return result;
-            } else {
-                // txHash is not bellow this node, nothing to add to matchedHashes.
-                return result;
+            if (!matchedLeaves.get(node)) {
+                // We found the tx hash but it is included in the tree just to be able to calculate the proof of another tx.
+                throw new VerificationException("Could not find tx");
             }
+            return node;
+        }
+
+        private Sha256Hash getHash(int node) {
+            final byte[] hash = new byte[Sha256Hash.LENGTH];
+            for (int byteIdx = 0; byteIdx < Sha256Hash.LENGTH; byteIdx++) {
+                hash[byteIdx] = nodeHashes[node * Sha256Hash.LENGTH + Sha256Hash.LENGTH - 1 - byteIdx];
+            }
+            return Sha256Hash.wrap(hash);
         }
     }
 
-    private static class GetTransactionPathResult {
-        public Sha256Hash hash;
-        public boolean found = false;
+    /**
+     * Proof that a transaction is included in a tree: its position amongst the leaves, and the sibling hashes from
+     * the transaction up to (but not including) the root.
+     */
+    public static class TransactionProof {
+        private final Sha256Hash txHash;
+        private final int index;
+        private final List<Sha256Hash> path;
+
+        public TransactionProof(Sha256Hash txHash, int index, List<Sha256Hash> path) {
+            this.txHash = txHash;
+            this.index = index;
+            this.path = Collections.unmodifiableList(path);
+        }
+
+        public Sha256Hash getTxHash() {
+            return txHash;
+        }
+
+        /**
+         * Returns the position of the transaction within the block.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns the sibling hashes from the transaction to the root, tree root not included.
+         */
+        public List<Sha256Hash> getPath() {
+            return path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            TransactionProof other = (TransactionProof) o;
+            return index == other.index && txHash.equals(other.txHash) && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(txHash, index, path);
+        }
+
+        @Override
+        public String toString() {
+            return "TransactionProof{" +
+                    "txHash=" + txHash +
+                    ", index=" + index +
+                    ", path=" + path +
+                    '}';
+        }
     }
 }
@@ -31,6 +31,16 @@ public interface AltcoinNetworkParameters {
      */
     Sha256Hash getBlockDifficultyHash(Block block);
 
+    /**
+     * Get the hash for the block header serialized at the given offset, for
+     * comparing against target difficulty, without building a block. This
+     * must agree with {@link #getBlockDifficultyHash(Block)}.
+     *
+     * @param header Bitcoin protocol formatted byte array containing the header.
+     * @param offset The location of the header within the array.
+     */
+    Sha256Hash getBlockDifficultyHash(byte[] header, int offset);
+
     public boolean isTestNet();
 
     /**
@@ -19,8 +19,11 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.bitcoinj.core.Utils.HEX;
 
@@ -29,11 +32,59 @@ import static org.bitcoinj.core.Utils.HEX;
  */
 public class AltcoinSerializer extends BitcoinSerializer {
     private static final Logger log = LoggerFactory.getLogger(AltcoinSerializer.class);
+
+    /**
+     * Per-thread digest and result buffer for verifying checksums, so that
+     * verifying a message's checksum does not allocate.
+     */
+    private static final ThreadLocal<ChecksumHasher> checksumHasher = new ThreadLocal<ChecksumHasher>() {
+        @Override
+        protected ChecksumHasher initialValue() {
+            return new ChecksumHasher();
+        }
+    };
+
+    private final boolean slicePayloads;
+    private final boolean verifyChecksums;
+
     public AltcoinSerializer(NetworkParameters params, boolean parseRetain) {
+        this(params, parseRetain, false);
+    }
+
+    /**
+     * @param params networks parameters to use when building messages.
+     * @param parseRetain whether messages retain their payload after parsing.
+     * @param slicePayloads if true, blocks, transactions and filtered blocks read
+     * from an array backed buffer are parsed in place from the buffer's array,
+     * rather than from a copy of the payload. Messages may then hold a reference
+     * to that array, so the caller must not reuse it. bitcoinj's connection
+     * handlers read messages too large for the network buffer into a new array,
+     * so this avoids copying large blocks a second time.
+     */
+    public AltcoinSerializer(NetworkParameters params, boolean parseRetain, boolean slicePayloads) {
+        this(params, parseRetain, slicePayloads, true);
+    }
+
+    /**
+     * @param params networks parameters to use when building messages.
+     * @param parseRetain whether messages retain their payload after parsing.
+     * @param slicePayloads whether to parse large payloads in place, see
+     * {@link #AltcoinSerializer(NetworkParameters, boolean, boolean)}.
+     * @param verifyChecksums whether to verify the checksum of each message. This
+     * should only be disabled where the transport already guarantees integrity
+     * and the peer is trusted, such as a connection to a local full node.
+     * Network parameters used for such a connection can override
+     * {@code getSerializer()} to return a serializer with verification disabled.
+     */
+    public AltcoinSerializer(NetworkParameters params, boolean parseRetain, boolean slicePayloads,
+                             boolean verifyChecksums) {
         super(params, parseRetain);
+        this.slicePayloads = slicePayloads;
+        this.verifyChecksums = verifyChecksums;
     }
 
-    private static final Map<Class<? extends Message>, String> names = new HashMap<Class<? extends Message>, String>();
+    private static final Map<Class<? extends Message>, String> names = new ConcurrentHashMap<Class<? extends Message>, String>();
+    private static final MessageFactoryRegistry MESSAGE_FACTORIES = new MessageFactoryRegistry();
 
     static {
         names.put(VersionMessage.class, "version");
@@ -72,6 +123,245 @@ public class AltcoinSerializer extends BitcoinSerializer {
         names.put(MasternodePaymentVote.class, "mnget");
     }
 
+    // We use a table of factories rather than reflection because reflection is very slow on Android.
+    static {
+        MESSAGE_FACTORIES.register("version", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new VersionMessage(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("inv", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return serializer.makeInventoryMessage(payloadBytes, length);
+            }
+        });
+        MESSAGE_FACTORIES.register("block", new SlicingMessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int offset, int length, byte[] hash) throws ProtocolException {
+                return serializer.makeBlock(payloadBytes, offset, length);
+            }
+        });
+        MESSAGE_FACTORIES.register("merkleblock", new SlicingMessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int offset, int length, byte[] hash) throws ProtocolException {
+                return serializer.makeFilteredBlock(payloadBytes, offset, length);
+            }
+        });
+        MESSAGE_FACTORIES.register("getdata", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new GetDataMessage(serializer.getParameters(), payloadBytes, serializer, length);
+            }
+        });
+        MESSAGE_FACTORIES.register("getblocks", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new GetBlocksMessage(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("getheaders", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new GetHeadersMessage(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("tx", new SlicingMessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int offset, int length, byte[] hash) throws ProtocolException {
+                return serializer.makeTransaction(payloadBytes, offset, length, hash);
+            }
+        });
+        MESSAGE_FACTORIES.register("addr", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return serializer.makeAddressMessage(payloadBytes, length);
+            }
+        });
+        MESSAGE_FACTORIES.register("ping", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new Ping(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("pong", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new Pong(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("verack", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new VersionAck(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("headers", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new HeadersMessage(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("alert", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return serializer.makeAlertMessage(payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("filterload", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return serializer.makeBloomFilter(payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("notfound", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new NotFoundMessage(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("mempool", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new MemoryPoolMessage();
+            }
+        });
+        MESSAGE_FACTORIES.register("reject", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new RejectMessage(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("utxos", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new UTXOsMessage(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("getutxos", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new GetUTXOsMessage(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("sendheaders", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new SendHeadersMessage(serializer.getParameters(), payloadBytes);
+            }
+        });
+        // SYSCOIN specific
+        MESSAGE_FACTORIES.register("mnb", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new MasternodeBroadcast(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("mnw", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new MasternodePaymentVote(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("mnp", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new MasternodePing(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("dseg", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new MasternodePing(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("mnv", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new MasternodeVerification(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("spork", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new SporkMessage(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("ssc", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new SyncStatusCount(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("getsporks", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new GetSporksMessage(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("govsync", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new GovernanceSyncMessage(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("govobj", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new GovernanceObject(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("govobjvote", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new GovernanceVote(serializer.getParameters(), payloadBytes);
+            }
+        });
+        MESSAGE_FACTORIES.register("mnget", new MessageFactory() {
+            @Override
+            public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+                return new MasternodePaymentVote(serializer.getParameters(), payloadBytes);
+            }
+        });
+    }
+
+    /**
+     * Register a message type, so that packets with the given command are
+     * deserialized using the given factory, and messages of the given class are
+     * serialized with the given command. Replaces any existing registration for
+     * the command or class.
+     *
+     * @param command the command name, up to 12 ASCII characters.
+     * @param messageClass the class of message the factory builds.
+     * @param factory the factory to build messages with.
+     */
+    public static void registerMessage(String command, Class<? extends Message> messageClass, MessageFactory factory) {
+        MESSAGE_FACTORIES.register(command, factory);
+        names.put(messageClass, command);
+    }
+
+    /**
+     * Returns the registry of factories used to deserialize messages.
+     */
+    public static MessageFactoryRegistry getMessageFactories() {
+        return MESSAGE_FACTORIES;
+    }
+
+    /**
+     * Returns true if payloads are parsed in place from array backed buffers.
+     */
+    public boolean isSlicePayloads() {
+        return slicePayloads;
+    }
+
+    /**
+     * Returns true if the checksum of each message is verified.
+     */
+    public boolean isVerifyChecksums() {
+        return verifyChecksums;
+    }
+
     /**
      * Writes message to to the output stream.
      */
@@ -90,103 +380,48 @@ public class AltcoinSerializer extends BitcoinSerializer {
      */
     @Override
     public Message deserializePayload(BitcoinSerializer.BitcoinPacketHeader header, ByteBuffer in) throws ProtocolException, BufferUnderflowException {
-        byte[] payloadBytes = new byte[header.size];
-        in.get(payloadBytes, 0, header.size);
+        final MessageFactory factory = MESSAGE_FACTORIES.get(header.header);
+        final byte[] payloadBytes;
+        final int offset;
+        if (slicePayloads && factory instanceof SlicingMessageFactory && in.hasArray()) {
+            if (in.remaining() < header.size) {
+                throw new BufferUnderflowException();
+            }
+            payloadBytes = in.array();
+            offset = in.arrayOffset() + in.position();
+            in.position(in.position() + header.size);
+        } else {
+            payloadBytes = new byte[header.size];
+            offset = 0;
+            in.get(payloadBytes, 0, header.size);
+        }
 
         // Verify the checksum.
-        byte[] hash;
-        hash = Sha256Hash.hashTwice(payloadBytes);
-        if (header.checksum[0] != hash[0] || header.checksum[1] != hash[1] ||
-                header.checksum[2] != hash[2] || header.checksum[3] != hash[3]) {
-            throw new ProtocolException("Checksum failed to verify, actual " +
-                    HEX.encode(hash) +
-                    " vs " + HEX.encode(header.checksum));
+        byte[] hash = null;
+        if (verifyChecksums) {
+            hash = checksumHasher.get().hashTwice(payloadBytes, offset, header.size);
+            if (header.checksum[0] != hash[0] || header.checksum[1] != hash[1] ||
+                    header.checksum[2] != hash[2] || header.checksum[3] != hash[3]) {
+                throw new ProtocolException("Checksum failed to verify, actual " +
+                        HEX.encode(hash) +
+                        " vs " + HEX.encode(header.checksum));
+            }
         }
 
-
         try {
-            return makeMessage(header.command, header.size, payloadBytes, hash, header.checksum);
+            if (factory == null) {
+                log.warn("No support for deserializing message with name {}", header.command);
+                return new UnknownMessage(getParameters(), header.command, payloadBytes);
+            } else if (offset != 0 || payloadBytes.length != header.size) {
+                return ((SlicingMessageFactory) factory).makeMessage(this, payloadBytes, offset, header.size, hash);
+            } else {
+                return factory.makeMessage(this, payloadBytes, header.size, hash);
+            }
         } catch (Exception e) {
-            throw new ProtocolException("Error deserializing message " + HEX.encode(payloadBytes) + "\n", e);
+            throw new ProtocolException("Error deserializing message " + HEX.encode(payloadBytes, offset, header.size) + "\n", e);
         }
     }
 
-    private Message makeMessage(String command, int length, byte[] payloadBytes, byte[] hash, byte[] checksum) throws ProtocolException {
-        // We use an if ladder rather than reflection because reflection is very slow on Android.
-        Message message;
-        NetworkParameters params = super.getParameters();
-        if (command.equals("version")) {
-            return new VersionMessage(params, payloadBytes);
-        } else if (command.equals("inv")) {
-            message = makeInventoryMessage(payloadBytes, length);
-        } else if (command.equals("block")) {
-            message = makeBlock(payloadBytes, length);
-        } else if (command.equals("merkleblock")) {
-            message = makeFilteredBlock(payloadBytes);
-        } else if (command.equals("getdata")) {
-            message = new GetDataMessage(params, payloadBytes, this, length);
-        } else if (command.equals("getblocks")) {
-            message = new GetBlocksMessage(params, payloadBytes);
-        } else if (command.equals("getheaders")) {
-            message = new GetHeadersMessage(params, payloadBytes);
-        } else if (command.equals("tx")) {
-            message = makeTransaction(payloadBytes, 0, length, hash);
-        } else if (command.equals("addr")) {
-            message = makeAddressMessage(payloadBytes, length);
-        } else if (command.equals("ping")) {
-            message = new Ping(params, payloadBytes);
-        } else if (command.equals("pong")) {
-            message = new Pong(params, payloadBytes);
-        } else if (command.equals("verack")) {
-            return new VersionAck(params, payloadBytes);
-        } else if (command.equals("headers")) {
-            return new HeadersMessage(params, payloadBytes);
-        } else if (command.equals("alert")) {
-            return makeAlertMessage(payloadBytes);
-        } else if (command.equals("filterload")) {
-            return makeBloomFilter(payloadBytes);
-        } else if (command.equals("notfound")) {
-            return new NotFoundMessage(params, payloadBytes);
-        } else if (command.equals("mempool")) {
-            return new MemoryPoolMessage();
-        } else if (command.equals("reject")) {
-            return new RejectMessage(params, payloadBytes);
-        } else if (command.equals("utxos")) {
-            return new UTXOsMessage(params, payloadBytes);
-        } else if (command.equals("getutxos")) {
-            return new GetUTXOsMessage(params, payloadBytes);
-        } else if (command.equals("sendheaders")) {
-            return new SendHeadersMessage(params, payloadBytes);
-        } else if (command.equals("mnb")) {
-            return new MasternodeBroadcast(params, payloadBytes);
-        } else if (command.equals("mnw")){
-            return new MasternodePaymentVote(params, payloadBytes);
-        } else if (command.equals("mnp")) {
-            return new MasternodePing(params, payloadBytes);
-        } else if (command.equals("dseg")) {
-            return new MasternodePing(params, payloadBytes);
-        } else if (command.equals("mnv")) {
-            return new MasternodeVerification(params, payloadBytes);
-        } else if (command.equals("spork")) {
-            return new SporkMessage(params, payloadBytes);
-        } else if (command.equals("ssc")) {
-            return new SyncStatusCount(params, payloadBytes);
-        } else if (command.equals("getsporks")) {
-            return new GetSporksMessage(params, payloadBytes);
-        } else if (command.equals("govsync")) {
-            return new GovernanceSyncMessage(params, payloadBytes);
-        } else if (command.equals("govobj")) {
-            return new GovernanceObject(params, payloadBytes);
-        } else if (command.equals("govobjvote")) {
-            return new GovernanceVote(params, payloadBytes);
-        } else if (command.equals("mnget")) {
-            return new MasternodePaymentVote(params, payloadBytes);
-        } else {
-            log.warn("No support for deserializing message with name {}", command);
-            return new UnknownMessage(params, command, payloadBytes);
-        }
-        return message;
-    }
     @Override
     public Block makeBlock(final byte[] payloadBytes, final int offset, final int length) throws ProtocolException {
         return new AltcoinBlock(getParameters(), payloadBytes, offset, this, length);
@@ -194,31 +429,78 @@ public class AltcoinSerializer extends BitcoinSerializer {
 
     @Override
     public FilteredBlock makeFilteredBlock(byte[] payloadBytes) throws ProtocolException {
-        long blockVersion = Utils.readUint32(payloadBytes, 0);
-        int headerSize = Block.HEADER_SIZE;
+        return makeFilteredBlock(payloadBytes, 0, payloadBytes.length);
+    }
 
-        byte[] headerBytes = new byte[Block.HEADER_SIZE + 1];
-        System.arraycopy(payloadBytes, 0, headerBytes, 0, headerSize);
-        headerBytes[80] = 0; // Need to provide 0 transactions so the block header can be constructed
+    /**
+     * Make a filtered block from the payload slice at the given offset. AuxPoW
+     * blocks are parsed in place; other blocks are handed to bitcoinj, which
+     * requires the payload to start at offset zero.
+     */
+    public FilteredBlock makeFilteredBlock(byte[] payloadBytes, int offset, int length) throws ProtocolException {
+        long blockVersion = Utils.readUint32(payloadBytes, offset);
 
         if (this.getParameters() instanceof AuxPoWNetworkParameters) {
             final AuxPoWNetworkParameters auxPoWParams = (AuxPoWNetworkParameters) this.getParameters();
             if (auxPoWParams.isAuxPoWBlockVersion(blockVersion)) {
-                final AltcoinBlock header = (AltcoinBlock) makeBlock(headerBytes, 0, Message.UNKNOWN_LENGTH);
-                final AuxPoW auxpow = new AuxPoW(this.getParameters(), payloadBytes, Block.HEADER_SIZE, null, this);
-                header.setAuxPoW(auxpow);
+                // A length of just the header stops the block reading past its
+                // AuxPoW header into the partial merkle tree.
+                final AltcoinBlock header = (AltcoinBlock) makeBlock(payloadBytes, offset, Block.HEADER_SIZE);
+                final AuxPoW auxpow = header.getAuxPoW();
+                if (auxpow == null) {
+                    throw new ProtocolException("AuxPoW block version but no AuxPoW header in filtered block");
+                }
 
-                int pmtOffset = headerSize + auxpow.getMessageSize();
-                int pmtLength = payloadBytes.length - pmtOffset;
-                byte[] pmtBytes = new byte[pmtLength];
-                System.arraycopy(payloadBytes, pmtOffset, pmtBytes, 0, pmtLength);
-                PartialMerkleTree pmt = new PartialMerkleTree(this.getParameters(), pmtBytes, 0);
+                int pmtOffset = offset + Block.HEADER_SIZE + auxpow.getMessageSize();
+                PartialMerkleTree pmt = new PartialMerkleTree(this.getParameters(), payloadBytes, pmtOffset);
 
                 return new FilteredBlock(this.getParameters(), header, pmt);
             }
         }
 
         // We are either not in AuxPoW mode, or the block is not an AuxPoW block.
+        if (offset != 0 || payloadBytes.length != length) {
+            payloadBytes = Arrays.copyOfRange(payloadBytes, offset, offset + length);
+        }
         return super.makeFilteredBlock(payloadBytes);
     }
+
+    /**
+     * Double-SHA256 hashes payloads, reusing the same digest and result buffer.
+     * Not thread safe; one instance is held per thread.
+     */
+    private static class ChecksumHasher {
+        private final MessageDigest digest = Sha256Hash.newDigest();
+        private final byte[] hash = new byte[Sha256Hash.LENGTH];
+
+        /**
+         * Returns the hash of the given range. The returned array is overwritten
+         * by the next call.
+         */
+        private byte[] hashTwice(byte[] input, int offset, int length) {
+            try {
+                digest.reset();
+                digest.update(input, offset, length);
+                digest.digest(hash, 0, hash.length);
+                digest.update(hash, 0, hash.length);
+                digest.digest(hash, 0, hash.length);
+            } catch (DigestException e) {
+                throw new RuntimeException(e);  // Cannot happen, the buffer is the size of the digest.
+            }
+            return hash;
+        }
+    }
+
+    /**
+     * A message factory which can also build messages from a slice of a larger
+     * array, used when payloads are parsed in place.
+     */
+    private static abstract class SlicingMessageFactory implements MessageFactory {
+        @Override
+        public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+            return makeMessage(serializer, payloadBytes, 0, length, hash);
+        }
+
+        abstract Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int offset, int length, byte[] hash) throws ProtocolException;
+    }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.core.VerificationException;
+
+import java.math.BigInteger;
+
+/**
+ * <p>A proof of work target, held as an unsigned 256 bit number in four longs
+ * so that hashes can be compared against it without converting them to
+ * {@link BigInteger}s.</p>
+ *
+ * <p>Targets decoded from compact bits are cached, as consecutive headers
+ * almost always share the same difficulty.</p>
+ */
+public final class CompactTarget {
+    /** Number of decoded targets cached; must be a power of two. */
+    private static final int CACHE_SIZE = 64;
+
+    /**
+     * Direct mapped cache of decoded targets. Entries are immutable, so can be
+     * read and replaced without locking.
+     */
+    private static final CompactTarget[] cache = new CompactTarget[CACHE_SIZE];
+
+    private static final BigInteger TWO_TO_256 = BigInteger.ONE.shiftLeft(256);
+
+    /** Compact form, or -1 if not created from compact bits. */
+    private final long compactBits;
+    private final BigInteger value;
+    /** Words of the target, most significant first. */
+    private final long word0;
+    private final long word1;
+    private final long word2;
+    private final long word3;
+    /** True if the target is at least 2^256, so any hash meets it. */
+    private final boolean metByAll;
+    /** True if the target is negative, so no hash meets it. */
+    private final boolean metByNone;
+
+    private CompactTarget(final long compactBits, final BigInteger value) {
+        this.compactBits = compactBits;
+        this.value = value;
+        this.metByNone = value.signum() < 0;
+        this.metByAll = value.compareTo(TWO_TO_256) >= 0;
+        if (metByNone || metByAll) {
+            word0 = word1 = word2 = word3 = 0;
+        } else {
+            word0 = value.shiftRight(192).longValue();
+            word1 = value.shiftRight(128).longValue();
+            word2 = value.shiftRight(64).longValue();
+            word3 = value.longValue();
+        }
+    }
+
+    /**
+     * Get the target for the given compact bits, from the cache if possible.
+     */
+    public static CompactTarget decode(final long compactBits) {
+        final int slot = (int) ((compactBits ^ (compactBits >>> 24)) & (CACHE_SIZE - 1));
+        CompactTarget target = cache[slot];
+        if (null == target || target.compactBits != compactBits) {
+            target = new CompactTarget(compactBits, Utils.decodeCompactBits(compactBits));
+            cache[slot] = target;
+        }
+        return target;
+    }
+
+    /**
+     * Wrap an already decoded target. The result is not cached.
+     */
+    public static CompactTarget valueOf(final BigInteger target) {
+        return new CompactTarget(-1, target);
+    }
+
+    /**
+     * Returns true if the given hash, read as a big-endian unsigned number, is
+     * less than or equal to this target.
+     */
+    public boolean isMetBy(final Sha256Hash hash) {
+        if (metByAll) {
+            return true;
+        } else if (metByNone) {
+            return false;
+        }
+        final byte[] bytes = hash.getBytes();
+        int cmp = compareUnsigned(readLong(bytes, 0), word0);
+        if (cmp == 0) {
+            cmp = compareUnsigned(readLong(bytes, 8), word1);
+            if (cmp == 0) {
+                cmp = compareUnsigned(readLong(bytes, 16), word2);
+                if (cmp == 0) {
+                    cmp = compareUnsigned(readLong(bytes, 24), word3);
+                }
+            }
+        }
+        return cmp <= 0;
+    }
+
+    /**
+     * Check the target is positive and no easier than the given maximum, as
+     * {@link org.bitcoinj.core.Block#getDifficultyTargetAsInteger()} does.
+     *
+     * @throws VerificationException if the target is out of range.
+     */
+    public void checkRange(final BigInteger maxTarget) throws VerificationException {
+        if (value.signum() <= 0 || value.compareTo(maxTarget) > 0) {
+            throw new VerificationException("Difficulty target is bad: " + value.toString());
+        }
+    }
+
+    public BigInteger toBigInteger() {
+        return value;
+    }
+
+    private static long readLong(final byte[] bytes, final int offset) {
+        long result = 0;
+        for (int byteIdx = offset; byteIdx < offset + 8; byteIdx++) {
+            result = (result << 8) | (bytes[byteIdx] & 0xffL);
+        }
+        return result;
+    }
+
+    private static int compareUnsigned(final long a, final long b) {
+        // Flip the sign bits so signed comparison gives the unsigned order
+        final long flippedA = a ^ Long.MIN_VALUE;
+        final long flippedB = b ^ Long.MIN_VALUE;
+        return flippedA < flippedB ? -1 : (flippedA == flippedB ? 0 : 1);
+    }
+
+    @Override
+    public String toString() {
+        return value.toString(16);
+    }
+}
@@ -0,0 +1,420 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BlockLocator;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.utils.Threading;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>Downloads the headers between checkpoints from several peers at once.
+ * The chain up to the last checkpoint is split into segments, one between
+ * each pair of neighbouring checkpoints, and each peer takes the next
+ * unclaimed segment as soon as it finishes its last. As both ends of every
+ * segment are fixed by checkpoint hashes, segments can be fetched in any
+ * order and checked on their own: a segment is only accepted if its headers
+ * link from one checkpoint to the next and all have valid proof of work.</p>
+ *
+ * <p>Verified segments are handed to a {@link HeadersConsumer}, in chain
+ * order, as soon as every earlier segment has been, and are not kept after
+ * that, so that the caller can add them to its chain (which checks the
+ * difficulty transitions) as they arrive and carry on downloading from the
+ * last checkpoint as usual. If a peer fails, sends a segment which does not
+ * check out, or does not answer a request in time, it is given no more work
+ * and its segment is passed to another peer. A peer which does not answer
+ * in time is also disconnected, as peers answer requests for headers in
+ * order, so a late answer would be taken for the answer to a later
+ * request.</p>
+ */
+public class HeaderSyncCoordinator {
+    private static final Logger log = LoggerFactory.getLogger(HeaderSyncCoordinator.class);
+    private static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = 30 * 1000;
+
+    private final SortedMap<Integer, Sha256Hash> checkpoints;
+    private final HeaderVerifier verifier;
+    private volatile long requestTimeoutMillis = DEFAULT_REQUEST_TIMEOUT_MILLIS;
+
+    /**
+     * Receives the verified headers of each segment, in chain order.
+     */
+    public interface HeadersConsumer {
+        /**
+         * Called with the headers of each segment in turn, from one thread at
+         * a time. If this throws, the sync fails with the exception.
+         */
+        void onHeaders(List<Block> headers) throws Exception;
+    }
+
+    /**
+     * @param checkpoints the checkpointed block hashes by height.
+     */
+    public HeaderSyncCoordinator(final Map<Integer, Sha256Hash> checkpoints) {
+        this(checkpoints, HeaderVerifier.getDefault());
+    }
+
+    /**
+     * @param checkpoints the checkpointed block hashes by height.
+     * @param verifier verifier to check the proof of work of each segment with.
+     */
+    public HeaderSyncCoordinator(final Map<Integer, Sha256Hash> checkpoints, final HeaderVerifier verifier) {
+        this.checkpoints = Collections.unmodifiableSortedMap(new TreeMap<Integer, Sha256Hash>(checkpoints));
+        this.verifier = verifier;
+    }
+
+    /**
+     * Set how long to wait for a peer to answer each request for headers
+     * before giving its segment to another peer. Defaults to 30 seconds.
+     */
+    public void setRequestTimeout(final long timeout, final TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive");
+        }
+        this.requestTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * Download the headers from the last checkpoint at or below the given
+     * height, up to and including the last checkpoint, across the given peers.
+     * The peers must not be downloading headers for the chain themselves
+     * while this runs.
+     *
+     * @param fromHeight height of the best block already held.
+     * @param consumer receives the headers of each segment in order, starting
+     * with the block after the first checkpoint.
+     * @return a future for the height of the last header handed to the
+     * consumer, or the given height if there was nothing to fetch. This fails
+     * if every peer fails, or the consumer throws.
+     */
+    public ListenableFuture<Integer> sync(final List<Peer> peers, final int fromHeight,
+                                          final HeadersConsumer consumer) {
+        final List<Segment> segments = getSegments(fromHeight);
+        if (segments.isEmpty()) {
+            return Futures.immediateFuture(fromHeight);
+        }
+        if (peers.isEmpty()) {
+            throw new IllegalArgumentException("Cannot sync headers with no peers");
+        }
+        final Sync sync = new Sync(segments, peers.size(), consumer);
+        for (Peer peer : peers) {
+            sync.fetchNext(peer);
+        }
+        return sync.result;
+    }
+
+    /**
+     * Split the chain between checkpoints into segments, starting from the
+     * last checkpoint at or below the given height.
+     */
+    List<Segment> getSegments(final int fromHeight) {
+        final List<Segment> segments = new ArrayList<Segment>();
+        final SortedMap<Integer, Sha256Hash> below = checkpoints.headMap(fromHeight + 1);
+        final SortedMap<Integer, Sha256Hash> remaining = below.isEmpty()
+            ? checkpoints
+            : checkpoints.tailMap(below.lastKey());
+        Map.Entry<Integer, Sha256Hash> start = null;
+        for (Map.Entry<Integer, Sha256Hash> checkpoint : remaining.entrySet()) {
+            if (null != start) {
+                segments.add(new Segment(segments.size(), start.getKey(), start.getValue(), checkpoint.getKey(),
+                    checkpoint.getValue()));
+            }
+            start = checkpoint;
+        }
+        return segments;
+    }
+
+    /**
+     * Check that the given headers run from the start checkpoint of the
+     * segment to its end, and that all have valid proof of work.
+     */
+    void verifySegment(final Segment segment, final List<Block> headers) throws VerificationException {
+        if (headers.size() != segment.endHeight - segment.startHeight) {
+            throw new VerificationException("Expected " + (segment.endHeight - segment.startHeight)
+                + " headers between checkpoints at " + segment.startHeight + " and " + segment.endHeight
+                + " but got " + headers.size());
+        }
+        Sha256Hash prevHash = segment.startHash;
+        for (Block header : headers) {
+            if (!header.getPrevBlockHash().equals(prevHash)) {
+                throw new VerificationException("Header " + header.getHashAsString()
+                    + " does not link to the previous header in segment from " + segment.startHeight);
+            }
+            prevHash = header.getHash();
+        }
+        if (!prevHash.equals(segment.endHash)) {
+            throw new VerificationException("Headers from " + segment.startHeight
+                + " do not match the checkpoint at " + segment.endHeight);
+        }
+        if (verifier.verify(headers) != headers.size()) {
+            throw new VerificationException("Headers from " + segment.startHeight
+                + " include a header with invalid proof of work");
+        }
+    }
+
+    /**
+     * The headers between two neighbouring checkpoints, excluding the block at
+     * the start checkpoint and including the block at the end.
+     */
+    static class Segment {
+        /** Position of the segment amongst those being synced. */
+        final int index;
+        final int startHeight;
+        final Sha256Hash startHash;
+        final int endHeight;
+        final Sha256Hash endHash;
+
+        Segment(final int index, final int startHeight, final Sha256Hash startHash, final int endHeight,
+                final Sha256Hash endHash) {
+            this.index = index;
+            this.startHeight = startHeight;
+            this.startHash = startHash;
+            this.endHeight = endHeight;
+            this.endHash = endHash;
+        }
+
+        @Override
+        public String toString() {
+            return "segment " + startHeight + " to " + endHeight;
+        }
+    }
+
+    /**
+     * State of one sync across a set of peers.
+     */
+    private class Sync {
+        private final SettableFuture<Integer> result = SettableFuture.create();
+        private final List<Segment> segments;
+        private final HeadersConsumer consumer;
+        /**
+         * Headers of each segment once verified and until handed to the
+         * consumer, in the same order as the segments.
+         */
+        private final List<List<Block>> segmentHeaders;
+        private final LinkedList<Segment> unclaimed;
+        /** Peers waiting for a segment to be returned by a failed peer. */
+        private final LinkedList<Peer> idlePeers = new LinkedList<Peer>();
+        private int activePeers;
+        /** Index of the next segment to hand to the consumer. */
+        private int nextToDeliver = 0;
+        /** Whether a thread is handing segments to the consumer, so that only one does at a time. */
+        private boolean delivering = false;
+
+        private Sync(final List<Segment> segments, final int peerCount, final HeadersConsumer consumer) {
+            this.segments = segments;
+            this.consumer = consumer;
+            this.segmentHeaders = new ArrayList<List<Block>>(Collections.<List<Block>>nCopies(segments.size(), null));
+            this.unclaimed = new LinkedList<Segment>(segments);
+            this.activePeers = peerCount;
+        }
+
+        /**
+         * Give the peer the next unclaimed segment, if any.
+         */
+        private void fetchNext(final Peer peer) {
+            final Segment segment;
+            synchronized (this) {
+                if (result.isDone()) {
+                    return;
+                }
+                segment = unclaimed.pollFirst();
+                if (null == segment) {
+                    idlePeers.add(peer);
+                    return;
+                }
+            }
+            log.debug("{}: Fetching headers for {}", peer, segment);
+            fetch(peer, segment, segment.startHash, new ArrayList<Block>());
+        }
+
+        /**
+         * Ask the peer for the next headers of the segment, following on from
+         * the given block. Peers send at most a fixed number of headers at a
+         * time, so longer segments take several requests.
+         */
+        private void fetch(final Peer peer, final Segment segment, final Sha256Hash from,
+                           final List<Block> headers) {
+            final ListenableFuture<List<Block>> future;
+            try {
+                // A peer which never answers, or has already disconnected, would otherwise hold up the sync forever
+                future = withDeadline(peer, peer.getBlockHeaders(new BlockLocator().add(from), segment.endHash));
+            } catch (RuntimeException e) {
+                failed(peer, segment, e);
+                return;
+            }
+            Futures.addCallback(future, new FutureCallback<List<Block>>() {
+                @Override
+                public void onSuccess(final List<Block> batch) {
+                    try {
+                        if (batch.isEmpty()) {
+                            throw new VerificationException("No headers sent for " + segment);
+                        }
+                        headers.addAll(batch);
+                        final Sha256Hash last = batch.get(batch.size() - 1).getHash();
+                        if (!last.equals(segment.endHash)
+                                && headers.size() < segment.endHeight - segment.startHeight) {
+                            fetch(peer, segment, last, headers);
+                            return;
+                        }
+                        verifySegment(segment, headers);
+                    } catch (VerificationException e) {
+                        failed(peer, segment, e);
+                        return;
+                    }
+                    completed(segment, headers);
+                    fetchNext(peer);
+                }
+
+                @Override
+                public void onFailure(final Throwable t) {
+                    failed(peer, segment, t);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        /**
+         * Wrap the request in a future which fails with a
+         * {@link TimeoutException} if the peer does not answer in time, in
+         * which case the peer is disconnected.
+         */
+        private ListenableFuture<List<Block>> withDeadline(final Peer peer,
+                                                           final ListenableFuture<List<Block>> request) {
+            final SettableFuture<List<Block>> deadline = SettableFuture.create();
+            final long timeoutMillis = requestTimeoutMillis;
+            final ScheduledFuture<?> timeout = TimeoutExecutor.get().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    // Failing the deadline hands the segment on, which sends a request to another peer, so that
+                    // is not done on the shared timeout thread.
+                    Threading.THREAD_POOL.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (deadline.setException(new TimeoutException("No headers received within "
+                                    + timeoutMillis + "ms"))) {
+                                request.cancel(false);
+                                peer.close();
+                            }
+                        }
+                    });
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            Futures.addCallback(request, new FutureCallback<List<Block>>() {
+                @Override
+                public void onSuccess(final List<Block> headers) {
+                    timeout.cancel(false);
+                    deadline.set(headers);
+                }
+
+                @Override
+                public void onFailure(final Throwable t) {
+                    timeout.cancel(false);
+                    deadline.setException(t);
+                }
+            }, MoreExecutors.directExecutor());
+            return deadline;
+        }
+
+        private void completed(final Segment segment, final List<Block> headers) {
+            synchronized (this) {
+                segmentHeaders.set(segment.index, headers);
+            }
+            deliver();
+        }
+
+        /**
+         * Hand every verified segment which follows on from those already
+         * handed over to the consumer, and drop them, unless another thread
+         * already is.
+         */
+        private void deliver() {
+            while (true) {
+                final Segment segment;
+                final List<Block> headers;
+                synchronized (this) {
+                    if (delivering || result.isDone() || nextToDeliver == segments.size()) {
+                        return;
+                    }
+                    headers = segmentHeaders.get(nextToDeliver);
+                    if (null == headers) {
+                        return;
+                    }
+                    segment = segments.get(nextToDeliver);
+                    segmentHeaders.set(nextToDeliver, null);
+                    delivering = true;
+                }
+                try {
+                    consumer.onHeaders(headers);
+                } catch (Exception e) {
+                    result.setException(e);
+                    return;
+                } finally {
+                    synchronized (this) {
+                        delivering = false;
+                    }
+                }
+                final boolean finished;
+                synchronized (this) {
+                    finished = ++nextToDeliver == segments.size();
+                }
+                if (finished) {
+                    result.set(segment.endHeight);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Drop the peer and hand its segment to an idle peer, if there is
+         * one, or else back to the unclaimed segments for the next peer to
+         * finish.
+         */
+        private void failed(final Peer peer, final Segment segment, final Throwable t) {
+            log.warn("{}: Failed to fetch headers for {}", peer, segment, t);
+            final Peer idle;
+            synchronized (this) {
+                activePeers--;
+                unclaimed.addFirst(segment);
+                idle = idlePeers.pollFirst();
+                if (null == idle && activePeers == 0) {
+                    result.setException(new VerificationException("No peers left to fetch " + segment, t));
+                    return;
+                }
+            }
+            if (null != idle) {
+                fetchNext(idle);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <p>Checks the proof of work, including any AuxPoW header, of a batch of block
+ * headers in parallel on a fork/join pool. These checks depend only on each
+ * header, not on the chain, so can be done before headers are added to the
+ * chain; the chain then finds them already verified via
+ * {@link AltcoinBlock#verifyProofOfWork()}, and only has to check linkage and
+ * difficulty, in order.</p>
+ *
+ * <p>Headers which fail are simply left unverified, so that the chain rejects
+ * them when they are reached, exactly as it would without this stage.</p>
+ */
+public class HeaderVerifier {
+    /** Number of headers below which a task verifies them itself rather than splitting. */
+    private static final int SPLIT_THRESHOLD = 16;
+
+    @Nullable private static HeaderVerifier defaultVerifier;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param pool the pool to run verification on.
+     */
+    public HeaderVerifier(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Get a verifier shared across peers, running on a pool with one thread per
+     * processor. The pool is created on first use.
+     */
+    public static synchronized HeaderVerifier getDefault() {
+        if (null == defaultVerifier) {
+            defaultVerifier = new HeaderVerifier(new ForkJoinPool());
+        }
+        return defaultVerifier;
+    }
+
+    /**
+     * Verify the proof of work of the given headers, blocking until all are
+     * checked. Headers which are not {@link AltcoinBlock}s are skipped.
+     *
+     * @return the number of headers found to be valid.
+     */
+    public int verify(final List<? extends Block> headers) {
+        if (headers.isEmpty()) {
+            return 0;
+        }
+        return pool.invoke(new VerifyTask(headers, 0, headers.size(), Context.get()));
+    }
+
+    private static class VerifyTask extends RecursiveTask<Integer> {
+        private final List<? extends Block> headers;
+        private final int from;
+        private final int to;
+        private final Context context;
+
+        private VerifyTask(final List<? extends Block> headers, final int from, final int to,
+                           final Context context) {
+            this.headers = headers;
+            this.from = from;
+            this.to = to;
+            this.context = context;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from > SPLIT_THRESHOLD) {
+                final int middle = (from + to) >>> 1;
+                final VerifyTask left = new VerifyTask(headers, from, middle, context);
+                left.fork();
+                final int rightCount = new VerifyTask(headers, middle, to, context).compute();
+                return left.join() + rightCount;
+            }
+
+            // Decoding a lazily parsed AuxPoW header may need the context
+            Context.propagate(context);
+            int verified = 0;
+            for (int headerIdx = from; headerIdx < to; headerIdx++) {
+                final Block header = headers.get(headerIdx);
+                if (header instanceof AltcoinBlock && ((AltcoinBlock) header).verifyProofOfWork()) {
+                    verified++;
+                }
+            }
+            return verified;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.ProtocolException;
+
+/**
+ * Builds a message from the payload of a packet received from the network.
+ * Factories are registered against a command name in a
+ * {@link MessageFactoryRegistry}.
+ */
+public interface MessageFactory {
+    /**
+     * @param serializer the serializer the packet was read by.
+     * @param payloadBytes the packet payload.
+     * @param length the length of the payload.
+     * @param hash the double-SHA256 hash of the payload, or null if checksums
+     * are not being verified. The array is reused for later messages, so must
+     * be copied if it is kept.
+     */
+    Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException;
+}
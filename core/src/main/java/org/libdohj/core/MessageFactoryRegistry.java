@@ -0,0 +1,188 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>Maps network command names to the {@link MessageFactory} which builds the
+ * corresponding message.</p>
+ *
+ * <p>Commands are keyed on the raw 12 byte command field of the packet header,
+ * packed into a pair of longs, so a lookup is a single probe of an open
+ * addressed table and never needs the command decoded to a string. Lookups
+ * take no locks; registration copies the table, on the basis that factories
+ * are registered once at startup and looked up for every packet.</p>
+ */
+public class MessageFactoryRegistry {
+    /** Length of the command field in a packet header. */
+    public static final int COMMAND_LEN = 12;
+
+    private volatile Table table = new Table(16);
+
+    /**
+     * Register a factory for the given command, replacing any existing
+     * factory for that command.
+     *
+     * @param command the command name, up to 12 ASCII characters.
+     * @param factory the factory to build messages with.
+     */
+    public synchronized void register(String command, MessageFactory factory) {
+        checkNotNull(factory);
+        final byte[] commandBytes = encodeCommand(command);
+        final long hi = packHi(commandBytes, 0);
+        final long lo = packLo(commandBytes, 0);
+
+        final Table current = table;
+        final Table updated = new Table(current.size + 1 > current.capacity() / 2
+            ? current.capacity() * 2 : current.capacity());
+        for (int slot = 0; slot < current.capacity(); slot++) {
+            if (current.factories[slot] != null) {
+                updated.put(current.his[slot], current.los[slot], current.factories[slot]);
+            }
+        }
+        updated.put(hi, lo, factory);
+        table = updated;
+    }
+
+    /**
+     * Find the factory for the command at the start of the given packet header.
+     *
+     * @param header packet header, excluding the magic bytes, as held in
+     * {@link org.bitcoinj.core.BitcoinSerializer.BitcoinPacketHeader#header}.
+     * @return the factory, or null if the command is not registered.
+     */
+    @Nullable
+    public MessageFactory get(byte[] header) {
+        return table.get(packHi(header, 0), packLo(header, 0));
+    }
+
+    /**
+     * Find the factory for the named command.
+     *
+     * @return the factory, or null if the command is not registered.
+     */
+    @Nullable
+    public MessageFactory get(String command) {
+        return get(encodeCommand(command));
+    }
+
+    private static byte[] encodeCommand(String command) {
+        checkArgument(command.length() > 0 && command.length() <= COMMAND_LEN,
+            "Command must be 1 to " + COMMAND_LEN + " characters: " + command);
+        final byte[] commandBytes = new byte[COMMAND_LEN];
+        for (int charIdx = 0; charIdx < command.length(); charIdx++) {
+            final char c = command.charAt(charIdx);
+            checkArgument(c > 0 && c < 0x80, "Command must be ASCII: " + command);
+            commandBytes[charIdx] = (byte) c;
+        }
+        return commandBytes;
+    }
+
+    /**
+     * Pack the first eight bytes of a command into a long. As with
+     * {@link org.bitcoinj.core.BitcoinSerializer.BitcoinPacketHeader}, the command
+     * ends at the first null byte, and anything after it is ignored.
+     */
+    private static long packHi(byte[] command, int offset) {
+        long packed = 0;
+        for (int byteIdx = 0; byteIdx < 8; byteIdx++) {
+            final byte b = command[offset + byteIdx];
+            if (b == 0) {
+                return packed << (8 * (8 - byteIdx));
+            }
+            packed = (packed << 8) | (b & 0xffL);
+        }
+        return packed;
+    }
+
+    /**
+     * Pack the last four bytes of a command into a long, or zero if the command
+     * ends within the first eight bytes.
+     */
+    private static long packLo(byte[] command, int offset) {
+        long packed = 0;
+        for (int byteIdx = 0; byteIdx < COMMAND_LEN; byteIdx++) {
+            final byte b = command[offset + byteIdx];
+            if (b == 0) {
+                return byteIdx <= 8 ? 0 : packed << (8 * (COMMAND_LEN - byteIdx));
+            }
+            if (byteIdx >= 8) {
+                packed = (packed << 8) | (b & 0xffL);
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * Immutable once published; linear probing over parallel arrays.
+     */
+    private static class Table {
+        private final long[] his;
+        private final long[] los;
+        private final MessageFactory[] factories;
+        private final int mask;
+        private int size;
+
+        private Table(int capacity) {
+            this.his = new long[capacity];
+            this.los = new long[capacity];
+            this.factories = new MessageFactory[capacity];
+            this.mask = capacity - 1;
+        }
+
+        private int capacity() {
+            return factories.length;
+        }
+
+        private static int slot(long hi, long lo) {
+            long h = hi * 0x9E3779B97F4A7C15L + lo;
+            h ^= h >>> 29;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private void put(long hi, long lo, MessageFactory factory) {
+            int slot = slot(hi, lo) & mask;
+            while (factories[slot] != null) {
+                if (his[slot] == hi && los[slot] == lo) {
+                    factories[slot] = factory;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            his[slot] = hi;
+            los[slot] = lo;
+            factories[slot] = factory;
+            size++;
+        }
+
+        @Nullable
+        private MessageFactory get(long hi, long lo) {
+            int slot = slot(hi, lo) & mask;
+            MessageFactory factory;
+            while ((factory = factories[slot]) != null) {
+                if (his[slot] == hi && los[slot] == lo) {
+                    return factory;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.Peer;
+
+/**
+ * Handles a type of message received by a peer. Handlers are registered
+ * against a message class in a {@link MessageHandlerRegistry}, and run on the
+ * network thread of the peer, so should hand off any slow work.
+ */
+public interface MessageHandler<M extends Message> {
+    /**
+     * @param peer the peer the message was received from.
+     * @param message the message.
+     */
+    void handleMessage(Peer peer, M message) throws Exception;
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import org.bitcoinj.core.Message;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>Maps message classes to the {@link MessageHandler} which handles them, so
+ * a received message is dispatched with a single lookup on its class.</p>
+ *
+ * <p>A message of a class with no handler of its own is handled by the
+ * handler of its nearest superclass which has one; the result is cached
+ * against the subclass, so this is only worked out once. As with
+ * {@link MessageFactoryRegistry}, lookups take no locks and registration
+ * copies the table, on the basis that handlers are registered up front and
+ * looked up for every message.</p>
+ */
+public class MessageHandlerRegistry {
+    /** Cached against classes found to have no handler. Not a handler, so it can never be called. */
+    private static final Object NO_HANDLER = new Object();
+
+    /** Handlers registered against each class. */
+    private Map<Class<?>, MessageHandler<?>> registered;
+    /** Registered handlers, plus those resolved for subclasses, or {@link #NO_HANDLER}. */
+    private volatile Map<Class<?>, Object> resolved;
+
+    public MessageHandlerRegistry() {
+        this.registered = new HashMap<Class<?>, MessageHandler<?>>();
+        this.resolved = new HashMap<Class<?>, Object>();
+    }
+
+    /**
+     * Create a registry starting with the same handlers as the given registry.
+     * Later changes to either do not affect the other.
+     */
+    public MessageHandlerRegistry(final MessageHandlerRegistry template) {
+        synchronized (template) {
+            this.registered = template.registered;
+            this.resolved = template.resolved;
+        }
+    }
+
+    /**
+     * Register a handler for the given class of message, and subclasses which
+     * have no handler of their own, replacing any existing handler for that
+     * class.
+     */
+    public synchronized <M extends Message> void register(final Class<M> type,
+                                                          final MessageHandler<? super M> handler) {
+        checkNotNull(handler);
+        final Map<Class<?>, MessageHandler<?>> updated = new HashMap<Class<?>, MessageHandler<?>>(registered);
+        updated.put(type, handler);
+        registered = updated;
+        // Handlers resolved for subclasses may now be wrong
+        resolved = new HashMap<Class<?>, Object>(updated);
+    }
+
+    /**
+     * Find the handler for the given class of message.
+     *
+     * @return the handler, or null if neither the class nor any of its
+     * superclasses has one.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public MessageHandler<Message> get(final Class<? extends Message> type) {
+        Object handler = resolved.get(type);
+        if (null == handler) {
+            handler = resolve(type);
+        }
+        return NO_HANDLER == handler ? null : (MessageHandler<Message>) handler;
+    }
+
+    /**
+     * Find the handler for the class from its superclasses, and cache it.
+     */
+    private synchronized Object resolve(final Class<? extends Message> type) {
+        Object handler = null;
+        for (Class<?> cls = type; null == handler && null != cls; cls = cls.getSuperclass()) {
+            handler = registered.get(cls);
+        }
+        if (null == handler) {
+            handler = NO_HANDLER;
+        }
+        final Map<Class<?>, Object> updated = new HashMap<Class<?>, Object>(resolved);
+        updated.put(type, handler);
+        resolved = updated;
+        return handler;
+    }
+}
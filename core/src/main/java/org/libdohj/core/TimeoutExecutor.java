@@ -0,0 +1,53 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>The executor request timeouts are run on, shared by every peer and header
+ * sync. It has a single daemon thread, so anything scheduled on it must be
+ * quick and must not block; longer work should be handed on to another
+ * executor.</p>
+ */
+public final class TimeoutExecutor {
+    @Nullable private static ScheduledThreadPoolExecutor executor;
+
+    private TimeoutExecutor() {
+    }
+
+    /**
+     * Get the shared executor. It is created on first use.
+     */
+    public static synchronized ScheduledExecutorService get() {
+        if (null == executor) {
+            executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "Peer timeouts");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // Most requests are answered, so don't keep their timeouts queued
+            executor.setRemoveOnCancelPolicy(true);
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.net.BlockingClient;
+import org.bitcoinj.net.ClientConnectionManager;
+import org.bitcoinj.net.MessageWriteTarget;
+import org.bitcoinj.net.StreamConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.SocketFactory;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>A connection manager which runs each connection's blocking read loop on a
+ * thread of its own, a virtual thread where the JVM has them (Java 21 and
+ * later), so that thousands of connections can be held open, for example to
+ * crawl the network, without sharing or tuning selector threads.</p>
+ *
+ * <p>Connections are handled exactly as by
+ * {@link org.bitcoinj.net.BlockingClientManager}, so a {@link org.bitcoinj.core.Peer}
+ * and its listeners behave the same as on any other manager. Pass an instance
+ * to the {@link org.bitcoinj.core.PeerGroup} constructor which takes a
+ * {@link ClientConnectionManager}, or open connections to peers directly.</p>
+ *
+ * <p>On older JVMs, or with a thread factory of your own, connections run on
+ * whatever threads the factory creates; the default falls back to a daemon
+ * platform thread per connection, like {@link org.bitcoinj.net.BlockingClientManager}.</p>
+ */
+public class VirtualThreadClientManager extends AbstractIdleService implements ClientConnectionManager {
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadClientManager.class);
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 1000;
+
+    private final ThreadFactory threadFactory;
+    private final SocketFactory socketFactory;
+    private final Set<Client> clients = Collections.synchronizedSet(new HashSet<Client>());
+    private volatile int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+
+    public VirtualThreadClientManager() {
+        this(createThreadFactory(), SocketFactory.getDefault());
+    }
+
+    /**
+     * @param threadFactory creates the thread each connection runs on. The
+     * threads are started by the manager.
+     * @param socketFactory creates the socket for each connection.
+     */
+    public VirtualThreadClientManager(final ThreadFactory threadFactory, final SocketFactory socketFactory) {
+        this.threadFactory = threadFactory;
+        this.socketFactory = socketFactory;
+    }
+
+    /**
+     * Create a factory for virtual threads, if the JVM supports them, or for
+     * daemon platform threads if not. Virtual threads are looked up
+     * reflectively, so that this library still runs on older JVMs.
+     */
+    public static ThreadFactory createThreadFactory() {
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class)
+                .invoke(builder, "Peer connection ", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            log.info("Virtual threads are not available, using a platform thread per connection");
+        }
+        return new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "Peer connection " + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Set how long to wait for each connection to be established.
+     */
+    public void setConnectTimeoutMillis(final int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    @Override
+    public ListenableFuture<SocketAddress> openConnection(final SocketAddress serverAddress,
+                                                          final StreamConnection connection) {
+        if (!isRunning()) {
+            throw new IllegalStateException();
+        }
+        final Socket socket;
+        try {
+            socket = socketFactory.createSocket();
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        final Client client = new Client(serverAddress, connection, socket, Context.get());
+        connection.setWriteTarget(client);
+        // Counted from here, so that closeConnections() sees a connection which is still being established
+        clients.add(client);
+        try {
+            threadFactory.newThread(client).start();
+        } catch (RuntimeException e) {
+            clients.remove(client);
+            try {
+                socket.close();
+            } catch (IOException closeException) {
+                // Never connected, so nothing more to clean up
+            }
+            return Futures.immediateFailedFuture(e);
+        }
+        return client.connectFuture;
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        close(Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int getConnectedClientCount() {
+        return clients.size();
+    }
+
+    @Override
+    public void closeConnections(int n) {
+        if (!isRunning()) {
+            throw new IllegalStateException();
+        }
+        close(n);
+    }
+
+    private void close(int n) {
+        final List<Client> toClose;
+        synchronized (clients) {
+            toClose = new ArrayList<Client>(clients);
+        }
+        for (Client client : toClose) {
+            if (n-- <= 0) {
+                break;
+            }
+            client.closeConnection();
+        }
+    }
+
+    /**
+     * Whether the given write target is a connection opened by a manager of
+     * this class, and so reads on a thread of its own.
+     */
+    public static boolean isClient(final MessageWriteTarget target) {
+        return target instanceof Client;
+    }
+
+    /**
+     * One connection, and the loop which reads from it.
+     */
+    private class Client implements Runnable, MessageWriteTarget {
+        private final SocketAddress serverAddress;
+        private final StreamConnection connection;
+        private final Context context;
+        private final Socket socket;
+        private final SettableFuture<SocketAddress> connectFuture = SettableFuture.create();
+        // Not a monitor, which would pin a virtual thread to its carrier while it blocks on the socket
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private volatile boolean closeRequested = false;
+
+        private Client(final SocketAddress serverAddress, final StreamConnection connection, final Socket socket,
+                       final Context context) {
+            this.serverAddress = serverAddress;
+            this.connection = connection;
+            this.socket = socket;
+            this.context = context;
+        }
+
+        @Override
+        public void run() {
+            Context.propagate(context);
+            try {
+                socket.connect(serverAddress, connectTimeoutMillis);
+                connection.connectionOpened();
+                connectFuture.set(serverAddress);
+                BlockingClient.runReadLoop(socket.getInputStream(), connection);
+            } catch (Exception e) {
+                if (!closeRequested) {
+                    log.error("Error trying to open/read from connection: {}: {}", serverAddress, e.getMessage());
+                }
+                // Does nothing if the connection was already established
+                connectFuture.setException(e);
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // At this point there isn't much we can do, and we can probably assume the channel is closed
+                }
+                clients.remove(this);
+                connection.connectionClosed();
+            }
+        }
+
+        @Override
+        public void writeBytes(final byte[] message) throws IOException {
+            writeLock.lock();
+            try {
+                final OutputStream stream = socket.getOutputStream();
+                stream.write(message);
+                stream.flush();
+            } catch (IOException e) {
+                log.error("Error writing message to connection, closing connection", e);
+                closeConnection();
+                throw e;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public void closeConnection() {
+            // Closing the socket wakes the read loop, which then cleans up
+            try {
+                closeRequested = true;
+                socket.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
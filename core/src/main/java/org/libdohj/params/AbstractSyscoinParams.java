@@ -17,6 +17,9 @@
 package org.libdohj.params;
 
 import java.math.BigInteger;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 
 
@@ -82,6 +85,8 @@ public abstract class AbstractSyscoinParams extends NetworkParameters implements
     private static final Coin BASE_SUBSIDY   = COIN.multiply(500000);
     private static final Coin STABLE_SUBSIDY = COIN.multiply(10000);
     int nBridgeStartBlock;
+    /** Recently connected blocks, used to find the start of a difficulty interval. */
+    private final RecentBlockIndex recentBlocks = new RecentBlockIndex(SYSCOIN_INTERVAL);
     public AbstractSyscoinParams() {
         super();
         interval = SYSCOIN_INTERVAL;
@@ -95,6 +100,13 @@ public abstract class AbstractSyscoinParams extends NetworkParameters implements
         return STABLE_SUBSIDY;
 
     }
+    /**
+     * Get the checkpointed block hashes, in ascending order of height.
+     */
+    public SortedMap<Integer, Sha256Hash> getCheckpoints() {
+        return Collections.unmodifiableSortedMap(new TreeMap<Integer, Sha256Hash>(checkpoints));
+    }
+
     /**
      * Checks if we are at a difficulty transition point.
      * @param height The height of the previous stored block
@@ -104,10 +116,22 @@ public abstract class AbstractSyscoinParams extends NetworkParameters implements
         return ((height + 1) % this.getInterval()) == 0;
     }
 
+    /**
+     * Record the block a new block is being connected to, so that it can be
+     * found at the next difficulty transition without walking back through
+     * the block store. Subclasses which do not call
+     * {@link #checkDifficultyTransitions(StoredBlock, Block, BlockStore)} for
+     * every block should call this instead.
+     */
+    protected void recordStoredPrev(final StoredBlock storedPrev) {
+        recentBlocks.record(storedPrev);
+    }
+
     @Override
     public void checkDifficultyTransitions(final StoredBlock storedPrev, final Block nextBlock,
         final BlockStore blockStore) throws VerificationException, BlockStoreException {
         final Block prev = storedPrev.getHeader();
+        recordStoredPrev(storedPrev);
 
         // Is this supposed to be a difficulty transition point?
         if (!isDifficultyTransitionPoint(storedPrev.getHeight())) {
@@ -120,26 +144,34 @@ public abstract class AbstractSyscoinParams extends NetworkParameters implements
             return;
         }
 
-        // We need to find a block far back in the chain. It's OK that this is expensive because it only occurs every
-        // two weeks after the initial block chain download.
-        final Stopwatch watch = Stopwatch.createStarted();
-        Sha256Hash hash = prev.getHash();
-        StoredBlock cursor = null;
+        // We need to find a block far back in the chain. This is normally held from when the blocks were connected,
+        // but otherwise (after startup or a re-org) we walk back through the block store.
         final int interval = this.getInterval();
-        for (int i = 0; i < interval; i++) {
-            cursor = blockStore.get(hash);
-            if (cursor == null) {
-                // This should never happen. If it does, it means we are following an incorrect or busted chain.
-                throw new VerificationException(
-                        "Difficulty transition point but we did not find a way back to the last transition point. Not found: " + hash);
+        StoredBlock cursor = recentBlocks.getAncestor(storedPrev, storedPrev.getHeight() - interval + 1);
+        if (cursor == null) {
+            final Stopwatch watch = Stopwatch.createStarted();
+            final StoredBlock[] walked = new StoredBlock[interval];
+            Sha256Hash hash = prev.getHash();
+            for (int i = 0; i < interval; i++) {
+                cursor = blockStore.get(hash);
+                if (cursor == null) {
+                    // This should never happen. If it does, it means we are following an incorrect or busted chain.
+                    throw new VerificationException(
+                            "Difficulty transition point but we did not find a way back to the last transition point. Not found: " + hash);
+                }
+                walked[interval - 1 - i] = cursor;
+                hash = cursor.getHeader().getPrevBlockHash();
+            }
+            checkState(cursor != null && isDifficultyTransitionPoint(cursor.getHeight() - 1),
+                    "Didn't arrive at a transition point.");
+            watch.stop();
+            if (watch.elapsed(TimeUnit.MILLISECONDS) > 50)
+                log.info("Difficulty transition traversal took {}", watch);
+            // Hold the interval just walked, so following blocks can be linked to it
+            for (StoredBlock block : walked) {
+                recentBlocks.record(block);
             }
-            hash = cursor.getHeader().getPrevBlockHash();
         }
-        checkState(cursor != null && isDifficultyTransitionPoint(cursor.getHeight() - 1),
-                "Didn't arrive at a transition point.");
-        watch.stop();
-        if (watch.elapsed(TimeUnit.MILLISECONDS) > 50)
-            log.info("Difficulty transition traversal took {}", watch);
 
         Block blockIntervalAgo = cursor.getHeader();
         int timespan = (int) (prev.getTimeSeconds() - blockIntervalAgo.getTimeSeconds());
@@ -223,6 +255,11 @@ public abstract class AbstractSyscoinParams extends NetworkParameters implements
         return ((AltcoinBlock) block).getHash();
     }
 
+    @Override
+    public Sha256Hash getBlockDifficultyHash(byte[] header, int offset) {
+        return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(header, offset, Block.HEADER_SIZE));
+    }
+
     @Override
     public AltcoinSerializer getSerializer(boolean parseRetain) {
         return new AltcoinSerializer(this, parseRetain);
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.params;
+
+import org.bitcoinj.core.StoredBlock;
+
+import javax.annotation.Nullable;
+
+/**
+ * <p>Ring of the most recently connected stored blocks, indexed by height, so
+ * the block at the start of a difficulty interval can be found without walking
+ * back through the block store.</p>
+ *
+ * <p>A block is only appended if it links by hash to the current tip, and any
+ * other block starts the ring again, so the blocks held are always ancestors
+ * of the tip. Callers fall back to the block store if the block they need is
+ * not held.</p>
+ */
+final class RecentBlockIndex {
+    private final StoredBlock[] blocks;
+    /** Height of the most recently recorded block, or -1 if empty. */
+    private int tipHeight = -1;
+    /** Height of the lowest block linked to the tip. */
+    private int baseHeight = -1;
+
+    RecentBlockIndex(final int capacity) {
+        this.blocks = new StoredBlock[capacity];
+    }
+
+    /**
+     * Record a block on the chain being followed.
+     */
+    synchronized void record(final StoredBlock block) {
+        final int height = block.getHeight();
+        if (tipHeight >= 0) {
+            final StoredBlock tip = blocks[slot(tipHeight)];
+            if (height == tipHeight
+                    && tip.getHeader().getHash().equals(block.getHeader().getHash())) {
+                return;
+            }
+            if (height == tipHeight + 1
+                    && tip.getHeader().getHash().equals(block.getHeader().getPrevBlockHash())) {
+                blocks[slot(height)] = block;
+                tipHeight = height;
+                baseHeight = Math.max(baseHeight, height - blocks.length + 1);
+                return;
+            }
+        }
+        blocks[slot(height)] = block;
+        tipHeight = height;
+        baseHeight = height;
+    }
+
+    /**
+     * Find the ancestor of the given block at the given height.
+     *
+     * @return the ancestor, or null if either block is not held.
+     */
+    @Nullable
+    synchronized StoredBlock getAncestor(final StoredBlock block, final int height) {
+        if (tipHeight < 0 || height < baseHeight || height > block.getHeight()
+                || block.getHeight() > tipHeight) {
+            return null;
+        }
+        final StoredBlock held = blocks[slot(block.getHeight())];
+        if (!held.getHeader().getHash().equals(block.getHeader().getHash())) {
+            return null;
+        }
+        return blocks[slot(height)];
+    }
+
+    private int slot(final int height) {
+        return height % blocks.length;
+    }
+}
@@ -87,6 +87,7 @@ public class SyscoinTestNet3Params extends AbstractSyscoinParams {
                                            final BlockStore blockStore) throws VerificationException, BlockStoreException {
         if (!isDifficultyTransitionPoint(storedPrev.getHeight())) {
             Block prev = storedPrev.getHeader();
+            recordStoredPrev(storedPrev);
 
             // After 15th February 2012 the rules on the testnet change to avoid people running up the difficulty
             // and then leaving, making it too hard to mine a block. On non-difficulty transition points, easy
@@ -15,13 +15,19 @@
  */
 package org.bitcoinj.core;
 
+import com.google.common.io.ByteStreams;
+
+import java.util.Arrays;
 import java.util.BitSet;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
 
+import org.libdohj.core.AuxPoWNetworkParameters;
 import org.libdohj.params.SyscoinMainNetParams;
 
 /**
@@ -66,4 +72,73 @@ public class AltcoinBlockTest {
         expected.set(4);
         assertEquals(block.getVersionFlags(), expected);
     }
+
+    @Test
+    public void testVersionAccessors() {
+        AltcoinBlock block = new AltcoinBlock(params, 0x00011704);
+        assertEquals(4, block.getVersion());
+        assertEquals(1, block.getChainID());
+        assertTrue(block.hasVersionFlag(0));
+        assertFalse(block.hasVersionFlag(3));
+        assertTrue(block.hasVersionFlag(4));
+        assertTrue(block.isAuxPoW());
+
+        block = new AltcoinBlock(params, 0x00000004);
+        assertEquals(4, block.getVersion());
+        assertFalse(block.isAuxPoW());
+    }
+
+    @Test
+    public void testParsedVersionAccessors() throws Exception {
+        final byte[] payload = ByteStreams.toByteArray(getClass().getResourceAsStream("dogecoin_block371337.bin"));
+        final AltcoinBlock block = (AltcoinBlock) params.getDefaultSerializer().makeBlock(payload);
+        final long rawVersion = Utils.readUint32(payload, 0);
+        assertEquals(AltcoinBlock.getBaseVersion(rawVersion), block.getVersion());
+        assertEquals(AltcoinBlock.getChainID(rawVersion), block.getChainID());
+        assertEquals(((AuxPoWNetworkParameters) params).isAuxPoWBlockVersion(rawVersion), block.isAuxPoW());
+        assertEquals(block.getVersionFlags(), ((AltcoinBlock) block.cloneAsHeader()).getVersionFlags());
+    }
+
+    /**
+     * Where the payload is retained, the AuxPoW header is only decoded when
+     * requested, but serializes and verifies the same as when decoded eagerly.
+     */
+    @Test
+    public void shouldDecodeAuxPoWLazily() throws Exception {
+        final byte[] payload = ByteStreams.toByteArray(getClass().getResourceAsStream("dogecoin_block371337.bin"));
+        final AltcoinBlock eager = (AltcoinBlock) params.getSerializer(false).makeBlock(payload);
+        final AltcoinBlock lazy = (AltcoinBlock) params.getSerializer(true).makeBlock(payload);
+        final byte[] auxpowBytes = eager.getAuxPoW().bitcoinSerialize();
+
+        assertTrue(lazy.hasAuxPoW());
+        assertEquals(auxpowBytes.length, AuxPoW.calcLength(payload, Block.HEADER_SIZE));
+        assertEquals(eager.getHash(), lazy.getHash());
+        assertEquals(eager.getTransactions(), lazy.getTransactions());
+        assertArrayEquals(eager.cloneAsHeader().bitcoinSerialize(), lazy.cloneAsHeader().bitcoinSerialize());
+
+        assertArrayEquals(auxpowBytes, lazy.getAuxPoW().bitcoinSerialize());
+        assertArrayEquals(eager.cloneAsHeader().bitcoinSerialize(), lazy.cloneAsHeader().bitcoinSerialize());
+    }
+
+    /**
+     * A header cloned from a block whose AuxPoW has not been decoded keeps its
+     * own copy of the AuxPoW bytes, not the whole message it was parsed from.
+     */
+    @Test
+    public void shouldCopyAuxPoWBytesWhenCloningHeader() throws Exception {
+        final byte[] payload = ByteStreams.toByteArray(getClass().getResourceAsStream("dogecoin_block371337.bin"));
+        final byte[] auxpowBytes = ((AltcoinBlock) params.getSerializer(false).makeBlock(payload)).getAuxPoW()
+            .bitcoinSerialize();
+        final AltcoinBlock lazy = (AltcoinBlock) params.getSerializer(true).makeBlock(payload);
+        final AltcoinBlock header = (AltcoinBlock) lazy.cloneAsHeader();
+
+        Arrays.fill(payload, (byte) 0);
+        assertArrayEquals(auxpowBytes, header.getAuxPoW().bitcoinSerialize());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void shouldRejectTruncatedAuxPoW() throws Exception {
+        final byte[] payload = ByteStreams.toByteArray(getClass().getResourceAsStream("dogecoin_block371337.bin"));
+        AuxPoW.calcLength(Arrays.copyOf(payload, Block.HEADER_SIZE + 200), Block.HEADER_SIZE);
+    }
 }
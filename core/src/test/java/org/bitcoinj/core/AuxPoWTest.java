@@ -4,6 +4,7 @@ import java.util.Arrays;
 import java.util.Collections;
 
 import com.google.common.io.ByteStreams;
+import org.libdohj.core.AltcoinNetworkParameters;
 import org.libdohj.core.AltcoinSerializer;
 import org.libdohj.params.SyscoinMainNetParams;
 import org.libdohj.params.SyscoinTestNet3Params;
@@ -49,6 +50,37 @@ public class AuxPoWTest {
         assertEquals(expected, auxpow.getParentBlockHeader().getMerkleRoot());
     }
 
+    /**
+     * Check the parent header view from Syscoin block #403,931 reads the same
+     * fields as the full parent block header.
+     */
+    @Test
+    public void parseAuxPoWParentHeaderView() throws Exception {
+        byte[] auxpowAsBytes = ByteStreams.toByteArray(getClass().getResourceAsStream("auxpow_header.bin"));
+        AuxPoW auxpow = new AuxPoW(params, auxpowAsBytes, (ChildMessage) null, params.getDefaultSerializer());
+        AuxPoWParentHeader view = auxpow.getParentHeader();
+        assertNotNull(view);
+
+        Sha256Hash expected = Sha256Hash.wrap("a22a9b01671d639fa6389f62ecf8ce69204c8ed41d5f1a745e0c5ba7116d5b4c");
+        assertEquals(expected, view.getHash());
+        expected = Sha256Hash.wrap("f29cd14243ed542d9a0b495efcb9feca1b208bb5b717dc5ac04f068d2fef595a");
+        assertEquals(expected, view.getMerkleRoot());
+
+        AltcoinBlock block = auxpow.getParentBlockHeader();
+        assertEquals(block.getRawVersion(), view.getRawVersion());
+        assertEquals(block.getChainID(), view.getChainID());
+        assertEquals(block.getPrevBlockHash(), view.getPrevBlockHash());
+        assertEquals(block.getTimeSeconds(), view.getTimeSeconds());
+        assertEquals(block.getDifficultyTarget(), view.getDifficultyTarget());
+        assertEquals(block.getNonce(), view.getNonce());
+        final AltcoinNetworkParameters altcoinParams = (AltcoinNetworkParameters) params;
+        assertEquals(altcoinParams.getBlockDifficultyHash(block), view.getDifficultyHash(altcoinParams));
+
+        // Once the block has been built, it takes over from the view
+        assertNull(auxpow.getParentHeader());
+        assertSame(block, auxpow.getParentBlockHeader());
+    }
+
     /**
      * Test serializing the AuxPoW header from Syscoin block #403,931.
      */
@@ -244,6 +276,32 @@ public class AuxPoWTest {
             Utils.decodeCompactBits(0x1b06f8f0), true);
     }
 
+    /**
+     * Check that the start of the chain merkle root appearing earlier in the
+     * coinbase transaction does not stop the root itself being found. The
+     * sample header is not for our chain ID, so getting as far as the chain
+     * index check shows the root and header were accepted.
+     */
+    @Test
+    public void shouldFindChainMerkleRootAfterPartialMatch() throws Exception {
+        final byte[] auxpowAsBytes = ByteStreams.toByteArray(getClass().getResourceAsStream("auxpow_header.bin"));
+        final AuxPoW auxpow = new AuxPoW(params, auxpowAsBytes, (ChildMessage) null, params.getDefaultSerializer());
+
+        final TransactionInput in = auxpow.getCoinbase().getInput(0);
+        final byte[] scriptBytes = in.getScriptBytes();
+        final byte[] newBytes = new byte[scriptBytes.length + 4];
+        // Prefix the script with the first four bytes of the chain merkle root
+        System.arraycopy(scriptBytes, 8, newBytes, 0, 4);
+        System.arraycopy(scriptBytes, 0, newBytes, 4, scriptBytes.length);
+        in.setScriptBytes(newBytes);
+        updateMerkleRootToMatchCoinbase(auxpow);
+
+        expectedEx.expect(org.bitcoinj.core.VerificationException.class);
+        expectedEx.expectMessage("Aux POW wrong index");
+        auxpow.checkProofOfWork(Sha256Hash.wrap("0c836b86991631d34a8a68054e2f62db919b39d1ee43c27ab3344d6aa82fa609"),
+            Utils.decodeCompactBits(0x1b06f8f0), true);
+    }
+
     /**
      * Catch the case that the chain merkle branch is not immediately after the
      * merged mine header in the coinbase transaction (this is considered an
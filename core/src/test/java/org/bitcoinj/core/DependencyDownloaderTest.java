@@ -0,0 +1,105 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitcoinj.core;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.bitcoinj.script.ScriptBuilder;
+import org.libdohj.params.SyscoinMainNetParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DependencyDownloaderTest {
+    private static final NetworkParameters params = SyscoinMainNetParams.get();
+
+    private final List<GetDataMessage> sent = new ArrayList<GetDataMessage>();
+    private PendingDataRequests requests;
+    private DependencyDownloader downloader;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(params));
+        final Peer peer = new Peer(params, new VersionMessage(params, 0), null,
+                new PeerAddress(params, InetAddress.getLoopbackAddress())) {
+            @Override
+            public void sendMessage(final Message message) {
+                sent.add((GetDataMessage) message);
+            }
+
+            @Override
+            public VersionMessage getPeerVersionMessage() {
+                return new VersionMessage(params, 0);
+            }
+        };
+        requests = new PendingDataRequests();
+        downloader = new DependencyDownloader(peer, params, requests);
+    }
+
+    @Test
+    public void shouldShareDownloadsAndCacheResults() throws Exception {
+        final Transaction a = createTransaction(1);
+        final Transaction b = createTransaction(2);
+        final ListenableFuture<List<Transaction>> first = downloader.fetch(Arrays.asList(a.getTxId(), b.getTxId()));
+        final ListenableFuture<List<Transaction>> second = downloader.fetch(Collections.singletonList(a.getTxId()));
+        assertEquals(1, sent.size());
+        assertEquals(2, sent.get(0).getItems().size());
+        assertEquals(2, downloader.getPendingCount());
+
+        assertTrue(requests.complete(a));
+        assertTrue(requests.complete(b));
+        assertEquals(Arrays.asList(a, b), first.get());
+        assertEquals(Collections.singletonList(a), second.get());
+        assertEquals(0, downloader.getPendingCount());
+
+        // Fetched again from the cache, without asking the peer
+        assertEquals(Collections.singletonList(b), downloader.fetch(Collections.singletonList(b.getTxId())).get());
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    public void shouldCapBytesInFlight() throws Exception {
+        downloader.setMaxBytesInFlight(DependencyDownloader.ESTIMATED_TX_SIZE * 2);
+        final Transaction a = createTransaction(1);
+        final Transaction b = createTransaction(2);
+        final Transaction c = createTransaction(3);
+        final ListenableFuture<List<Transaction>> future =
+                downloader.fetch(Arrays.asList(a.getTxId(), b.getTxId(), c.getTxId()));
+        assertEquals(1, sent.size());
+        assertEquals(2, sent.get(0).getItems().size());
+
+        // Room is freed once the peer answers, even if it doesn't have the transaction
+        assertEquals(1, requests.cancel(a.getTxId()));
+        assertEquals(2, sent.size());
+        assertEquals(c.getTxId(), sent.get(1).getItems().get(0).hash);
+
+        assertTrue(requests.complete(b));
+        assertTrue(requests.complete(c));
+        assertEquals(Arrays.asList(null, b, c), future.get());
+    }
+
+    private static Transaction createTransaction(final int value) {
+        final Transaction tx = new Transaction(params);
+        tx.addOutput(Coin.valueOf(value), ScriptBuilder.createOpReturnScript(Utils.HEX.decode("deadbeef")));
+        return tx;
+    }
+}
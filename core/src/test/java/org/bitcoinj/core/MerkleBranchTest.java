@@ -7,6 +7,9 @@ import com.google.common.io.ByteStreams;
 import org.bitcoinj.params.TestNet3Params;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -47,6 +50,19 @@ public class MerkleBranchTest {
         assertArrayEquals(expected, actual);
     }
 
+    /**
+     * A hash count that decodes as negative must be rejected when measuring
+     * the branch, rather than moving the caller's cursor backwards.
+     */
+    @Test(expected = ProtocolException.class)
+    public void calcLengthRejectsNegativeCount() throws Exception {
+        byte[] branchAsBytes = ByteStreams.toByteArray(getClass().getResourceAsStream("auxpow_merkle_branch.bin"));
+        byte[] malformed = Arrays.copyOf(branchAsBytes, branchAsBytes.length + 8);
+        malformed[0] = (byte) 0xff;
+        Arrays.fill(malformed, 1, 9, (byte) 0xff);
+        MerkleBranch.calcLength(malformed, 0);
+    }
+
     /**
      * Calculate the AuxPoW merkle branch root from Syscoin block #403,931.
      */
@@ -59,4 +75,33 @@ public class MerkleBranchTest {
 
         assertEquals(expected, branch.calculateMerkleRoot(txId));
     }
+
+    /**
+     * Calculate the same root in place on arrays, and from a branch built from
+     * a list of hashes rather than parsed.
+     */
+    @Test
+    public void calculateRootBranchFromBytes() throws Exception {
+        byte[] branchAsBytes = ByteStreams.toByteArray(getClass().getResourceAsStream("auxpow_merkle_branch2.bin"));
+        MerkleBranch branch = new MerkleBranch(params, (ChildMessage) null, branchAsBytes, 0);
+        Sha256Hash txId = Sha256Hash.wrap("0c836b86991631d34a8a68054e2f62db919b39d1ee43c27ab3344d6aa82fa609");
+        Sha256Hash expected = Sha256Hash.wrap("ce3040fdb7e37484f6a1ca4f8f5da81e6b7e404ec91102315a233e03a0c39c95");
+
+        final byte[] leaf = new byte[40];
+        System.arraycopy(txId.getReversedBytes(), 0, leaf, 4, 32);
+        final byte[] root = new byte[36];
+        branch.calculateMerkleRoot(leaf, 4, root, 2);
+        assertArrayEquals(expected.getReversedBytes(), Arrays.copyOfRange(root, 2, 34));
+
+        final ArrayList<Sha256Hash> hashes = new ArrayList<Sha256Hash>(branch.getHashes());
+        MerkleBranch copy = new MerkleBranch(params, null, hashes, branch.getIndex());
+        assertEquals(expected, copy.calculateMerkleRoot(txId));
+        assertArrayEquals(branchAsBytes, copy.bitcoinSerialize());
+        assertEquals(branch, copy);
+
+        // The branch keeps its own copy of the hashes
+        hashes.clear();
+        assertEquals(expected, copy.calculateMerkleRoot(txId));
+        assertArrayEquals(branchAsBytes, copy.bitcoinSerialize());
+    }
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitcoinj.core;
+
+import org.libdohj.params.SyscoinMainNetParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MessagePipelineTest {
+    private static final NetworkParameters params = SyscoinMainNetParams.get();
+
+    /** Holds tasks until the test runs them, in whatever order it likes. */
+    private final List<Runnable> tasks = Collections.synchronizedList(new ArrayList<Runnable>());
+    private final List<Message> applied = Collections.synchronizedList(new ArrayList<Message>());
+    private final Executor workers = new Executor() {
+        @Override
+        public void execute(final Runnable runnable) {
+            tasks.add(runnable);
+        }
+    };
+    private final MessagePipeline.Sink sink = new MessagePipeline.Sink() {
+        @Override
+        public void apply(final Message message) {
+            applied.add(message);
+        }
+
+        @Override
+        public void failed(final Message message, final Exception e) {
+            fail("Unexpected failure: " + e);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(params));
+    }
+
+    @Test
+    public void shouldApplyInArrivalOrder() throws Exception {
+        final MessagePipeline pipeline = new MessagePipeline(workers, 10, sink);
+        final Message first = new Ping(1);
+        final Message second = new Ping(2);
+        final Message third = new Ping(3);
+        pipeline.submit(first);
+        pipeline.submit(second);
+        pipeline.submit(third);
+        assertEquals(3, pipeline.getQueuedCount());
+
+        // Prepared out of order, but nothing is applied ahead of the first message
+        tasks.get(2).run();
+        tasks.get(1).run();
+        assertTrue(applied.isEmpty());
+        tasks.get(0).run();
+        assertEquals(Arrays.asList(first, second, third), applied);
+        assertEquals(0, pipeline.getQueuedCount());
+    }
+
+    @Test
+    public void shouldCloseAfterQueuedMessages() throws Exception {
+        final MessagePipeline pipeline = new MessagePipeline(workers, 10, sink);
+        final Message first = new Ping(1);
+        pipeline.submit(first);
+        final List<Message> appliedWhenClosed = new ArrayList<Message>();
+        pipeline.close(new Runnable() {
+            @Override
+            public void run() {
+                appliedWhenClosed.addAll(applied);
+            }
+        });
+        assertTrue(appliedWhenClosed.isEmpty());
+
+        tasks.get(0).run();
+        assertEquals(Collections.singletonList(first), appliedWhenClosed);
+
+        // Anything read after the close is dropped
+        pipeline.submit(new Ping(2));
+        assertEquals(1, tasks.size());
+        assertEquals(0, pipeline.getQueuedCount());
+    }
+
+    @Test
+    public void shouldBlockWhenFull() throws Exception {
+        final MessagePipeline pipeline = new MessagePipeline(workers, 1, sink);
+        pipeline.submit(new Ping(1));
+
+        final CountDownLatch submitted = new CountDownLatch(1);
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pipeline.submit(new Ping(2));
+                    submitted.countDown();
+                } catch (InterruptedException e) {
+                    // Test has given up
+                }
+            }
+        });
+        reader.start();
+        assertFalse(submitted.await(100, TimeUnit.MILLISECONDS));
+
+        // Applying the first message makes room for the second
+        tasks.get(0).run();
+        assertTrue(submitted.await(10, TimeUnit.SECONDS));
+        tasks.get(1).run();
+        assertEquals(2, applied.size());
+        reader.join();
+    }
+
+    @Test
+    public void shouldRefuseOfferWhenFull() throws Exception {
+        final MessagePipeline pipeline = new MessagePipeline(workers, 1, sink);
+        final Message first = new Ping(1);
+        assertTrue(pipeline.offer(first));
+        assertFalse(pipeline.offer(new Ping(2)));
+        assertEquals(1, pipeline.getQueuedCount());
+
+        // Applying the first message makes room again
+        tasks.get(0).run();
+        final Message third = new Ping(3);
+        assertTrue(pipeline.offer(third));
+        tasks.get(1).run();
+        assertEquals(Arrays.asList(first, third), applied);
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitcoinj.core;
+
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.bitcoinj.net.MessageWriteTarget;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.libdohj.params.SyscoinMainNetParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class PeerTest {
+    private static final NetworkParameters params = SyscoinMainNetParams.get();
+    private static final Sha256Hash FIRST_BATCH_END = Sha256Hash.of(new byte[] { 1 });
+    private static final Sha256Hash SECOND_BATCH_END = Sha256Hash.of(new byte[] { 2 });
+
+    private final List<Message> sent = new ArrayList<Message>();
+    private boolean sentWhileLocked;
+    private Peer peer;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(params));
+        Utils.setMockClock();
+        final BlockChain chain = new BlockChain(params, new MemoryBlockStore(params));
+        peer = new Peer(params, new VersionMessage(params, 0), chain,
+                new PeerAddress(params, InetAddress.getLoopbackAddress())) {
+            @Override
+            public void sendMessage(final Message message) {
+                sent.add(message);
+                sentWhileLocked |= lock.isHeldByCurrentThread();
+            }
+
+            @Override
+            public long getBestHeight() {
+                return 1000;
+            }
+        };
+        peer.setBlockDownloadWindow(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        // bitcoinj 0.15 has no Utils.resetMocking(), so put the real clock back by hand
+        final Field mockTime = Utils.class.getDeclaredField("mockTime");
+        mockTime.setAccessible(true);
+        mockTime.set(null, null);
+    }
+
+    @Test
+    public void shouldContinueFromBatchEnd() {
+        final GetBlocksMessage message;
+        peer.lock.lock();
+        try {
+            message = peer.buildGetBlocksAfterLocked(FIRST_BATCH_END);
+        } finally {
+            peer.lock.unlock();
+        }
+        final List<Sha256Hash> locator = message.getLocator().getHashes();
+        assertEquals(FIRST_BATCH_END, locator.get(0));
+        // Followed by our chain head, in case the peer has not heard of the batch end
+        assertEquals(params.getGenesisBlock().getHash(), locator.get(1));
+        assertEquals(Sha256Hash.ZERO_HASH, message.getStopHash());
+    }
+
+    @Test
+    public void shouldDeferGetBlocksWhenWindowFull() {
+        announceBatches();
+        assertTrue(isPipelining());
+
+        // The first batch leaving the window makes room for the one deferred
+        peer.blockBatchProgress(FIRST_BATCH_END);
+        assertEquals(1, sent.size());
+        assertEquals(SECOND_BATCH_END, ((GetBlocksMessage) sent.get(0)).getLocator().getHashes().get(0));
+
+        peer.blockBatchProgress(SECOND_BATCH_END);
+        assertFalse(isPipelining());
+    }
+
+    @Test
+    public void shouldResetWindowOnChainDownload() {
+        announceBatches();
+        peer.startBlockChainDownload();
+        assertFalse(isPipelining());
+        assertEquals(params.getGenesisBlock().getHash(), lastGetBlocksStart());
+    }
+
+    @Test
+    public void shouldRestartWhenBatchEndNotFound() {
+        announceBatches();
+        peer.processNotFoundMessage(new NotFoundMessage(params,
+                Collections.singletonList(new InventoryItem(InventoryItem.Type.BLOCK, FIRST_BATCH_END))));
+        assertFalse(isPipelining());
+        assertEquals(params.getGenesisBlock().getHash(), lastGetBlocksStart());
+        assertFalse(sentWhileLocked);
+    }
+
+    @Test
+    public void shouldRestartWhenWindowStalls() {
+        announceBatches();
+        Utils.rollMockClock((int) (Peer.BLOCK_BATCH_STALL_MILLIS / 1000) - 1);
+        // A block from the window arriving holds the stall off
+        peer.blockBatchProgress(Sha256Hash.ZERO_HASH);
+        Utils.rollMockClock(2);
+        peer.checkBlockBatchStall();
+        assertTrue(isPipelining());
+        assertTrue(sent.isEmpty());
+
+        Utils.rollMockClock((int) (Peer.BLOCK_BATCH_STALL_MILLIS / 1000));
+        peer.checkBlockBatchStall();
+        assertFalse(isPipelining());
+        assertEquals(params.getGenesisBlock().getHash(), lastGetBlocksStart());
+        assertFalse(sentWhileLocked);
+    }
+
+    @Test
+    public void shouldPassHeadersToChainAfterCancelledRequest() throws Exception {
+        receiveVersion();
+        // Catching up with headers, from just after genesis
+        peer.setDownloadParameters(params.getGenesisBlock().getTimeSeconds() + 1, false);
+        final ListenableFuture<List<Block>> request = peer.getBlockHeaders(new BlockLocator(), Sha256Hash.ZERO_HASH);
+        // The caller gives up, and the peer never answers
+        request.cancel(false);
+        sent.clear();
+
+        // The next headers are the chain's, so are added to it; this one is past the catchup time
+        peer.processHeaders(new HeadersMessage(params, buildHeader(params.getGenesisBlock().getTimeSeconds() + 100)));
+        assertEquals(1, sent.size());
+        assertEquals(params.getGenesisBlock().getHash(), lastGetBlocksStart());
+    }
+
+    @Test
+    public void shouldDropLateHeadersWhenNotCatchingUp() throws Exception {
+        receiveVersion();
+        final ListenableFuture<List<Block>> request = peer.getBlockHeaders(new BlockLocator(), Sha256Hash.ZERO_HASH);
+        request.cancel(false);
+        sent.clear();
+
+        peer.processHeaders(new HeadersMessage(params, buildHeader(params.getGenesisBlock().getTimeSeconds() + 100)));
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    public void shouldPipelineGetBlocksOnFullInv() throws Exception {
+        receiveVersion();
+        // A full batch, as announced in answer to a getblocks
+        final InventoryItem[] batch = new InventoryItem[500];
+        for (int itemIdx = 0; itemIdx < batch.length; itemIdx++)
+            batch[itemIdx] = new InventoryItem(InventoryItem.Type.BLOCK, hash(itemIdx));
+        peer.processInv(buildInv(batch));
+
+        assertEquals(2, sent.size());
+        assertGetData(Arrays.asList(batch), sent.get(0));
+        // The next batch is asked for straight away, continuing from the last block announced
+        assertEquals(batch[batch.length - 1].hash, lastGetBlocksStart());
+        assertTrue(isPipelining());
+        assertFalse(sentWhileLocked);
+    }
+
+    @Test
+    public void shouldCloseSharedThreadConnectionWhenQueueFull() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        peer.setStagedMessageProcessing(new Executor() {
+            @Override
+            public void execute(final Runnable runnable) {
+                tasks.add(runnable);
+            }
+        }, 2);
+        // Like an NIO connection, whose thread is shared with other peers
+        final AtomicBoolean closed = new AtomicBoolean();
+        peer.setWriteTarget(new MessageWriteTarget() {
+            @Override
+            public void writeBytes(final byte[] message) {
+            }
+
+            @Override
+            public void closeConnection() {
+                closed.set(true);
+            }
+        });
+
+        peer.processMessage(new Ping(1));
+        peer.processMessage(new Ping(2));
+        assertFalse(closed.get());
+        // Rather than block the thread, the peer is dropped
+        peer.processMessage(new Ping(3));
+        assertTrue(closed.get());
+        assertEquals(2, tasks.size());
+    }
+
+    @Test
+    public void shouldRouteInventoryToRegisteredQueue() throws Exception {
+        receiveVersion();
+        final BlockingQueue<InventoryItem> queue = new ArrayBlockingQueue<InventoryItem>(10);
+        peer.setInventoryQueue(InventoryItem.Type.SPORK, queue);
+        final InventoryItem spork = new InventoryItem(InventoryItem.Type.SPORK, hash(1));
+        final InventoryItem vote = new InventoryItem(InventoryItem.Type.GOVERNANCE_OBJECT_VOTE, hash(2));
+        peer.processInv(buildInv(spork, vote));
+
+        // Only the type with a queue is routed, and neither is requested
+        assertEquals(Collections.singletonList(spork), new ArrayList<InventoryItem>(queue));
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    public void shouldIgnoreInventoryWithoutQueue() throws Exception {
+        receiveVersion();
+        final BlockingQueue<InventoryItem> queue = new ArrayBlockingQueue<InventoryItem>(10);
+        peer.setInventoryQueue(InventoryItem.Type.MASTERNODE_PING, queue);
+        peer.setInventoryQueue(InventoryItem.Type.MASTERNODE_PING, null);
+        peer.processInv(buildInv(new InventoryItem(InventoryItem.Type.MASTERNODE_PING, hash(1)),
+                new InventoryItem(InventoryItem.Type.GOVERNANCE_OBJECT, hash(2))));
+
+        assertTrue(queue.isEmpty());
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    public void shouldDropInventoryWhenQueueFull() throws Exception {
+        receiveVersion();
+        final BlockingQueue<InventoryItem> queue = new ArrayBlockingQueue<InventoryItem>(1);
+        peer.setInventoryQueue(InventoryItem.Type.SPORK, queue);
+        final InventoryItem first = new InventoryItem(InventoryItem.Type.SPORK, hash(1));
+        final InventoryItem tx = new InventoryItem(InventoryItem.Type.TRANSACTION, hash(3));
+        peer.processInv(buildInv(first, new InventoryItem(InventoryItem.Type.SPORK, hash(2)), tx));
+
+        // The second is dropped, and the rest of the inv is still handled
+        assertEquals(Collections.singletonList(first), new ArrayList<InventoryItem>(queue));
+        assertEquals(Collections.singletonList(tx), ((GetDataMessage) sent.get(0)).getItems());
+    }
+
+    @Test
+    public void shouldReuseInvScratchArrays() throws Exception {
+        receiveVersion();
+        final List<InventoryItem> announced = new ArrayList<InventoryItem>();
+        for (int itemIdx = 0; itemIdx < 3; itemIdx++) {
+            announced.add(new InventoryItem(InventoryItem.Type.TRANSACTION, hash(itemIdx)));
+            announced.add(new InventoryItem(InventoryItem.Type.BLOCK, hash(100 + itemIdx)));
+        }
+        peer.processInv(buildInv(announced.toArray(new InventoryItem[announced.size()])));
+        assertGetData(announced, sent.get(0));
+        final Sha256Hash[] transactions = peer.invTransactionHashes;
+        final Sha256Hash[] blocks = peer.invBlockHashes;
+        assertEquals(6, transactions.length);
+        assertAllNull(transactions);
+        assertAllNull(blocks);
+
+        // A smaller inv uses the same arrays, without picking up anything from the one before
+        final InventoryItem tx = new InventoryItem(InventoryItem.Type.TRANSACTION, hash(10));
+        final InventoryItem block = new InventoryItem(InventoryItem.Type.BLOCK, hash(110));
+        peer.processInv(buildInv(block, tx));
+        assertGetData(Arrays.asList(block, tx), sent.get(1));
+        assertSame(transactions, peer.invTransactionHashes);
+        assertSame(blocks, peer.invBlockHashes);
+        assertAllNull(transactions);
+        assertAllNull(blocks);
+
+        // One too big to keep arrays for gets its own
+        final InventoryItem[] large = new InventoryItem[Peer.MAX_RETAINED_INV_SCRATCH + 1];
+        for (int itemIdx = 0; itemIdx < large.length; itemIdx++)
+            large[itemIdx] = new InventoryItem(InventoryItem.Type.BLOCK, hash(1000 + itemIdx));
+        peer.processInv(buildInv(large));
+        assertGetData(Arrays.asList(large), sent.get(2));
+        assertSame(transactions, peer.invTransactionHashes);
+        assertSame(blocks, peer.invBlockHashes);
+    }
+
+    private void receiveVersion() throws Exception {
+        final VersionMessage version = new VersionMessage(params, 1000);
+        version.localServices = VersionMessage.NODE_NETWORK;
+        peer.processMessage(version);
+        // Drop the verack
+        sent.clear();
+    }
+
+    private static Block buildHeader(final long timeSeconds) {
+        return new AltcoinBlock(params, 1, params.getGenesisBlock().getHash(), Sha256Hash.ZERO_HASH, timeSeconds,
+                params.getGenesisBlock().getDifficultyTarget(), 0, Collections.<Transaction>emptyList());
+    }
+
+    private static InventoryMessage buildInv(final InventoryItem... items) {
+        final InventoryMessage inv = new InventoryMessage(params);
+        for (InventoryItem item : items)
+            inv.addItem(item);
+        return inv;
+    }
+
+    private static Sha256Hash hash(final int seed) {
+        return Sha256Hash.of(Ints.toByteArray(seed));
+    }
+
+    // Transactions are requested ahead of blocks, otherwise in the order announced.
+    private static void assertGetData(final List<InventoryItem> announced, final Message message) {
+        final List<InventoryItem> expected = new ArrayList<InventoryItem>();
+        for (InventoryItem item : announced)
+            if (item.type == InventoryItem.Type.TRANSACTION)
+                expected.add(item);
+        for (InventoryItem item : announced)
+            if (item.type == InventoryItem.Type.BLOCK)
+                expected.add(item);
+        assertEquals(expected, ((GetDataMessage) message).getItems());
+    }
+
+    private static void assertAllNull(final Sha256Hash[] hashes) {
+        for (Sha256Hash hash : hashes)
+            assertNull(hash);
+    }
+
+    private void announceBatches() {
+        peer.lock.lock();
+        try {
+            final GetBlocksMessage next = peer.blockBatchAnnouncedLocked(FIRST_BATCH_END);
+            assertNotNull(next);
+            assertEquals(FIRST_BATCH_END, next.getLocator().getHashes().get(0));
+            // The window is full, so the getblocks after the second batch waits
+            assertNull(peer.blockBatchAnnouncedLocked(SECOND_BATCH_END));
+        } finally {
+            peer.lock.unlock();
+        }
+    }
+
+    private boolean isPipelining() {
+        peer.lock.lock();
+        try {
+            return peer.isPipeliningBlocksLocked();
+        } finally {
+            peer.lock.unlock();
+        }
+    }
+
+    private Sha256Hash lastGetBlocksStart() {
+        final GetBlocksMessage message = (GetBlocksMessage) sent.get(sent.size() - 1);
+        return message.getLocator().getHashes().get(0);
+    }
+}
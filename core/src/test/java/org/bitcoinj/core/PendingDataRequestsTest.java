@@ -0,0 +1,102 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitcoinj.core;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.libdohj.params.SyscoinMainNetParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class PendingDataRequestsTest {
+    private static final NetworkParameters params = SyscoinMainNetParams.get();
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(params));
+    }
+
+    @Test
+    public void shouldCompleteEveryRequestForHash() throws Exception {
+        final PendingDataRequests requests = new PendingDataRequests();
+        final Block block = params.getGenesisBlock();
+        final SettableFuture<Block> first = requests.add(block.getHash(), 0);
+        final SettableFuture<Block> second = requests.add(block.getHash(), 0);
+        final SettableFuture<Block> other = requests.add(Sha256Hash.ZERO_HASH, 0);
+        assertEquals(2, requests.size());
+
+        assertTrue(requests.complete(block));
+        assertSame(block, first.get());
+        assertSame(block, second.get());
+        assertFalse(other.isDone());
+        // Already answered, so a second copy is unrequested
+        assertFalse(requests.complete(block));
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void shouldDropCancelledRequests() {
+        final PendingDataRequests requests = new PendingDataRequests();
+        final Block block = params.getGenesisBlock();
+        final SettableFuture<Block> cancelled = requests.add(block.getHash(), 0);
+        final SettableFuture<Block> kept = requests.add(block.getHash(), 0);
+
+        cancelled.cancel(false);
+        assertTrue(requests.complete(block));
+        assertTrue(kept.isDone());
+        assertEquals(0, requests.size());
+
+        final SettableFuture<Block> notFound = requests.add(block.getHash(), 0);
+        assertEquals(1, requests.cancel(block.getHash()));
+        assertTrue(notFound.isCancelled());
+        assertEquals(0, requests.cancel(block.getHash()));
+    }
+
+    @Test
+    public void shouldTimeOutRequests() throws Exception {
+        final PendingDataRequests requests = new PendingDataRequests();
+        final Block block = params.getGenesisBlock();
+        final SettableFuture<Block> future = requests.add(block.getHash(), 10);
+        final CountDownLatch listened = new CountDownLatch(1);
+        final AtomicReference<Thread> listenerThread = new AtomicReference<Thread>();
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                listenerThread.set(Thread.currentThread());
+                listened.countDown();
+            }
+        }, MoreExecutors.directExecutor());
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("Expected request to time out");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof TimeoutException);
+        }
+        // Listeners may block, so must not hold up the timeouts shared by every peer
+        assertTrue(listened.await(10, TimeUnit.SECONDS));
+        assertNotEquals("Peer timeouts", listenerThread.get().getName());
+        assertEquals(0, requests.size());
+        assertFalse(requests.complete(block));
+    }
+}
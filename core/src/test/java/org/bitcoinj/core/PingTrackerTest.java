@@ -0,0 +1,67 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitcoinj.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PingTrackerTest {
+    @Test
+    public void shouldTrackPingTimes() {
+        final PingTracker<String> tracker = new PingTracker<String>(3, 4);
+        assertEquals(PingTracker.NO_SAMPLE, tracker.getLast());
+        assertEquals(PingTracker.NO_SAMPLE, tracker.getAverage());
+        assertEquals(PingTracker.NO_SAMPLE, tracker.getMin());
+        assertEquals(PingTracker.NO_SAMPLE, tracker.getMax());
+
+        tracker.addSample(100);
+        assertEquals(100, tracker.getLast());
+        assertEquals(100, tracker.getAverage());
+        assertEquals(100, tracker.getMin());
+        assertEquals(100, tracker.getMax());
+
+        // Each sample has a weight of a half with a window of three
+        tracker.addSample(200);
+        assertEquals(150, tracker.getAverage());
+        tracker.addSample(50);
+        assertEquals(100, tracker.getAverage());
+        assertEquals(50, tracker.getLast());
+        assertEquals(50, tracker.getMin());
+        assertEquals(200, tracker.getMax());
+    }
+
+    @Test
+    public void shouldMatchPongsToPendingPings() {
+        final PingTracker<String> tracker = new PingTracker<String>(20, 8);
+        // Nonces which hash to the same slot still each find their own ping
+        for (long nonce = 0; nonce < 8; nonce++) {
+            assertTrue(tracker.addPending(nonce << 40, "ping " + nonce));
+        }
+        assertFalse(tracker.addPending(99, "one too many"));
+        assertEquals(8, tracker.getPendingCount());
+
+        assertEquals("ping 5", tracker.removePending(5L << 40));
+        assertNull(tracker.removePending(5L << 40));
+        assertNull(tracker.removePending(12345));
+        assertEquals(7, tracker.getPendingCount());
+
+        // The freed slot can be reused
+        assertTrue(tracker.addPending(99, "ping 99"));
+        assertEquals("ping 99", tracker.removePending(99));
+        assertEquals("ping 0", tracker.removePending(0));
+    }
+}
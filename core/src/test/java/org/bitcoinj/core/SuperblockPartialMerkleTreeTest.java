@@ -26,6 +26,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import org.bitcoinj.core.Utils;
 import static org.junit.Assert.*;
 import static org.hamcrest.CoreMatchers.*;
@@ -200,5 +201,130 @@ public class SuperblockPartialMerkleTreeTest {
 
     }
 
+    @Test
+    public void shouldMatchPartialMerkleTree() throws Exception {
+        NetworkParameters params = UnitTestParams.get();
+        Random random = new Random(1);
+        for (int leafCount : new int[] {1, 2, 3, 7, 9, 100, 1001}) {
+            List<Sha256Hash> hashList = new ArrayList<Sha256Hash>();
+            for (int i = 0; i < leafCount; i++) {
+                hashList.add(Sha256Hash.of(Utils.HEX.decode(String.format("%08x", i))));
+            }
+            byte[] includeBits = new byte[(leafCount + 7) / 8];
+            List<Sha256Hash> included = new ArrayList<Sha256Hash>();
+            for (int i = 0; i < leafCount; i++) {
+                if (random.nextInt(10) == 0 || i == leafCount - 1) {
+                    Utils.setBitLE(includeBits, i);
+                    included.add(hashList.get(i));
+                }
+            }
+            SuperblockPartialMerkleTree pmt = SuperblockPartialMerkleTree.buildFromLeaves(params, includeBits, hashList);
+            PartialMerkleTree expected = PartialMerkleTree.buildFromLeaves(params, includeBits, hashList);
+            assertArrayEquals(expected.bitcoinSerialize(), pmt.bitcoinSerialize());
+
+            List<Sha256Hash> out = new ArrayList<Sha256Hash>();
+            List<Sha256Hash> expectedOut = new ArrayList<Sha256Hash>();
+            assertEquals(expected.getTxnHashAndMerkleRoot(expectedOut), pmt.getTxnHashAndMerkleRoot(out));
+            assertEquals(included, out);
+        }
+    }
+
+    @Test
+    public void shouldBuildTransactionProofs() throws Exception {
+        NetworkParameters params = UnitTestParams.get();
+        for (int leafCount : new int[] {1, 8, 9, 100}) {
+            List<Sha256Hash> hashList = new ArrayList<Sha256Hash>();
+            for (int i = 0; i < leafCount; i++) {
+                hashList.add(Sha256Hash.of(Utils.HEX.decode(String.format("%08x", i))));
+            }
+            byte[] includeBits = new byte[(leafCount + 7) / 8];
+            Arrays.fill(includeBits, (byte) 0xff);
+            SuperblockPartialMerkleTree pmt = SuperblockPartialMerkleTree.buildFromLeaves(params, includeBits, hashList);
+
+            List<Sha256Hash> requested = new ArrayList<Sha256Hash>(hashList);
+            Collections.reverse(requested);
+            List<SuperblockPartialMerkleTree.TransactionProof> proofs =
+                SuperblockPartialMerkleTree.buildTransactionProofs(hashList, requested);
+            assertEquals(requested.size(), proofs.size());
+            for (int i = 0; i < requested.size(); i++) {
+                SuperblockPartialMerkleTree.TransactionProof proof = proofs.get(i);
+                assertEquals(requested.get(i), proof.getTxHash());
+                assertEquals(pmt.getTransactionIndex(requested.get(i)), proof.getIndex());
+                assertEquals(pmt.getTransactionPath(requested.get(i)), proof.getPath());
+            }
+        }
+    }
+
+    @Test
+    public void shouldAnswerQueriesOnParsedTree() throws Exception {
+        NetworkParameters params = UnitTestParams.get();
+        List<Sha256Hash> hashList = new ArrayList<Sha256Hash>();
+        for (int i = 0; i < 9; i++) {
+            hashList.add(allHashes.get(""+i));
+        }
+        SuperblockPartialMerkleTree built = SuperblockPartialMerkleTree.buildFromLeaves(params, Utils.HEX.decode("0101"), hashList);
+        SuperblockPartialMerkleTree pmt = new SuperblockPartialMerkleTree(params, built.bitcoinSerialize(), 0);
+
+        assertEquals(0, pmt.getTransactionIndex(allHashes.get("0")));
+        assertEquals(8, pmt.getTransactionIndex(allHashes.get("8")));
+        assertEquals(Arrays.asList(allHashes.get("8"), allHashes.get("88"), allHashes.get("8888"), allHashes.get("01234567")),
+            pmt.getTransactionPath(allHashes.get("8")));
+        try {
+            // Only in the tree to prove leaf 0
+            pmt.getTransactionIndex(allHashes.get("1"));
+            fail("Expected VerificationException");
+        } catch (VerificationException e) {
+        }
+    }
+
+    @Test
+    public void shouldCalculateSameRootInParallel() throws Exception {
+        NetworkParameters params = UnitTestParams.get();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int leafCount : new int[] {5, 4096, 20001}) {
+                List<Sha256Hash> hashList = new ArrayList<Sha256Hash>();
+                for (int i = 0; i < leafCount; i++) {
+                    hashList.add(Sha256Hash.of(Utils.HEX.decode(String.format("%08x", i))));
+                }
+                // Reduce level by level, pairing the last node with itself where the level is odd
+                List<Sha256Hash> level = hashList;
+                while (level.size() > 1) {
+                    List<Sha256Hash> next = new ArrayList<Sha256Hash>();
+                    for (int i = 0; i < level.size(); i += 2) {
+                        Sha256Hash right = level.get(Math.min(i + 1, level.size() - 1));
+                        next.add(SuperblockPartialMerkleTree.combineLeftRight(level.get(i).getBytes(), right.getBytes()));
+                    }
+                    level = next;
+                }
+                Sha256Hash expected = level.get(0);
+                assertEquals(expected, SuperblockPartialMerkleTree.calculateMerkleRoot(hashList));
+                assertEquals(expected, SuperblockPartialMerkleTree.calculateMerkleRoot(hashList, pool));
+
+                byte[] includeBits = new byte[(leafCount + 7) / 8];
+                Utils.setBitLE(includeBits, leafCount - 1);
+                assertArrayEquals(SuperblockPartialMerkleTree.buildFromLeaves(params, includeBits, hashList).bitcoinSerialize(),
+                    SuperblockPartialMerkleTree.buildFromLeaves(params, includeBits, hashList, pool).bitcoinSerialize());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = VerificationException.class)
+    public void shouldRejectProofOfMissingTransaction() throws Exception {
+        List<Sha256Hash> hashList = Arrays.asList(allHashes.get("0"), allHashes.get("1"), allHashes.get("2"));
+        SuperblockPartialMerkleTree.buildTransactionProofs(hashList, Collections.singletonList(allHashes.get("3")));
+    }
+
+    @Test(expected = VerificationException.class)
+    public void shouldRejectDuplicatedBranches() throws Exception {
+        NetworkParameters params = UnitTestParams.get();
+        // Three leaves, where the last two are the same, so the tree can be padded to look like four
+        List<Sha256Hash> hashList = Arrays.asList(allHashes.get("0"), allHashes.get("1"), allHashes.get("2"), allHashes.get("2"));
+        SuperblockPartialMerkleTree pmt = SuperblockPartialMerkleTree.buildFromLeaves(params, Utils.HEX.decode("0f"), hashList);
+        pmt.getTxnHashAndMerkleRoot(new ArrayList<Sha256Hash>());
+    }
+
 
 }
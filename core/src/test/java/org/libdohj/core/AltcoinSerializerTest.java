@@ -0,0 +1,166 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import com.google.common.io.ByteStreams;
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.FilteredBlock;
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.MessageSerializer;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Ping;
+import org.bitcoinj.core.PartialMerkleTree;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Utils;
+import org.libdohj.params.SyscoinMainNetParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AltcoinSerializerTest {
+    private static final NetworkParameters params = SyscoinMainNetParams.get();
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+    }
+
+    @Test
+    public void shouldRoundTripPing() throws Exception {
+        final MessageSerializer serializer = params.getDefaultSerializer();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.serialize(new Ping(12345L), out);
+
+        final Message message = serializer.deserialize(ByteBuffer.wrap(out.toByteArray()));
+        assertTrue(message instanceof Ping);
+        assertEquals(12345L, ((Ping) message).getNonce());
+    }
+
+    @Test
+    public void shouldSkipChecksumIfNotVerifying() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        params.getDefaultSerializer().serialize(new Ping(12345L), out);
+        final byte[] packet = out.toByteArray();
+        packet[packet.length - 1] ^= 1; // Corrupt the nonce
+
+        final AltcoinSerializer trusting = new AltcoinSerializer(params, false, false, false);
+        final Message message = trusting.deserialize(ByteBuffer.wrap(packet));
+        assertEquals(12345L ^ (1L << 56), ((Ping) message).getNonce());
+
+        try {
+            new AltcoinSerializer(params, false).deserialize(ByteBuffer.wrap(packet));
+            fail("Expected checksum verification to fail");
+        } catch (ProtocolException expected) {
+            assertTrue(expected.getMessage().startsWith("Checksum failed to verify"));
+        }
+    }
+
+    @Test
+    public void shouldSliceBlockPayload() throws Exception {
+        final byte[] payload = ByteStreams.toByteArray(getClass().getResourceAsStream("/org/bitcoinj/core/dogecoin_block371337.bin"));
+        final AltcoinSerializer copying = new AltcoinSerializer(params, false);
+        final AltcoinSerializer slicing = new AltcoinSerializer(params, false, true);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copying.serialize("block", payload, out);
+        out.write(new byte[] {1, 2, 3});
+        final ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+
+        final Block expected = copying.makeBlock(payload);
+        final Block actual = (Block) slicing.deserialize(in);
+        assertEquals(3, in.remaining());
+        assertEquals(expected.getHash(), actual.getHash());
+        assertEquals(expected.getTransactions(), actual.getTransactions());
+        assertArrayEquals(((AltcoinBlock) expected).getAuxPoW().bitcoinSerialize(), ((AltcoinBlock) actual).getAuxPoW().bitcoinSerialize());
+    }
+
+    @Test
+    public void shouldSliceAuxPoWFilteredBlock() throws Exception {
+        final byte[] blockBytes = ByteStreams.toByteArray(getClass().getResourceAsStream("/org/bitcoinj/core/dogecoin_block371337.bin"));
+        final AltcoinSerializer serializer = new AltcoinSerializer(params, false, true);
+        final AltcoinBlock block = (AltcoinBlock) serializer.makeBlock(blockBytes);
+        assertNotNull(block.getAuxPoW());
+        final List<Sha256Hash> txids = new ArrayList<Sha256Hash>();
+        for (Transaction tx : block.getTransactions()) {
+            txids.add(tx.getTxId());
+        }
+        final byte[] bits = new byte[(txids.size() + 7) / 8];
+        Utils.setBitLE(bits, 0);
+        final PartialMerkleTree pmt = PartialMerkleTree.buildFromLeaves(params, bits, txids);
+        final byte[] filteredBytes = new FilteredBlock(params, block.cloneAsHeader(), pmt).bitcoinSerialize();
+
+        final byte[] padded = new byte[filteredBytes.length + 10];
+        System.arraycopy(filteredBytes, 0, padded, 5, filteredBytes.length);
+        final FilteredBlock filtered = serializer.makeFilteredBlock(padded, 5, filteredBytes.length);
+        assertEquals(block.getHash(), filtered.getHash());
+        assertArrayEquals(block.getAuxPoW().bitcoinSerialize(), ((AltcoinBlock) filtered.getBlockHeader()).getAuxPoW().bitcoinSerialize());
+        assertEquals(Collections.singletonList(txids.get(0)), filtered.getTransactionHashes());
+    }
+
+    @Test
+    public void shouldLookUpByHeaderBytes() {
+        final MessageFactoryRegistry registry = new MessageFactoryRegistry();
+        final MessageFactory shortFactory = new TestFactory();
+        final MessageFactory fullLengthFactory = new TestFactory();
+        registry.register("mnb", shortFactory);
+        registry.register("abcdefghijkl", fullLengthFactory);
+
+        // Anything after the terminating null is not part of the command
+        final byte[] header = new byte[] {'m', 'n', 'b', 0, 'x', 'x', 0, 0, 0, 0, 0, 0, 1, 2, 3, 4};
+        assertSame(shortFactory, registry.get(header));
+        assertSame(fullLengthFactory, registry.get("abcdefghijkl"));
+        assertNull(registry.get("mn"));
+        assertNull(registry.get("abcdefghijk"));
+    }
+
+    @Test
+    public void shouldGrowAndReplace() {
+        final MessageFactoryRegistry registry = new MessageFactoryRegistry();
+        final MessageFactory[] factories = new MessageFactory[100];
+        for (int idx = 0; idx < factories.length; idx++) {
+            factories[idx] = new TestFactory();
+            registry.register("cmd" + idx, factories[idx]);
+        }
+        final MessageFactory replacement = new TestFactory();
+        registry.register("cmd7", replacement);
+
+        for (int idx = 0; idx < factories.length; idx++) {
+            assertSame(idx == 7 ? replacement : factories[idx], registry.get("cmd" + idx));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectLongCommand() {
+        new MessageFactoryRegistry().register("abcdefghijklm", new TestFactory());
+    }
+
+    private static class TestFactory implements MessageFactory {
+        @Override
+        public Message makeMessage(AltcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash) throws ProtocolException {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.core.VerificationException;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompactTargetTest {
+    @Test
+    public void shouldMatchBigIntegerComparison() {
+        final Random random = new Random(42);
+        final long[] compacts = {0x1d00ffffL, 0x1e0fffffL, 0x1b0404cbL, 0x207fffffL, 0x1a01cd2dL};
+        for (long compact : compacts) {
+            final CompactTarget target = CompactTarget.decode(compact);
+            final BigInteger value = Utils.decodeCompactBits(compact);
+            assertEquals(value, target.toBigInteger());
+
+            // Hashes either side of, and equal to, the target
+            assertTrue(target.isMetBy(toHash(value)));
+            assertFalse(target.isMetBy(toHash(value.add(BigInteger.ONE))));
+            assertTrue(target.isMetBy(toHash(value.subtract(BigInteger.ONE))));
+
+            for (int idx = 0; idx < 1000; idx++) {
+                // Keep most hashes near the target, so the lower words are compared
+                final byte[] bytes = Utils.bigIntegerToBytes(value, 32);
+                final int from = random.nextInt(32);
+                for (int byteIdx = from; byteIdx < 32; byteIdx++) {
+                    bytes[byteIdx] = (byte) random.nextInt();
+                }
+                final Sha256Hash hash = Sha256Hash.wrap(bytes);
+                assertEquals(hash.toBigInteger().compareTo(value) <= 0, target.isMetBy(hash));
+            }
+        }
+    }
+
+    @Test
+    public void shouldHandleTargetsOutsideHashRange() {
+        final Sha256Hash zero = Sha256Hash.ZERO_HASH;
+        final Sha256Hash max = toHash(BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE));
+        final CompactTarget huge = CompactTarget.valueOf(BigInteger.ONE.shiftLeft(256));
+        final CompactTarget negative = CompactTarget.valueOf(BigInteger.ONE.negate());
+        assertTrue(huge.isMetBy(max));
+        assertFalse(negative.isMetBy(zero));
+        assertTrue(CompactTarget.valueOf(BigInteger.ZERO).isMetBy(zero));
+    }
+
+    @Test
+    public void shouldCacheDecodedTargets() {
+        assertSame(CompactTarget.decode(0x1d00ffffL), CompactTarget.decode(0x1d00ffffL));
+    }
+
+    @Test
+    public void shouldCheckRange() {
+        final BigInteger maxTarget = Utils.decodeCompactBits(0x1e0fffffL);
+        CompactTarget.decode(0x1e0fffffL).checkRange(maxTarget);
+        try {
+            CompactTarget.decode(0x1e1fffffL).checkRange(maxTarget);
+            fail("Expected target above maximum to be rejected");
+        } catch (VerificationException expected) {
+            assertTrue(expected.getMessage().startsWith("Difficulty target is bad"));
+        }
+        try {
+            CompactTarget.decode(0L).checkRange(maxTarget);
+            fail("Expected zero target to be rejected");
+        } catch (VerificationException expected) {
+            assertTrue(expected.getMessage().startsWith("Difficulty target is bad"));
+        }
+    }
+
+    private static Sha256Hash toHash(BigInteger value) {
+        return Sha256Hash.wrap(Utils.bigIntegerToBytes(value, 32));
+    }
+}
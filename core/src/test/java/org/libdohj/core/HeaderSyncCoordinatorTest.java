@@ -0,0 +1,351 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BlockLocator;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.PeerAddress;
+import org.bitcoinj.core.PeerException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.core.VersionMessage;
+import org.libdohj.params.SyscoinMainNetParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class HeaderSyncCoordinatorTest {
+    private static final NetworkParameters params = SyscoinMainNetParams.get();
+
+    private final ForkJoinPool pool = new ForkJoinPool(2);
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(params));
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void shouldSplitChainAtCheckpoints() {
+        final HeaderSyncCoordinator coordinator = new HeaderSyncCoordinator(
+            ((SyscoinMainNetParams) params).getCheckpoints(), new HeaderVerifier(pool));
+
+        final List<HeaderSyncCoordinator.Segment> all = coordinator.getSegments(0);
+        assertEquals(13, all.size());
+        assertEquals(0, all.get(0).startHeight);
+        assertEquals(250, all.get(0).endHeight);
+        assertEquals(390000, all.get(12).startHeight);
+        assertEquals(391285, all.get(12).endHeight);
+        for (int segmentIdx = 1; segmentIdx < all.size(); segmentIdx++) {
+            assertEquals(all.get(segmentIdx - 1).endHash, all.get(segmentIdx).startHash);
+        }
+
+        // Starts from the last checkpoint at or below the height
+        final List<HeaderSyncCoordinator.Segment> later = coordinator.getSegments(6000);
+        assertEquals(5000, later.get(0).startHeight);
+        assertEquals(10000, later.get(0).endHeight);
+        assertEquals(10000, coordinator.getSegments(10000).get(0).startHeight);
+
+        assertTrue(coordinator.getSegments(391285).isEmpty());
+        assertTrue(coordinator.sync(Collections.<Peer>emptyList(), 400000, new RecordingConsumer()).isDone());
+    }
+
+    @Test
+    public void shouldAcceptValidSegment() {
+        final Map<Integer, Sha256Hash> checkpoints = new TreeMap<Integer, Sha256Hash>();
+        checkpoints.put(-1, Sha256Hash.ZERO_HASH);
+        checkpoints.put(0, params.getGenesisBlock().getHash());
+        final HeaderSyncCoordinator coordinator = new HeaderSyncCoordinator(checkpoints,
+            new HeaderVerifier(pool));
+        final byte[] genesisBytes = params.getGenesisBlock().cloneAsHeader().bitcoinSerialize();
+
+        coordinator.verifySegment(coordinator.getSegments(-1).get(0),
+            Collections.<Block>singletonList(new AltcoinBlock(params, genesisBytes)));
+    }
+
+    @Test
+    public void shouldRejectInvalidSegments() {
+        final List<Block> headers = buildHeaders(params.getGenesisBlock().getHash(), 5, 0);
+        final Map<Integer, Sha256Hash> checkpoints = new TreeMap<Integer, Sha256Hash>();
+        checkpoints.put(0, params.getGenesisBlock().getHash());
+        checkpoints.put(5, headers.get(4).getHash());
+        final HeaderSyncCoordinator coordinator = new HeaderSyncCoordinator(checkpoints,
+            new HeaderVerifier(pool));
+        final HeaderSyncCoordinator.Segment segment = coordinator.getSegments(0).get(0);
+
+        try {
+            coordinator.verifySegment(segment, headers.subList(0, 4));
+            fail("Expected short segment to be rejected");
+        } catch (VerificationException expected) {
+            assertTrue(expected.getMessage().startsWith("Expected 5 headers"));
+        }
+
+        final List<Block> unlinked = new ArrayList<Block>(headers);
+        unlinked.remove(2);
+        unlinked.add(2, headers.get(3));
+        try {
+            coordinator.verifySegment(segment, unlinked);
+            fail("Expected unlinked headers to be rejected");
+        } catch (VerificationException expected) {
+            assertTrue(expected.getMessage().contains("does not link"));
+        }
+
+        try {
+            coordinator.verifySegment(segment, buildHeaders(params.getGenesisBlock().getHash(), 5, 1));
+            fail("Expected headers not ending at the checkpoint to be rejected");
+        } catch (VerificationException expected) {
+            assertTrue(expected.getMessage().contains("do not match the checkpoint"));
+        }
+
+        // The headers link up, but were never mined
+        try {
+            coordinator.verifySegment(segment, headers);
+            fail("Expected headers without proof of work to be rejected");
+        } catch (VerificationException expected) {
+            assertTrue(expected.getMessage().contains("invalid proof of work"));
+        }
+    }
+
+    @Test
+    public void shouldSyncSegmentsAcrossPeersInOrder() throws Exception {
+        final List<Block> chain = buildHeaders(params.getGenesisBlock().getHash(), 10, 0);
+        final HeaderSyncCoordinator coordinator = createCoordinator(chain, 3, 6, 10);
+        final FakePeer first = new FakePeer(chain);
+        final FakePeer second = new FakePeer(chain);
+        final RecordingConsumer consumer = new RecordingConsumer();
+
+        final ListenableFuture<Integer> result = coordinator.sync(Arrays.<Peer>asList(first, second), 0, consumer);
+        // Each peer claims its own segment
+        assertEquals(params.getGenesisBlock().getHash(), first.requests.getFirst().from);
+        assertEquals(chain.get(2).getHash(), second.requests.getFirst().from);
+
+        // The second segment arrives first, but is held until the first is done
+        second.answer();
+        second.answer();
+        assertTrue(consumer.segments.isEmpty());
+        // Having finished, the second peer claims the last segment
+        assertEquals(chain.get(5).getHash(), second.requests.getFirst().from);
+
+        first.answer();
+        first.answer();
+        assertEquals(2, consumer.segments.size());
+        assertEquals(chain.subList(0, 3), consumer.segments.get(0));
+        assertEquals(chain.subList(3, 6), consumer.segments.get(1));
+        assertFalse(result.isDone());
+
+        // The last segment takes two requests, as peers send a limited number of headers at a time
+        second.answer();
+        assertEquals(chain.get(7).getHash(), second.requests.getFirst().from);
+        second.answer();
+        assertEquals(chain.subList(6, 10), consumer.segments.get(2));
+        assertEquals(Integer.valueOf(10), result.get());
+    }
+
+    @Test
+    public void shouldHandFailedSegmentToIdlePeer() throws Exception {
+        final List<Block> chain = buildHeaders(params.getGenesisBlock().getHash(), 4, 0);
+        final HeaderSyncCoordinator coordinator = createCoordinator(chain, 2, 4);
+        final FakePeer failing = new FakePeer(chain);
+        final FakePeer good = new FakePeer(chain);
+        final RecordingConsumer consumer = new RecordingConsumer();
+
+        final ListenableFuture<Integer> result = coordinator.sync(Arrays.<Peer>asList(failing, good), 0, consumer);
+        good.answer();
+        assertTrue(good.requests.isEmpty());
+
+        failing.fail();
+        assertEquals(params.getGenesisBlock().getHash(), good.requests.getFirst().from);
+        good.answer();
+        assertEquals(Integer.valueOf(4), result.get());
+        assertEquals(chain.subList(0, 2), consumer.segments.get(0));
+        assertEquals(chain.subList(2, 4), consumer.segments.get(1));
+    }
+
+    @Test
+    public void shouldFailWhenAllPeersFail() throws Exception {
+        final List<Block> chain = buildHeaders(params.getGenesisBlock().getHash(), 4, 0);
+        final HeaderSyncCoordinator coordinator = createCoordinator(chain, 2, 4);
+        final FakePeer first = new FakePeer(chain);
+        final FakePeer second = new FakePeer(chain);
+
+        final ListenableFuture<Integer> result = coordinator.sync(Arrays.<Peer>asList(first, second), 0,
+            new RecordingConsumer());
+        first.fail();
+        // Headers which don't reach the checkpoint fail the peer too
+        second.answerWith(buildHeaders(chain.get(1).getHash(), 2, 1));
+        try {
+            result.get();
+            fail("Expected sync to fail");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause().getMessage().startsWith("No peers left"));
+        }
+    }
+
+    @Test
+    public void shouldTimeOutSilentPeers() throws Exception {
+        final List<Block> chain = buildHeaders(params.getGenesisBlock().getHash(), 2, 0);
+        final HeaderSyncCoordinator coordinator = createCoordinator(chain, 2);
+        coordinator.setRequestTimeout(10, TimeUnit.MILLISECONDS);
+
+        final FakePeer silent = new FakePeer(chain);
+        final ListenableFuture<Integer> result = coordinator.sync(Collections.<Peer>singletonList(silent),
+            0, new RecordingConsumer());
+        try {
+            result.get(10, TimeUnit.SECONDS);
+            fail("Expected sync to time out");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause().getCause() instanceof TimeoutException);
+        }
+        // Disconnected, so that a late answer can't be taken for another request's
+        assertTrue(silent.closed.await(10, TimeUnit.SECONDS));
+        assertTrue(silent.requests.getFirst().future.isCancelled());
+    }
+
+    /**
+     * Create a coordinator with checkpoints at genesis and the given heights in
+     * the chain, which takes every header's proof of work as valid.
+     */
+    private HeaderSyncCoordinator createCoordinator(final List<Block> chain, final int... heights) {
+        final Map<Integer, Sha256Hash> checkpoints = new TreeMap<Integer, Sha256Hash>();
+        checkpoints.put(0, params.getGenesisBlock().getHash());
+        for (int height : heights) {
+            checkpoints.put(height, chain.get(height - 1).getHash());
+        }
+        return new HeaderSyncCoordinator(checkpoints, new HeaderVerifier(pool) {
+            @Override
+            public int verify(final List<? extends Block> headers) {
+                return headers.size();
+            }
+        });
+    }
+
+    /**
+     * Build a chain of headers, linked by hash, with the given salt in the
+     * nonce so that different branches have different hashes.
+     */
+    private static List<Block> buildHeaders(final Sha256Hash prevHash, final int count, final long salt) {
+        final List<Block> headers = new ArrayList<Block>();
+        Sha256Hash prev = prevHash;
+        for (int headerIdx = 0; headerIdx < count; headerIdx++) {
+            final AltcoinBlock header = new AltcoinBlock(params, 1, prev, Sha256Hash.ZERO_HASH,
+                1500000000L + headerIdx, 0x1e0fffffL, salt, Collections.<Transaction>emptyList());
+            headers.add(header);
+            prev = header.getHash();
+        }
+        return headers;
+    }
+
+    private static class RecordingConsumer implements HeaderSyncCoordinator.HeadersConsumer {
+        private final List<List<Block>> segments = new ArrayList<List<Block>>();
+
+        @Override
+        public void onHeaders(final List<Block> headers) {
+            segments.add(headers);
+        }
+    }
+
+    /**
+     * A peer which holds each request for headers until the test answers it,
+     * sending at most {@link #BATCH_SIZE} headers from the chain at a time.
+     */
+    private static class FakePeer extends Peer {
+        private static final int BATCH_SIZE = 2;
+
+        private final List<Block> chain;
+        private final LinkedList<Request> requests = new LinkedList<Request>();
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        private FakePeer(final List<Block> chain) {
+            super(params, new VersionMessage(params, 0), null, new PeerAddress(params, InetAddress.getLoopbackAddress()));
+            this.chain = chain;
+        }
+
+        @Override
+        public ListenableFuture<List<Block>> getBlockHeaders(final BlockLocator locator, final Sha256Hash stopHash) {
+            final Request request = new Request(locator.get(0), stopHash);
+            requests.add(request);
+            return request.future;
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+
+        private void answer() {
+            final Request request = requests.getFirst();
+            int start = 0;
+            while (!request.from.equals(params.getGenesisBlock().getHash())
+                    && !chain.get(start++).getHash().equals(request.from)) {
+                // Find the header after the one asked from
+            }
+            final List<Block> headers = new ArrayList<Block>();
+            for (int headerIdx = start; headerIdx < chain.size() && headers.size() < BATCH_SIZE; headerIdx++) {
+                headers.add(chain.get(headerIdx));
+                if (chain.get(headerIdx).getHash().equals(request.stopHash)) {
+                    break;
+                }
+            }
+            answerWith(headers);
+        }
+
+        private void answerWith(final List<Block> headers) {
+            requests.removeFirst().future.set(headers);
+        }
+
+        private void fail() {
+            requests.removeFirst().future.setException(new PeerException("Connection closed"));
+        }
+    }
+
+    private static class Request {
+        private final Sha256Hash from;
+        private final Sha256Hash stopHash;
+        private final SettableFuture<List<Block>> future = SettableFuture.create();
+
+        private Request(final Sha256Hash from, final Sha256Hash stopHash) {
+            this.from = from;
+            this.stopHash = stopHash;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.VerificationException;
+import org.libdohj.params.SyscoinMainNetParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class HeaderVerifierTest {
+    private static final NetworkParameters params = SyscoinMainNetParams.get();
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(params));
+    }
+
+    @Test
+    public void shouldVerifyValidHeadersOnly() throws Exception {
+        final byte[] genesisBytes = params.getGenesisBlock().cloneAsHeader().bitcoinSerialize();
+        final List<Block> headers = new ArrayList<Block>();
+        for (int headerIdx = 0; headerIdx < 100; headerIdx++) {
+            headers.add(new AltcoinBlock(params, genesisBytes));
+        }
+        final AltcoinBlock invalid = new AltcoinBlock(params, genesisBytes);
+        invalid.setNonce(invalid.getNonce() + 1);
+        headers.add(37, invalid);
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(100, new HeaderVerifier(pool).verify(headers));
+        } finally {
+            pool.shutdown();
+        }
+
+        // Headers which failed are still rejected when verified again
+        try {
+            invalid.verifyHeader();
+            fail("Expected invalid header to fail verification");
+        } catch (VerificationException expected) {
+            assertTrue(expected.getMessage().startsWith("Hash is higher than target"));
+        }
+    }
+
+    @Test
+    public void shouldNotTrustModifiedHeader() throws Exception {
+        final byte[] genesisBytes = params.getGenesisBlock().cloneAsHeader().bitcoinSerialize();
+        final AltcoinBlock header = new AltcoinBlock(params, genesisBytes);
+        assertTrue(header.verifyProofOfWork());
+
+        header.setNonce(header.getNonce() + 1);
+        assertFalse(header.verifyProofOfWork());
+    }
+}
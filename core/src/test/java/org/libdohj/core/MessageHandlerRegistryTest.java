@@ -0,0 +1,79 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.InventoryMessage;
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.NotFoundMessage;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.Ping;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MessageHandlerRegistryTest {
+    @Test
+    public void shouldFindHandlerByClass() {
+        final MessageHandlerRegistry registry = new MessageHandlerRegistry();
+        final MessageHandler<InventoryMessage> invHandler = new NoopHandler<InventoryMessage>();
+        final MessageHandler<NotFoundMessage> notFoundHandler = new NoopHandler<NotFoundMessage>();
+        registry.register(InventoryMessage.class, invHandler);
+        registry.register(NotFoundMessage.class, notFoundHandler);
+
+        assertSame(invHandler, registry.get(InventoryMessage.class));
+        // A subclass with its own handler gets that, not the superclass handler
+        assertSame(notFoundHandler, registry.get(NotFoundMessage.class));
+        assertNull(registry.get(Ping.class));
+    }
+
+    @Test
+    public void shouldResolveSubclassesToNearestHandler() {
+        final MessageHandlerRegistry registry = new MessageHandlerRegistry();
+        final MessageHandler<Block> blockHandler = new NoopHandler<Block>();
+        registry.register(Block.class, blockHandler);
+        assertSame(blockHandler, registry.get(AltcoinBlock.class));
+        // Cached, and still found
+        assertSame(blockHandler, registry.get(AltcoinBlock.class));
+
+        // Registering for the subclass replaces the cached handler
+        final MessageHandler<AltcoinBlock> altcoinHandler = new NoopHandler<AltcoinBlock>();
+        registry.register(AltcoinBlock.class, altcoinHandler);
+        assertSame(altcoinHandler, registry.get(AltcoinBlock.class));
+        assertSame(blockHandler, registry.get(Block.class));
+    }
+
+    @Test
+    public void shouldNotShareRegistrationsWithTemplate() {
+        final MessageHandlerRegistry template = new MessageHandlerRegistry();
+        final MessageHandler<Message> messageHandler = new NoopHandler<Message>();
+        template.register(Message.class, messageHandler);
+
+        final MessageHandlerRegistry registry = new MessageHandlerRegistry(template);
+        final MessageHandler<Ping> pingHandler = new NoopHandler<Ping>();
+        registry.register(Ping.class, pingHandler);
+
+        assertSame(pingHandler, registry.get(Ping.class));
+        assertSame(messageHandler, template.get(Ping.class));
+    }
+
+    private static class NoopHandler<M extends Message> implements MessageHandler<M> {
+        @Override
+        public void handleMessage(Peer peer, M message) {
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import org.bitcoinj.core.Context;
+import org.bitcoinj.net.MessageWriteTarget;
+import org.bitcoinj.net.StreamConnection;
+import org.libdohj.params.SyscoinMainNetParams;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.SocketFactory;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class VirtualThreadClientManagerTest {
+    private VirtualThreadClientManager manager;
+    private ServerSocket server;
+
+    @Before
+    public void setUp() throws Exception {
+        new Context(SyscoinMainNetParams.get());
+        manager = new VirtualThreadClientManager();
+        manager.startAsync().awaitRunning();
+        server = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        manager.stopAsync().awaitTerminated();
+        server.close();
+    }
+
+    @Test
+    public void shouldExchangeBytes() throws Exception {
+        final RecordingConnection connection = new RecordingConnection();
+        manager.openConnection(server.getLocalSocketAddress(), connection).get(10, TimeUnit.SECONDS);
+        final Socket accepted = server.accept();
+        assertTrue(connection.opened.await(10, TimeUnit.SECONDS));
+        assertEquals(1, manager.getConnectedClientCount());
+
+        final OutputStream out = accepted.getOutputStream();
+        out.write(new byte[] {1, 2, 3});
+        out.flush();
+        assertEquals(1, connection.received.poll(10, TimeUnit.SECONDS).byteValue());
+        assertEquals(2, connection.received.poll(10, TimeUnit.SECONDS).byteValue());
+        assertEquals(3, connection.received.poll(10, TimeUnit.SECONDS).byteValue());
+
+        connection.writeTarget.writeBytes(new byte[] {4});
+        final InputStream in = accepted.getInputStream();
+        assertEquals(4, in.read());
+
+        manager.closeConnections(1);
+        assertTrue(connection.closed.await(10, TimeUnit.SECONDS));
+        assertEquals(-1, in.read());
+        assertEquals(0, manager.getConnectedClientCount());
+        accepted.close();
+    }
+
+    @Test
+    public void shouldCountConnectionBeforeItIsEstablished() throws Exception {
+        // Hold the thread back until the connection has been closed
+        final CountDownLatch release = new CountDownLatch(1);
+        final ThreadFactory factory = VirtualThreadClientManager.createThreadFactory();
+        final VirtualThreadClientManager held = new VirtualThreadClientManager(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return factory.newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        runnable.run();
+                    }
+                });
+            }
+        }, SocketFactory.getDefault());
+        held.startAsync().awaitRunning();
+        try {
+            final RecordingConnection connection = new RecordingConnection();
+            held.openConnection(server.getLocalSocketAddress(), connection);
+            assertEquals(1, held.getConnectedClientCount());
+            held.closeConnections(1);
+            release.countDown();
+            assertTrue(connection.closed.await(10, TimeUnit.SECONDS));
+            assertEquals(1, connection.opened.getCount());
+            assertEquals(0, held.getConnectedClientCount());
+        } finally {
+            release.countDown();
+            held.stopAsync().awaitTerminated();
+        }
+    }
+
+    /**
+     * Runs only on a JVM with virtual threads (Java 21 and later).
+     */
+    @Test
+    public void shouldRunConnectionsOnVirtualThreads() throws Exception {
+        final Method isVirtual;
+        try {
+            isVirtual = Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            Assume.assumeNoException(e);
+            return;
+        }
+        final Thread thread = VirtualThreadClientManager.createThreadFactory().newThread(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        assertTrue((Boolean) isVirtual.invoke(thread));
+
+        final RecordingConnection connection = new RecordingConnection();
+        manager.openConnection(server.getLocalSocketAddress(), connection).get(10, TimeUnit.SECONDS);
+        final Socket accepted = server.accept();
+        assertTrue(connection.opened.await(10, TimeUnit.SECONDS));
+        assertTrue((Boolean) isVirtual.invoke(connection.openedOn));
+
+        accepted.getOutputStream().write(new byte[] {5});
+        accepted.getOutputStream().flush();
+        assertEquals(5, connection.received.poll(10, TimeUnit.SECONDS).byteValue());
+        connection.writeTarget.writeBytes(new byte[] {6});
+        assertEquals(6, accepted.getInputStream().read());
+
+        manager.closeConnections(1);
+        assertTrue(connection.closed.await(10, TimeUnit.SECONDS));
+        accepted.close();
+    }
+
+    @Test
+    public void shouldFailToConnect() throws Exception {
+        final InetSocketAddress address = (InetSocketAddress) server.getLocalSocketAddress();
+        server.close();
+        final RecordingConnection connection = new RecordingConnection();
+        try {
+            manager.openConnection(address, connection).get(10, TimeUnit.SECONDS);
+            fail("Expected connection to be refused");
+        } catch (ExecutionException expected) {
+            // Nothing is listening any more
+        }
+        assertTrue(connection.closed.await(10, TimeUnit.SECONDS));
+        assertEquals(1, connection.opened.getCount());
+    }
+
+    private static class RecordingConnection implements StreamConnection {
+        private final CountDownLatch opened = new CountDownLatch(1);
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private final BlockingQueue<Byte> received = new ArrayBlockingQueue<Byte>(100);
+        private volatile MessageWriteTarget writeTarget;
+        private volatile Thread openedOn;
+
+        @Override
+        public void connectionClosed() {
+            closed.countDown();
+        }
+
+        @Override
+        public void connectionOpened() {
+            openedOn = Thread.currentThread();
+            opened.countDown();
+        }
+
+        @Override
+        public int receiveBytes(final ByteBuffer buff) {
+            final int count = buff.remaining();
+            while (buff.hasRemaining()) {
+                received.add(buff.get());
+            }
+            return count;
+        }
+
+        @Override
+        public void setWriteTarget(final MessageWriteTarget writeTarget) {
+            this.writeTarget = writeTarget;
+        }
+
+        @Override
+        public int getMaxMessageSize() {
+            return 1024;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2026 The libdohj team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.params;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class RecentBlockIndexTest {
+    private static final NetworkParameters params = SyscoinMainNetParams.get();
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+    }
+
+    @Test
+    public void shouldFindAncestorsOfTip() {
+        final RecentBlockIndex index = new RecentBlockIndex(10);
+        final StoredBlock[] chain = buildChain(Sha256Hash.ZERO_HASH, 0, 25, 0);
+        for (StoredBlock block : chain) {
+            index.record(block);
+        }
+        final StoredBlock tip = chain[24];
+        assertSame(chain[15], index.getAncestor(tip, 15));
+        assertSame(chain[20], index.getAncestor(chain[22], 20));
+        assertSame(tip, index.getAncestor(tip, 24));
+        // Fallen out of the ring
+        assertNull(index.getAncestor(tip, 14));
+        // Recording the same block again changes nothing
+        index.record(tip);
+        assertSame(chain[15], index.getAncestor(tip, 15));
+    }
+
+    @Test
+    public void shouldNotReturnBlocksFromAnotherBranch() {
+        final RecentBlockIndex index = new RecentBlockIndex(10);
+        final StoredBlock[] chain = buildChain(Sha256Hash.ZERO_HASH, 0, 10, 0);
+        for (StoredBlock block : chain) {
+            index.record(block);
+        }
+        // A fork from block 5, which does not link to the tip
+        final StoredBlock[] fork = buildChain(chain[5].getHeader().getHash(), 6, 3, 1);
+        index.record(fork[0]);
+
+        assertNull(index.getAncestor(chain[9], 5));
+        assertNull(index.getAncestor(fork[0], 5));
+        assertSame(fork[0], index.getAncestor(fork[0], 6));
+
+        index.record(fork[1]);
+        index.record(fork[2]);
+        assertSame(fork[0], index.getAncestor(fork[2], 6));
+    }
+
+    /**
+     * Build a chain of headers, linked by hash, with the given salt in the
+     * nonce so that different branches have different hashes.
+     */
+    private static StoredBlock[] buildChain(final Sha256Hash prevHash, final int startHeight,
+                                            final int count, final long salt) {
+        final StoredBlock[] chain = new StoredBlock[count];
+        Sha256Hash prev = prevHash;
+        for (int idx = 0; idx < count; idx++) {
+            final AltcoinBlock header = new AltcoinBlock(params, 1, prev, Sha256Hash.ZERO_HASH,
+                1500000000L + idx, 0x1e0fffffL, salt, Collections.<Transaction>emptyList());
+            chain[idx] = new StoredBlock(header, BigInteger.ONE, startHeight + idx);
+            prev = header.getHash();
+        }
+        return chain;
+    }
+}